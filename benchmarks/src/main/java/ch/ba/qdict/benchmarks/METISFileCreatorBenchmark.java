@@ -0,0 +1,71 @@
+package ch.ba.qdict.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ch.ba.qdict.graph.CSRGraph;
+import ch.ba.qdict.metis.METISFileCreator;
+
+/**
+ * Writing the METIS input file of a lookup graph built from size traces.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class METISFileCreatorBenchmark {
+
+	@Param({ "10000", "100000", "1000000" })
+	public int size;
+
+	@Param({ "1", "4" })
+	public int writerThreads;
+
+	private CSRGraph<String> graph;
+	private File outFolder;
+
+	@Setup
+	public void setup() throws IOException {
+		graph = SyntheticTraces.lookupGraph(size);
+		outFolder = Files.createTempDirectory("qt-bench").toFile();
+	}
+
+	@Benchmark
+	public String createMetisFile() {
+		return METISFileCreator.createMetisFile(graph, SyntheticTraces.NO_NODES, "bench", outFolder.getPath() + "/",
+				writerThreads);
+	}
+
+	@TearDown(Level.Invocation)
+	public void deleteMetisFiles() {
+		File[] files = outFolder.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		SyntheticTraces.deleteRecursively(outFolder);
+	}
+}
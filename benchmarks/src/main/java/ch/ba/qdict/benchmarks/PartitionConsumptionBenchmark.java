@@ -0,0 +1,106 @@
+package ch.ba.qdict.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ch.ba.qdict.dictionary.DictionaryCreator;
+import ch.ba.qdict.dictionary.LookupTableCreator;
+import ch.ba.qdict.graph.CSRGraph;
+import ch.ba.qdict.metis.PartitionFileReader;
+
+/**
+ * Consuming .part files: reading the partitions and creating the lookup table and the dictionary from them, for
+ * graphs built from size traces.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PartitionConsumptionBenchmark {
+
+	@Param({ "10000", "100000", "1000000" })
+	public int size;
+
+	@Param({ "1", "4" })
+	public int threads;
+
+	private CSRGraph<String> lookupGraph;
+	private CSRGraph<Integer> dictGraph;
+
+	private File folder;
+	private File outFolder;
+	private String lookupPartFile;
+	private String dictPartFile;
+	private String dictFile;
+
+	@Setup
+	public void setup() throws IOException {
+		lookupGraph = SyntheticTraces.lookupGraph(size);
+		dictGraph = SyntheticTraces.dictGraph(size);
+
+		folder = Files.createTempDirectory("qt-bench").toFile();
+		outFolder = new File(folder, "out");
+
+		lookupPartFile = new File(folder, "table.part").getPath();
+		dictPartFile = new File(folder, "dict.part").getPath();
+		dictFile = new File(folder, "normal-dict").getPath();
+		Files.write(new File(lookupPartFile).toPath(), SyntheticTraces.partitionLines(lookupGraph.getNumberOfVertices(),
+				SyntheticTraces.NO_NODES));
+		Files.write(new File(dictPartFile).toPath(), SyntheticTraces.partitionLines(dictGraph.getNumberOfVertices(), 0));
+		Files.write(new File(dictFile).toPath(),
+				SyntheticTraces.dictionaryLines(Math.max(SyntheticTraces.noEntities(size), 20) + 1));
+	}
+
+	@Setup(Level.Invocation)
+	public void createOutFolders() {
+		new File(outFolder, "tables").mkdirs();
+		new File(outFolder, "dicts").mkdirs();
+	}
+
+	@Benchmark
+	public int[] readPartitions() {
+		return PartitionFileReader.readPartitions(lookupPartFile, lookupGraph.getNumberOfVertices(), threads);
+	}
+
+	@Benchmark
+	public String createLookupTable() {
+		int[] partitions = PartitionFileReader.readPartitions(lookupPartFile, lookupGraph.getNumberOfVertices(), threads);
+		return LookupTableCreator.createLookupTable("bench-table", partitions, SyntheticTraces.NO_NODES, lookupGraph,
+				outFolder.getPath() + "/", threads);
+	}
+
+	@Benchmark
+	public String createDictionary() {
+		int[] partitions = PartitionFileReader.readPartitions(dictPartFile, dictGraph.getNumberOfVertices(), threads);
+		return DictionaryCreator.createDictionary("bench-dict", partitions, dictFile, dictGraph,
+				SyntheticTraces.NO_NODES, outFolder.getPath() + "/", "bench-idMap", threads);
+	}
+
+	@TearDown(Level.Invocation)
+	public void deleteOutput() {
+		SyntheticTraces.deleteRecursively(outFolder);
+	}
+
+	@TearDown
+	public void tearDown() {
+		SyntheticTraces.deleteRecursively(folder);
+	}
+}
@@ -0,0 +1,102 @@
+package ch.ba.qdict.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ch.ba.qdict.graph.ConcurrentQueryGraph;
+import ch.ba.qdict.graph.QueryGraph;
+import ch.ba.qdict.graph.TriplePatternCodec;
+
+/**
+ * Building a lookup graph edge by edge, from TriplePattern Strings and from interned keys as the ingestion does.
+ * sumWeights=true is the path of trace edges, sumWeights=false the path of affinity edges. The concurrent variant
+ * adds the same edges from all common pool threads to one {@link ConcurrentQueryGraph}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class QueryGraphBenchmark {
+
+	@Param({ "10000", "100000", "1000000" })
+	public int size;
+
+	@Param({ "true", "false" })
+	public boolean sumWeights;
+
+	private String[] sources;
+	private String[] dests;
+	private int[] queries;
+
+	private TriplePatternCodec codec;
+	private long[] sourceKeys;
+	private long[] destKeys;
+
+	@Setup
+	public void setup() {
+		int[][] tps = SyntheticTraces.triplePatterns(2 * size, SyntheticTraces.noEntities(size));
+		sources = new String[size];
+		dests = new String[size];
+		queries = new int[size];
+
+		codec = new TriplePatternCodec();
+		sourceKeys = new long[size];
+		destKeys = new long[size];
+
+		for (int i = 0; i < size; i++) {
+			int[] source = tps[2 * i];
+			int[] dest = tps[2 * i + 1];
+			sources[i] = SyntheticTraces.toString(source);
+			dests[i] = SyntheticTraces.toString(dest);
+			queries[i] = i % SyntheticTraces.NO_QUERIES;
+			sourceKeys[i] = codec.encode(source[0], source[1], source[2]);
+			destKeys[i] = codec.encode(dest[0], dest[1], dest[2]);
+		}
+	}
+
+	@Benchmark
+	public QueryGraph<String> addEdge() {
+		QueryGraph<String> graph = new QueryGraph<String>(SyntheticTraces.NO_QUERIES, true, new TriplePatternCodec());
+		for (int i = 0; i < size; i++) {
+			graph.addEdge(sources[i], dests[i], queries[i], SyntheticTraces.TRACE_WEIGHT, sumWeights);
+		}
+		return graph;
+	}
+
+	@Benchmark
+	public QueryGraph<String> addEdgeByKey() {
+		QueryGraph<String> graph = new QueryGraph<String>(SyntheticTraces.NO_QUERIES, true, codec);
+		for (int i = 0; i < size; i++) {
+			graph.addEdgeByKey(sourceKeys[i], destKeys[i], queries[i], SyntheticTraces.TRACE_WEIGHT, sumWeights);
+		}
+		return graph;
+	}
+
+	@Benchmark
+	public ConcurrentQueryGraph<String> addEdgeByKeyConcurrent() {
+		final ConcurrentQueryGraph<String> graph = new ConcurrentQueryGraph<String>(SyntheticTraces.NO_QUERIES, true,
+				codec);
+		IntStream.range(0, size).parallel().forEach(new IntConsumer() {
+			@Override
+			public void accept(int i) {
+				graph.addEdgeByKey(sourceKeys[i], destKeys[i], queries[i], SyntheticTraces.TRACE_WEIGHT, sumWeights);
+			}
+		});
+		return graph;
+	}
+}
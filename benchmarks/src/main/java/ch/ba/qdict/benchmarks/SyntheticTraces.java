@@ -0,0 +1,162 @@
+package ch.ba.qdict.benchmarks;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import ch.ba.qdict.graph.CSRGraph;
+import ch.ba.qdict.graph.QueryGraph;
+import ch.ba.qdict.graph.TPProcessor;
+import ch.ba.qdict.graph.TriplePatternCodec;
+import ch.ba.qdict.graph.VertexCodec;
+
+/**
+ * Seeded random traces and graphs for the benchmarks. Graph sizes are given as number of traces; there are a quarter
+ * as many entities, so TriplePatterns repeat like in real traces.
+ */
+class SyntheticTraces {
+
+	static final int NO_QUERIES = 16;
+	static final int NO_NODES = 4;
+	static final int TRACE_WEIGHT = 1000;
+	static final int AFFINITY_WEIGHT = 100;
+
+	private static final long SEED = 42;
+
+	static int noEntities(int noTraces) {
+		return Math.max(16, noTraces / 4);
+	}
+
+	/**
+	 * @return Subject, predicate and object of noTriplePatterns TriplePatterns
+	 */
+	static int[][] triplePatterns(int noTriplePatterns, int noEntities) {
+		Random random = new Random(SEED);
+		int[][] tps = new int[noTriplePatterns][];
+		for (int i = 0; i < noTriplePatterns; i++) {
+			tps[i] = triplePattern(random, noEntities);
+		}
+		return tps;
+	}
+
+	static String toString(int[] tp) {
+		return "(" + tp[0] + "," + tp[1] + "," + tp[2] + ")";
+	}
+
+	/**
+	 * @return Trace lines in the format of the trace files, each terminated by \n
+	 */
+	static byte[] traceLines(int noTraces) {
+		int noEntities = noEntities(noTraces);
+		Random random = new Random(SEED);
+		StringBuilder lines = new StringBuilder(noTraces * 40);
+		for (int i = 0; i < noTraces; i++) {
+			lines.append(random.nextInt(NO_QUERIES)).append(' ');
+			lines.append(toString(triplePattern(random, noEntities))).append(' ');
+			lines.append(toString(triplePattern(random, noEntities))).append(' ');
+			lines.append(random.nextBoolean() ? "forwarding" : "redirecting").append('\n');
+		}
+		return lines.toString().getBytes(StandardCharsets.US_ASCII);
+	}
+
+	/**
+	 * @return Lookup graph built like the trace ingestion does: node vertices first, trace edges and affinity edges
+	 */
+	static CSRGraph<String> lookupGraph(int noTraces) {
+		TriplePatternCodec codec = new TriplePatternCodec();
+		QueryGraph<String> graph = new QueryGraph<String>(NO_QUERIES, true, codec);
+		for (int node = 0; node < NO_NODES; node++) {
+			graph.addVertexByKey(codec.encodeNode(node));
+		}
+
+		int noEntities = noEntities(noTraces);
+		Random random = new Random(SEED);
+		for (int i = 0; i < noTraces; i++) {
+			int query = random.nextInt(NO_QUERIES);
+			int[] source = triplePattern(random, noEntities);
+			int[] dest = triplePattern(random, noEntities);
+			long sourceKey = codec.encode(source[0], source[1], source[2]);
+			long destKey = codec.encode(dest[0], dest[1], dest[2]);
+			graph.addEdgeByKey(sourceKey, destKey, query, TRACE_WEIGHT, true);
+			graph.addEdgeByKey(sourceKey, codec.encodeNode(nodeOf(source)), query, AFFINITY_WEIGHT, false);
+			graph.addEdgeByKey(destKey, codec.encodeNode(nodeOf(dest)), query, AFFINITY_WEIGHT, false);
+		}
+		return graph.freeze();
+	}
+
+	/**
+	 * @return Dictionary graph over the significant IDs of the same traces as {@link #lookupGraph(int)}
+	 */
+	static CSRGraph<Integer> dictGraph(int noTraces) {
+		QueryGraph<Integer> graph = new QueryGraph<Integer>(NO_QUERIES, true, VertexCodec.INTEGER);
+
+		int noEntities = noEntities(noTraces);
+		Random random = new Random(SEED);
+		for (int i = 0; i < noTraces; i++) {
+			int query = random.nextInt(NO_QUERIES);
+			int sourceSigId = TPProcessor.getSigId(triplePattern(random, noEntities));
+			int destSigId = TPProcessor.getSigId(triplePattern(random, noEntities));
+			if (sourceSigId != destSigId) {
+				graph.addEdgeByKey(sourceSigId, destSigId, query, TRACE_WEIGHT, true);
+			}
+		}
+		return graph.freeze();
+	}
+
+	/**
+	 * @return Partition number for each of the noVertices vertices, as one line per vertex: node vertex i in
+	 *         partition i, like a partitioner places them, all other vertices in random partitions
+	 */
+	static byte[] partitionLines(int noVertices, int noNodeVertices) {
+		Random random = new Random(SEED);
+		StringBuilder lines = new StringBuilder(noVertices * 2);
+		for (int v = 0; v < noVertices; v++) {
+			lines.append(v < noNodeVertices ? v : random.nextInt(NO_NODES)).append('\n');
+		}
+		return lines.toString().getBytes(StandardCharsets.US_ASCII);
+	}
+
+	/**
+	 * @return Dictionary with one line per entity ID
+	 */
+	static byte[] dictionaryLines(int noEntities) {
+		StringBuilder lines = new StringBuilder(noEntities * 24);
+		for (int id = 0; id < noEntities; id++) {
+			lines.append("<http://example.org/").append(id).append(">\n");
+		}
+		return lines.toString().getBytes(StandardCharsets.US_ASCII);
+	}
+
+	static void deleteRecursively(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				deleteRecursively(child);
+			}
+		}
+		file.delete();
+	}
+
+	private static int nodeOf(int[] tp) {
+		return TPProcessor.getNodeNumber(TPProcessor.getSigId(tp), NO_NODES);
+	}
+
+	/**
+	 * Mix of TriplePatterns with bound subject, bound object and only the predicate bound.
+	 */
+	private static int[] triplePattern(Random random, int noEntities) {
+		int subject = 1 + random.nextInt(noEntities);
+		int predicate = 1 + random.nextInt(20);
+		int object = 1 + random.nextInt(noEntities);
+		double r = random.nextDouble();
+		if (r < 0.3) {
+			subject = 0;
+		} else if (r < 0.5) {
+			object = 0;
+		} else if (r < 0.55) {
+			subject = 0;
+			object = 0;
+		}
+		return new int[] { subject, predicate, object };
+	}
+}
@@ -0,0 +1,77 @@
+package ch.ba.qdict.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import ch.ba.qdict.graph.TPProcessor;
+
+/**
+ * TriplePattern String processing, over size TriplePatterns per invocation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TPProcessorBenchmark {
+
+	@Param({ "1000", "100000" })
+	public int size;
+
+	private String[] tps;
+	private int[] sigIds;
+
+	@Setup
+	public void setup() {
+		int[][] ids = SyntheticTraces.triplePatterns(size, SyntheticTraces.noEntities(size));
+		tps = new String[size];
+		sigIds = new int[size];
+		for (int i = 0; i < size; i++) {
+			tps[i] = SyntheticTraces.toString(ids[i]);
+			sigIds[i] = TPProcessor.getSigId(ids[i]);
+		}
+	}
+
+	@Benchmark
+	public void extractIds(Blackhole blackhole) {
+		for (String tp : tps) {
+			blackhole.consume(TPProcessor.extractIds(tp));
+		}
+	}
+
+	@Benchmark
+	public void getSigId(Blackhole blackhole) {
+		for (String tp : tps) {
+			blackhole.consume(TPProcessor.getSigId(tp));
+		}
+	}
+
+	@Benchmark
+	public void getNodeNumber(Blackhole blackhole) {
+		for (String tp : tps) {
+			blackhole.consume(TPProcessor.getNodeNumber(tp, SyntheticTraces.NO_NODES));
+		}
+	}
+
+	@Benchmark
+	public int getNodeNumberOfSigId() {
+		int sum = 0;
+		for (int sigId : sigIds) {
+			sum += TPProcessor.getNodeNumber(sigId, SyntheticTraces.NO_NODES);
+		}
+		return sum;
+	}
+}
@@ -0,0 +1,54 @@
+package ch.ba.qdict.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ch.ba.qdict.file.TraceLineParser;
+
+/**
+ * Parsing size trace lines from a byte buffer, as the trace chunks are parsed.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TraceLineParserBenchmark {
+
+	@Param({ "10000", "1000000" })
+	public int size;
+
+	private byte[] lines;
+
+	@Setup
+	public void setup() {
+		lines = SyntheticTraces.traceLines(size);
+	}
+
+	@Benchmark
+	public long parse() {
+		TraceLineParser parser = new TraceLineParser();
+		long sum = 0;
+		int from = 0;
+		for (int i = 0; i < lines.length; i++) {
+			if (lines[i] == '\n') {
+				parser.parse(lines, from, i);
+				sum += parser.getQueryId() + parser.getSourceSigId() + parser.getDestSigId();
+				from = i + 1;
+			}
+		}
+		return sum;
+	}
+}
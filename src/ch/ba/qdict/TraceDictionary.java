@@ -5,18 +5,42 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.lang.ProcessBuilder.Redirect;
+import java.util.List;
 import java.util.Properties;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import ch.ba.qdict.dictionary.DictionaryCreator;
 import ch.ba.qdict.dictionary.LookupTableCreator;
+import ch.ba.qdict.dictionary.PartitionRelabeling;
+import ch.ba.qdict.file.DictionaryWriter;
+import ch.ba.qdict.file.ExternalTraceGraphs;
 import ch.ba.qdict.file.TraceFileProcessor;
-import ch.ba.qdict.graph.QueryGraph;
+import ch.ba.qdict.file.TraceGraphs;
+import ch.ba.qdict.file.TraceManifest;
+import ch.ba.qdict.file.TraceSnapshots;
+import ch.ba.qdict.file.TraceStateStore;
+import ch.ba.qdict.file.TraceWindow;
+import ch.ba.qdict.graph.CSRGraph;
+import ch.ba.qdict.graph.GraphBuilder;
+import ch.ba.qdict.graph.VertexTable;
 import ch.ba.qdict.metis.METISFileCreator;
+import ch.ba.qdict.metis.METISPartitioner;
+import ch.ba.qdict.metrics.RunMetrics;
+import ch.ba.qdict.partition.IncrementalPartitioner;
+import ch.ba.qdict.partition.MultilevelPartitioner;
+import ch.ba.qdict.partition.Partitioner;
+import ch.ba.qdict.partition.QueryGroupPartitioner;
 
 public class TraceDictionary {
 
+	// Partitioning and table creation need about this many times the size of a frozen graph
+	private static final int STAGE_MEMORY_FACTOR = 3;
+
+	private static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+
 	public static void main(String[] args) {
 
 		System.out.println("=== Trace Dictionary Creator ===");
@@ -62,123 +86,417 @@ public class TraceDictionary {
 		int traceWeight = Integer.parseInt(params.getProperty("TRACE_WEIGHT", "1000"));
 		int nodeAffinityWeight = Integer.parseInt(params.getProperty("AFFINITY_WEIGHT", "100"));
 
+		// Only read trace files of the last TRACE_WINDOW_DAYS and halve trace weights every TRACE_HALF_LIFE_DAYS of age
+		double traceWindowDays = Double.parseDouble(params.getProperty("TRACE_WINDOW_DAYS", "0"));
+		double traceHalfLifeDays = Double.parseDouble(params.getProperty("TRACE_HALF_LIFE_DAYS", "0"));
+		TraceWindow traceWindow = new TraceWindow((long) (traceWindowDays * DAY_MILLIS),
+				(long) (traceHalfLifeDays * DAY_MILLIS));
+
 		String metisBinaryPath = params.getProperty("METIS_BIN", "/home/user/ctschanz/usr/bin/gpmetis");
-		
-		// --- Variables -----------------------------------------------------------------------------------------------------
-		
-		String metisFileName = "";
 
+		int ingestThreads = Integer.parseInt(params.getProperty("INGEST_THREADS",
+				Integer.toString(Runtime.getRuntime().availableProcessors())));
+		// Worker threads decompressing .gz and BGZF trace files, in addition to the ingest threads
+		int decompressThreads = Integer.parseInt(params.getProperty("DECOMPRESS_THREADS", Integer.toString(ingestThreads)));
+		int writerThreads = Integer.parseInt(params.getProperty("WRITER_THREADS",
+				Integer.toString(Runtime.getRuntime().availableProcessors())));
+
+		// metis = external gpmetis process, multilevel = in-JVM multilevel partitioner
+		String partitionerName = params.getProperty("PARTITIONER", "metis");
+		int partitionThreads = Integer.parseInt(params.getProperty("PARTITION_THREADS",
+				Integer.toString(Runtime.getRuntime().availableProcessors())));
+		double partitionImbalance = Double.parseDouble(params.getProperty("PARTITION_IMBALANCE", "1.03"));
+		// Balance groups of queries with similar footprints instead of every query; 0 = one constraint per query
+		int constraintGroups = Integer.parseInt(params.getProperty("CONSTRAINT_GROUPS", "0"));
+
+		// All ingest threads add to one concurrent lookup and dictionary graph instead of merging partial graphs
+		boolean sharedGraph = Boolean.parseBoolean(params.getProperty("SHARED_GRAPH", "false"));
+
+		// Run lookup table and dictionary stages concurrently if both fit into memory
+		boolean pipelineStages = Boolean.parseBoolean(params.getProperty("PIPELINE_STAGES", "false"));
+
+		// Keep the trace graphs between runs; only read new traces and repartition when the partitions drifted too far
+		boolean incremental = Boolean.parseBoolean(params.getProperty("INCREMENTAL", "false"));
+		String statePath = params.getProperty("STATE_PATH", outPath);
+		double repartitionThreshold = Double.parseDouble(params.getProperty("REPARTITION_THRESHOLD", "0.05"));
+
+		// Save the aggregated trace graphs after ingestion, or load them instead of reading the traces
+		boolean saveSnapshot = Boolean.parseBoolean(params.getProperty("SNAPSHOT_SAVE", "false"));
+		boolean loadSnapshot = Boolean.parseBoolean(params.getProperty("SNAPSHOT_LOAD", "false"));
+		String snapshotPath = params.getProperty("SNAPSHOT_PATH", outPath);
+
+		// Keep only the vertices in memory and aggregate the edges in sorted run files below SPILL_PATH
+		boolean outOfCore = Boolean.parseBoolean(params.getProperty("OUT_OF_CORE", "false"));
+		String spillPath = params.getProperty("SPILL_PATH", outPath);
+		long edgeMemory = Long.parseLong(params.getProperty("EDGE_MEMORY_MB", "256")) << 20;
+
+		// Relabel partitions to the nodes of the previous lookup table and ID map, so that fewer entries move; default
+		// are the newest outputs in OUT_PATH
+		boolean relabel = Boolean.parseBoolean(params.getProperty("RELABEL", "false"));
+		String previousTablePath = params.getProperty("PREVIOUS_TABLE");
+		String previousIdMapPath = params.getProperty("PREVIOUS_ID_MAP");
+		final File previousTable = !relabel ? null : (previousTablePath != null) ? new File(previousTablePath)
+				: DictionaryWriter.getNewestFile(outPath + "tables/qt-table_" + dataset + "_" + noNodes);
+		final File previousIdMap = !relabel ? null : (previousIdMapPath != null) ? new File(previousIdMapPath)
+				: DictionaryWriter.getNewestFile(outPath + "qt-idMap_" + dataset + "_" + noNodes);
+
+		// Write per-phase metrics as JSON next to the outputs
+		boolean runReport = Boolean.parseBoolean(params.getProperty("RUN_REPORT", "true"));
+		
 		// --- Validate Input ------------------------------------------------------------------------------------------------
 
 		if (queryIdMin < 0) {
 			System.err.println("WARNING! Invalid query ID. Exiting.");
 			System.exit(0);
 		}
-		
-		// --- Create Lookup Table -------------------------------------------------------------------------------------------
 
-		System.out.println("= Creating Lookup Table =");
+		if (loadSnapshot && incremental) {
+			System.err.println("WARNING! SNAPSHOT_LOAD can't be combined with INCREMENTAL. Exiting.");
+			System.exit(0);
+		}
+
+		if (outOfCore && (!partitionerName.equals("metis") || incremental || loadSnapshot || saveSnapshot)) {
+			System.err.println("WARNING! OUT_OF_CORE requires PARTITIONER=metis and can't be combined with INCREMENTAL,"
+					+ " SNAPSHOT_LOAD or SNAPSHOT_SAVE. Exiting.");
+			System.exit(0);
+		}
+
+		Partitioner partitioner = null;
+		if (partitionerName.equals("metis")) {
+			partitioner = new METISPartitioner(metisBinaryPath, outPath, writerThreads);
+		} else if (partitionerName.equals("multilevel")) {
+			partitioner = new MultilevelPartitioner(partitionThreads, partitionImbalance, 1);
+		} else {
+			System.err.println("WARNING! Unknown partitioner: " + partitionerName + ". Exiting.");
+			System.exit(0);
+		}
+		if (constraintGroups > 0 && !outOfCore) {
+			partitioner = new QueryGroupPartitioner(partitioner, constraintGroups, writerThreads);
+		}
 		
-		metisFileName = "qt-metis_" + dataset + "_table_" + noNodes;
-		String tableFileName = "qt-table_" + dataset + "_" + noNodes;
+		// --- Create Trace Graphs -------------------------------------------------------------------------------------------
+
+		System.out.println("= Creating Trace Graphs =");
+
+		if (outOfCore) {
+			System.out.println("Generating Trace Graphs (out-of-core)");
+			ExternalTraceGraphs externalGraphs = TraceFileProcessor.createExternalTraceGraphs(traceFilesPath,
+					traceWeight, nodeAffinityWeight, noNodes, dataset, noQueries, queryIdMin, ingestThreads,
+					decompressThreads, traceWindow, spillPath, edgeMemory);
+			METISPartitioner metisPartitioner = (METISPartitioner) partitioner;
+
+			if (externalGraphs.getLookupVertices() != null) {
+				createLookupTable(externalGraphs.getLookupVertices(), externalGraphs.getLookupRuns(),
+						externalGraphs.getSpillFolder(), metisPartitioner, dataset, noNodes, outPath, constraintGroups,
+						previousTable, writerThreads);
+			} else {
+				System.out.println("= Creating Lookup Table =");
+				System.err.println("Could not generate Trace Graph. Exiting.");
+				externalGraphs.deleteRuns();
+				System.exit(0);
+			}
+
+			if (externalGraphs.getDictVertices() != null) {
+				createDictionary(externalGraphs.getDictVertices(), externalGraphs.getDictRuns(),
+						externalGraphs.getSpillFolder(), metisPartitioner, dataset, noNodes, outPath, dictFilePath,
+						constraintGroups, previousIdMap, writerThreads);
+			} else {
+				System.out.println("= Creating Dictionary =");
+				System.err.println("Could not generate Trace Graph. Exiting.");
+				externalGraphs.deleteRuns();
+				System.exit(0);
+			}
+			externalGraphs.deleteRuns();
+
+			if (runReport) {
+				writeRunReport(params, dataset, noNodes, outPath);
+			}
 
-		System.out.println("Generating Trace Graph");
-		QueryGraph<String> traceGraphLookup = TraceFileProcessor.createLookupTraceGraph(traceFilesPath,
-				traceWeight, nodeAffinityWeight, noNodes, dataset, noQueries, queryIdMin);
+			System.out.println("== DONE ==");
+			return;
+		}
 
-		if (traceGraphLookup != null) {
-			System.out.println("Generating METIS Input File");
-			String metisFilePath = METISFileCreator.createLookupMetisFile(traceGraphLookup, metisFileName, noNodes, noQueries, outPath);
+		// Lookup and dictionary graphs are built in a single pass over the traces
+		TraceManifest manifest = null;
+		TraceStateStore stateStore = null;
+		long generation = System.currentTimeMillis();
+		CSRGraph<String> csrGraphLookup = null;
+		CSRGraph<Integer> csrGraphDict = null;
+		if (loadSnapshot) {
+			System.out.println("Loading Trace Graphs");
+			csrGraphLookup = TraceSnapshots.loadLookupGraph(
+					TraceSnapshots.getSnapshotFile(snapshotPath, dataset, TraceStateStore.LOOKUP_GRAPH), noNodes,
+					traceWeight, nodeAffinityWeight);
+			csrGraphDict = TraceSnapshots.loadDictGraph(
+					TraceSnapshots.getSnapshotFile(snapshotPath, dataset, TraceStateStore.DICT_GRAPH), traceWeight);
+		} else {
+			TraceGraphs traceGraphs = null;
+			if (incremental) {
+				System.out.println("Updating Trace Graphs");
+				stateStore = new TraceStateStore(statePath, dataset, noNodes, traceWeight, nodeAffinityWeight);
+				traceGraphs = TraceFileProcessor.updateTraceGraphs(traceFilesPath, traceWeight, nodeAffinityWeight, noNodes,
+						dataset, noQueries, queryIdMin, ingestThreads, decompressThreads, traceWindow, stateStore,
+						generation);
+				partitioner = new IncrementalPartitioner(partitioner, stateStore, traceGraphs.getPreviousGeneration(),
+						generation, repartitionThreshold);
+			} else {
+				System.out.println("Generating Trace Graphs");
+				traceGraphs = TraceFileProcessor.createTraceGraphs(traceFilesPath, traceWeight,
+						nodeAffinityWeight, noNodes, dataset, noQueries, queryIdMin, ingestThreads, decompressThreads,
+						sharedGraph, traceWindow);
+			}
+			manifest = traceGraphs.getManifest();
+			GraphBuilder<String> traceGraphLookup = traceGraphs.getLookupGraph();
+			GraphBuilder<Integer> traceGraphDict = traceGraphs.getDictGraph();
+			traceGraphs = null;
+
+			// Frozen graphs are smaller than their builders
+			if (traceGraphLookup != null) {
+				csrGraphLookup = traceGraphLookup.freeze();
+				traceGraphLookup = null;
+			}
+			if (traceGraphDict != null) {
+				csrGraphDict = traceGraphDict.freeze();
+				traceGraphDict = null;
+			}
+		}
 
-			System.out.println("Running METIS");
-			System.out.println("\tMETIS Execution output: ");
-			runMetis(metisBinaryPath, metisFilePath, Integer.toString(noNodes));
+		if (saveSnapshot && !loadSnapshot && csrGraphLookup != null && csrGraphDict != null) {
+			TraceSnapshots.save(csrGraphLookup, noNodes, traceWeight, nodeAffinityWeight,
+					TraceSnapshots.getSnapshotFile(snapshotPath, dataset, TraceStateStore.LOOKUP_GRAPH));
+			TraceSnapshots.save(csrGraphDict, 0, traceWeight, nodeAffinityWeight,
+					TraceSnapshots.getSnapshotFile(snapshotPath, dataset, TraceStateStore.DICT_GRAPH));
+		}
 
-			System.out.println("Generating Triple Pattern Lookup Table");
-			String lookupFilePath = LookupTableCreator.createLookupTable(tableFileName, metisFilePath, noNodes,
-					traceGraphLookup, outPath);
+		if (incremental && csrGraphLookup != null && csrGraphDict != null) {
+			stateStore.saveGraph(csrGraphLookup, TraceStateStore.LOOKUP_GRAPH, generation);
+			stateStore.saveGraph(csrGraphDict, TraceStateStore.DICT_GRAPH, generation);
+		}
 
-			System.out.println("Lookup Table Created: " + lookupFilePath);
+		if (pipelineStages && csrGraphLookup != null && csrGraphDict != null) {
+			final Partitioner stagePartitioner = partitioner;
+			final CSRGraph<String> stageGraphLookup = csrGraphLookup;
+			final CSRGraph<Integer> stageGraphDict = csrGraphDict;
+
+			Runtime runtime = Runtime.getRuntime();
+			long availableMemory = runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+			long stageMemory = STAGE_MEMORY_FACTOR * (csrGraphLookup.getSizeInBytes() + csrGraphDict.getSizeInBytes());
+
+			if (stageMemory <= availableMemory) {
+				System.out.println("= Creating Lookup Table and Dictionary concurrently =");
+				runStagesConcurrently(new Runnable() {
+					@Override
+					public void run() {
+						createLookupTable(stageGraphLookup, stagePartitioner, dataset, noNodes, outPath, previousTable,
+								writerThreads);
+					}
+				}, new Runnable() {
+					@Override
+					public void run() {
+						createDictionary(stageGraphDict, stagePartitioner, dataset, noNodes, outPath, dictFilePath,
+								previousIdMap, writerThreads);
+					}
+				});
+			} else {
+				System.out.println("Estimated memory of concurrent stages (" + stageMemory
+						+ " bytes) exceeds available memory (" + availableMemory + " bytes); running stages one after the other.");
+				createLookupTable(csrGraphLookup, partitioner, dataset, noNodes, outPath, previousTable, writerThreads);
+				createDictionary(csrGraphDict, partitioner, dataset, noNodes, outPath, dictFilePath, previousIdMap,
+						writerThreads);
+			}
 
-			File metisInpFile = new File(metisFilePath);
-			File metisOutFile = new File(metisFilePath + ".part." + Integer.toString(noNodes));
-			metisInpFile.delete();
-			metisOutFile.delete();
-			
-			traceGraphLookup.clear();
-			traceGraphLookup = null;
 		} else {
-			System.err.println("Could not generate Trace Graph. Exiting.");
-			System.exit(0);
+
+			// --- Create Lookup Table -----------------------------------------------------------------------------------
+
+			if (csrGraphLookup != null) {
+				createLookupTable(csrGraphLookup, partitioner, dataset, noNodes, outPath, previousTable, writerThreads);
+				csrGraphLookup = null;
+			} else {
+				System.out.println("= Creating Lookup Table =");
+				System.err.println("Could not generate Trace Graph. Exiting.");
+				System.exit(0);
+			}
+
+			// --- Create Dictionary -------------------------------------------------------------------------------------
+
+			if (csrGraphDict != null) {
+				createDictionary(csrGraphDict, partitioner, dataset, noNodes, outPath, dictFilePath, previousIdMap,
+						writerThreads);
+				csrGraphDict = null;
+			} else {
+				System.out.println("= Creating Dictionary =");
+				System.err.println("Could not generate Trace Graph. Exiting.");
+				System.exit(0);
+			}
 		}
-		
-		// --- Create Dictionary ---------------------------------------------------------------------------------------------
+
+		if (incremental) {
+			// The new generation becomes current only once all its state is written
+			stateStore.commit(manifest);
+		}
+
+		if (runReport) {
+			writeRunReport(params, dataset, noNodes, outPath);
+		}
+
+		System.out.println("== DONE ==");
+	}
+
+	private static void createLookupTable(CSRGraph<String> csrGraphLookup, Partitioner partitioner, String dataset,
+			int noNodes, String outPath, File previousTable, int writerThreads) {
+
+		System.out.println("= Creating Lookup Table =");
+
+		String metisFileName = "qt-metis_" + dataset + "_table_" + noNodes;
+		String tableFileName = "qt-table_" + dataset + "_" + noNodes;
+
+		// First noNodes vertices are node vertices; Should be evenly partitioned over all partitions
+		int[] partitions = partitioner.partition(csrGraphLookup, noNodes, noNodes, metisFileName);
+		if (previousTable != null) {
+			partitions = PartitionRelabeling.relabelLookupTable(partitions, csrGraphLookup.getVertexTable(), noNodes,
+					previousTable, tableFileName);
+		}
+
+		System.out.println("Generating Triple Pattern Lookup Table");
+		String lookupFilePath = LookupTableCreator.createLookupTable(tableFileName, partitions, noNodes,
+				csrGraphLookup, outPath, writerThreads);
+
+		System.out.println("Lookup Table Created: " + lookupFilePath);
+	}
+
+	private static void createDictionary(CSRGraph<Integer> csrGraphDict, Partitioner partitioner, String dataset,
+			int noNodes, String outPath, String dictFilePath, File previousIdMap, int writerThreads) {
 
 		System.out.println("= Creating Dictionary =");
-		
-		metisFileName = "qt-metis_" + dataset + "_dict_" + noNodes;
+
+		String metisFileName = "qt-metis_" + dataset + "_dict_" + noNodes;
 		String dictFileName = "qt-dict_" + dataset + "_" + noNodes;
 		String idMapFileName = "qt-idMap_" + dataset + "_" + noNodes;
 
-		System.out.println("Generating Trace Graph");
-		QueryGraph<Integer> traceGraphDict = TraceFileProcessor.createDictTraceGraph(traceFilesPath, 
-				traceWeight, noNodes, dataset, noQueries, queryIdMin);
+		int[] partitions = partitioner.partition(csrGraphDict, 0, noNodes, metisFileName);
+		if (previousIdMap != null) {
+			partitions = PartitionRelabeling.relabelDictionary(partitions, csrGraphDict.getVertexTable(), noNodes,
+					previousIdMap, dictFileName);
+		}
 
-		if (traceGraphDict != null) {
-			System.out.println("Generating METIS Input File");
-			String metisFilePath = METISFileCreator.createDictMetisFile(traceGraphDict, metisFileName, noNodes, noQueries, outPath);
+		System.out.println("Generating Dictionary");
+		String newDictFilePath = DictionaryCreator.createDictionary(dictFileName, partitions,
+				dictFilePath + "normal-dict_" + dataset, csrGraphDict, noNodes, outPath, idMapFileName, writerThreads);
 
-			System.out.println("Running METIS");
-			System.out.println("\tMETIS Execution output: ");
-			runMetis(metisBinaryPath, metisFilePath, Integer.toString(noNodes));
+		System.out.println("Dictionary Created: " + newDictFilePath);
+	}
 
-			System.out.println("Generating Dictionary");
-			String newDictFilePath = DictionaryCreator.createDictionary(dictFileName, metisFilePath,
-					dictFilePath + "normal-dict_" + dataset, traceGraphDict, noNodes, outPath, idMapFileName);
+	/**
+	 * Out-of-core variant: the METIS input file is streamed from the edge runs.
+	 */
+	private static void createLookupTable(VertexTable<String> lookupVertices, List<File> lookupRuns, File spillFolder,
+			METISPartitioner partitioner, String dataset, int noNodes, String outPath, int constraintGroups,
+			File previousTable, int writerThreads) {
 
-			System.out.println("Dictionary Created: " + newDictFilePath);
+		System.out.println("= Creating Lookup Table =");
 
-			File metisInpFile = new File(metisFilePath);
-			File metisOutFile = new File(metisFilePath + ".part." + Integer.toString(noNodes));
-			metisInpFile.delete();
-			metisOutFile.delete();
-			
-			traceGraphDict.clear();
-			traceGraphDict = null;
-		} else {
-			System.err.println("Could not generate Trace Graph. Exiting.");
-			System.exit(0);
+		String metisFileName = "qt-metis_" + dataset + "_table_" + noNodes;
+		String tableFileName = "qt-table_" + dataset + "_" + noNodes;
+
+		// First noNodes vertices are node vertices; Should be evenly partitioned over all partitions
+		int[] partitions = QueryGroupPartitioner.partition(lookupVertices, noNodes, noNodes, constraintGroups,
+				writerThreads, metisFileName, metisFilePartitioner(partitioner, noNodes, noNodes, lookupRuns,
+						spillFolder, metisFileName, outPath));
+		if (previousTable != null) {
+			partitions = PartitionRelabeling.relabelLookupTable(partitions, lookupVertices, noNodes, previousTable,
+					tableFileName);
 		}
-		
-		
-		System.out.println("== DONE ==");
+
+		System.out.println("Generating Triple Pattern Lookup Table");
+		String lookupFilePath = LookupTableCreator.createLookupTable(tableFileName, partitions, noNodes,
+				lookupVertices, outPath, writerThreads);
+
+		System.out.println("Lookup Table Created: " + lookupFilePath);
 	}
 
-	private static void runMetis(String metisBinaryPath, String metisFilePath, String noNodes) {
+	/**
+	 * Out-of-core variant: the METIS input file is streamed from the edge runs.
+	 */
+	private static void createDictionary(VertexTable<Integer> dictVertices, List<File> dictRuns, File spillFolder,
+			METISPartitioner partitioner, String dataset, int noNodes, String outPath, String dictFilePath,
+			int constraintGroups, File previousIdMap, int writerThreads) {
 
-		ProcessBuilder metis = new ProcessBuilder(metisBinaryPath, metisFilePath, noNodes);
-		metis.redirectOutput(Redirect.INHERIT);
-		metis.redirectError(Redirect.INHERIT);
+		System.out.println("= Creating Dictionary =");
 
-		try {
-			System.out.println("");
-			long metisStartTime = System.nanoTime();
+		String metisFileName = "qt-metis_" + dataset + "_dict_" + noNodes;
+		String dictFileName = "qt-dict_" + dataset + "_" + noNodes;
+		String idMapFileName = "qt-idMap_" + dataset + "_" + noNodes;
+
+		int[] partitions = QueryGroupPartitioner.partition(dictVertices, 0, noNodes, constraintGroups, writerThreads,
+				metisFileName, metisFilePartitioner(partitioner, 0, noNodes, dictRuns, spillFolder, metisFileName,
+						outPath));
+		if (previousIdMap != null) {
+			partitions = PartitionRelabeling.relabelDictionary(partitions, dictVertices, noNodes, previousIdMap,
+					dictFileName);
+		}
+
+		System.out.println("Generating Dictionary");
+		String newDictFilePath = DictionaryCreator.createDictionary(dictFileName, partitions,
+				dictFilePath + "normal-dict_" + dataset, dictVertices, noNodes, outPath, idMapFileName, writerThreads);
+
+		System.out.println("Dictionary Created: " + newDictFilePath);
+	}
+
+	/**
+	 * @return Partitioner that streams the METIS input file of the vertices from the edge runs and runs METIS on it
+	 */
+	private static QueryGroupPartitioner.VertexPartitioner metisFilePartitioner(final METISPartitioner partitioner,
+			final int noNodeVertices, final int noParts, final List<File> runs, final File spillFolder,
+			final String metisFileName, final String outPath) {
+		return new QueryGroupPartitioner.VertexPartitioner() {
+			@Override
+			public int[] partition(VertexTable<?> vertices) {
+				String metisFilePath = METISFileCreator.createMetisFile(vertices, noNodeVertices, runs, spillFolder,
+						metisFileName, outPath);
+				return partitioner.partitionMetisFile(metisFilePath, vertices.getNumberOfVertices(),
+						vertices.getNumberOfEdges(), noParts);
+			}
+		};
+	}
+
+	private static void writeRunReport(Properties params, String dataset, int noNodes, String outPath) {
 
-			Process metisP = metis.start();
-			metisP.waitFor();
+		File reportFile = new File(outPath + "qt-report_" + dataset + "_" + noNodes + ".json");
+		if (reportFile.exists()) {
+			reportFile = new File(outPath + "qt-report_" + dataset + "_" + noNodes + "_" + System.currentTimeMillis()
+					+ ".json");
+		}
+		try {
+			RunMetrics.writeReport(reportFile, params);
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.exit(0);
+		}
+		System.out.println("Run Report Created: " + reportFile.getAbsolutePath());
+	}
 
-			long metisEndTime = System.nanoTime();
-			long metisTime = metisEndTime - metisStartTime;
+	/**
+	 * Run both stages on their own executor and wait for both.
+	 */
+	private static void runStagesConcurrently(Runnable lookupStage, Runnable dictStage) {
 
-			System.out.println("");
-			System.out.println("\tExecution time: " + TimeUnit.MILLISECONDS.convert(metisTime, TimeUnit.NANOSECONDS)
-					+ " ms");
+		ExecutorService lookupExecutor = Executors.newSingleThreadExecutor();
+		ExecutorService dictExecutor = Executors.newSingleThreadExecutor();
+		try {
+			Future<?> lookupResult = lookupExecutor.submit(lookupStage);
+			Future<?> dictResult = dictExecutor.submit(dictStage);
+			lookupResult.get();
+			dictResult.get();
 		} catch (InterruptedException e) {
 			e.printStackTrace();
 			System.exit(0);
-		} catch (IOException e) {
+		} catch (ExecutionException e) {
 			e.printStackTrace();
 			System.exit(0);
+		} finally {
+			lookupExecutor.shutdown();
+			dictExecutor.shutdown();
 		}
 	}
 }
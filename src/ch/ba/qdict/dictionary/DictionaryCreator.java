@@ -1,80 +1,149 @@
 package ch.ba.qdict.dictionary;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.LinkedHashMap;
-import java.util.List;
 import java.util.Map;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ForkJoinPool;
 
 import ch.ba.qdict.file.DictionaryWriter;
+import ch.ba.qdict.file.MappedDictionaryReader;
 import ch.ba.qdict.file.OldNewIdMapWriter;
-import ch.ba.qdict.graph.QueryGraph;
+import ch.ba.qdict.graph.CSRGraph;
+import ch.ba.qdict.graph.VertexTable;
+import ch.ba.qdict.metrics.Phase;
+import ch.ba.qdict.metrics.RunMetrics;
+import ch.ba.qdict.partition.BlockLoop;
 
 public class DictionaryCreator {
 
-	public static String createDictionary(String newDictFileName, String metisFilePath, String oldDictFilePath,
-			QueryGraph<Integer> traceGraph, int noNodes, String outPath, String idMapFileName) {
+	private static final int MIN_GRAIN = 1 << 14;
+
+	/**
+	 * @param partitions
+	 *            Partition of every vertex of the trace graph, indexed by vertex id
+	 * @param threads
+	 *            Threads creating dictionary entries
+	 */
+	public static String createDictionary(String newDictFileName, int[] partitions, String oldDictFilePath,
+			CSRGraph<Integer> traceGraph, int noNodes, String outPath, String idMapFileName, int threads) {
+		return createDictionary(newDictFileName, partitions, oldDictFilePath, traceGraph.getVertexTable(), noNodes,
+				outPath, idMapFileName, threads);
+	}
+
+	/**
+	 * New IDs are assigned in parallel blocks of vertices. The per-node counters every block starts from are prefix
+	 * sums of the counts of the preceding blocks, so IDs are the same as with a sequential pass in vertex order.
+	 *
+	 * @param traceGraph
+	 *            Vertices of the trace graph
+	 * @param partitions
+	 *            Partition of every vertex of the trace graph, indexed by vertex id
+	 * @param threads
+	 *            Threads creating dictionary entries
+	 */
+	public static String createDictionary(String newDictFileName, final int[] partitions, String oldDictFilePath,
+			final VertexTable<Integer> traceGraph, final int noNodes, String outPath, String idMapFileName,
+			int threads) {
 
 		System.out.println("Creating Dictionary...");
 		
-		long dictCreateStartTime = System.nanoTime();
+		Phase phase = RunMetrics.startPhase("dictionary", newDictFileName);
 
 		Map<String, Integer> newDict = new LinkedHashMap<String, Integer>();
 		Map<Integer, Integer> oldNewIdMap = new LinkedHashMap<Integer, Integer>();
 		
-		// Parse old dictionary to retrieve Strings
-		List<String> oldDict = parseTRDict(oldDictFilePath);
-
-		int[] sc = new int[noNodes];
-
-		BufferedReader in = null;
+		// Map old dictionary to retrieve Strings; only the Strings of traced vertices are read
+		MappedDictionaryReader oldDict = null;
 		try {
-			in = new BufferedReader(new FileReader(metisFilePath + ".part." + Integer.toString(noNodes)));
-
-			String metisNode = "";
-
-			for (Map.Entry<Integer, Map<Integer, Integer>> indexVertex : traceGraph.getTraceGraph().entrySet()) {
-				if (((metisNode = in.readLine()) != null)) {
-					int vertId = indexVertex.getKey();
-					if (vertId < oldDict.size()) {
-						int mn = Integer.parseInt(metisNode);
+			oldDict = new MappedDictionaryReader(oldDictFilePath);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		final MappedDictionaryReader dict = oldDict;
+		final int oldDictSize = (oldDict != null) ? oldDict.size() : 0;
 
-						int node = (mn == 0) ? noNodes : mn;
-						int newId = sc[mn] * noNodes + node;
+		final int n = Math.min(partitions.length, traceGraph.getNumberOfVertices());
+		final String[] entries = new String[n];
+		final int[] newIds = new int[n];
 
-						newDict.put(oldDict.get(vertId), newId);
-						oldNewIdMap.put(vertId, newId);
-						sc[mn] += 1;
+		ForkJoinPool pool = threads > 1 ? new ForkJoinPool(threads) : null;
+		try {
+			final int blockSize = BlockLoop.grain(pool, n, MIN_GRAIN);
+			int noBlocks = (n + blockSize - 1) / blockSize;
+
+			// sc[b * noNodes + mn]: vertices of block b in partition mn, then the counter block b starts from
+			final int[] sc = new int[(noBlocks + 1) * noNodes];
+			BlockLoop.run(pool, noBlocks, 1, new BlockLoop.Body() {
+				@Override
+				public void run(int fromBlock, int toBlock) {
+					for (int b = fromBlock; b < toBlock; b++) {
+						for (int vertex = b * blockSize; vertex < Math.min(n, (b + 1) * blockSize); vertex++) {
+							if (traceGraph.getVertexKey(vertex) < oldDictSize) {
+								sc[(b + 1) * noNodes + partitions[vertex]]++;
+							}
+						}
 					}
-				} else {
-					System.err
-							.println("\tWARNING! Graph appears to have more vertices than METIS output! Vertex not in output: "
-									+ indexVertex.getKey());
+				}
+			});
+			for (int b = 0; b < noBlocks; b++) {
+				for (int mn = 0; mn < noNodes; mn++) {
+					sc[(b + 1) * noNodes + mn] += sc[b * noNodes + mn];
 				}
 			}
-		} catch (IOException e) {
-			e.printStackTrace();
-			System.exit(0);
+
+			BlockLoop.run(pool, noBlocks, 1, new BlockLoop.Body() {
+				@Override
+				public void run(int fromBlock, int toBlock) {
+					for (int b = fromBlock; b < toBlock; b++) {
+						int[] counters = new int[noNodes];
+						System.arraycopy(sc, b * noNodes, counters, 0, noNodes);
+
+						for (int vertex = b * blockSize; vertex < Math.min(n, (b + 1) * blockSize); vertex++) {
+							int vertId = (int) traceGraph.getVertexKey(vertex);
+							if (vertId < oldDictSize) {
+								int mn = partitions[vertex];
+
+								int node = (mn == 0) ? noNodes : mn;
+								entries[vertex] = dict.get(vertId);
+								newIds[vertex] = counters[mn] * noNodes + node;
+								counters[mn] += 1;
+							}
+						}
+					}
+				}
+			});
 		} finally {
+			if (pool != null) {
+				pool.shutdown();
+			}
+		}
+
+		for (int vertex = 0; vertex < n; vertex++) {
+			if (entries[vertex] != null) {
+				newDict.put(entries[vertex], newIds[vertex]);
+				oldNewIdMap.put((int) traceGraph.getVertexKey(vertex), newIds[vertex]);
+			}
+		}
+		for (int vertex = n; vertex < traceGraph.getNumberOfVertices(); vertex++) {
+			System.err
+					.println("\tWARNING! Graph appears to have more vertices than METIS output! Vertex not in output: "
+							+ traceGraph.getVertexKey(vertex));
+		}
+
+		if (oldDict != null) {
 			try {
-				if (in != null) {
-					in.close();
-				}
+				oldDict.close();
 			} catch (IOException e) {
 				e.printStackTrace();
-				System.exit(0);
 			}
 		}
 
-		long dictCreateEndTime = System.nanoTime();
-		long dictCreateTime = dictCreateEndTime - dictCreateStartTime;
+		phase.addLines(newDict.size());
+		phase.setGraphSize(traceGraph.getNumberOfVertices(), traceGraph.getNumberOfEdges());
+		long dictCreateTime = phase.end();
 
 		System.out.println("\t#Entries in table: " + newDict.size());
-		System.out.println("\tExecution time: " + TimeUnit.MILLISECONDS.convert(dictCreateTime, TimeUnit.NANOSECONDS)
-				+ " ms");
+		System.out.println("\tExecution time: " + dictCreateTime + " ms");
 
 		System.out.println("Generating ID Map");
 		System.out.println("ID Map Created: " + OldNewIdMapWriter.writeMapToFile(oldNewIdMap, idMapFileName, outPath));
@@ -82,32 +151,4 @@ public class DictionaryCreator {
 		return DictionaryWriter.writeDictToFile(newDict, newDictFileName, "dicts", outPath);
 	}
 
-	private static List<String> parseTRDict(String dictFilePath) {
-
-		List<String> trDict = new ArrayList<String>();
-
-		BufferedReader in = null;
-		try {
-			in = new BufferedReader(new FileReader(dictFilePath));
-
-			String line = "";
-			while ((line = in.readLine()) != null) {
-				trDict.add(line);
-			}
-
-		} catch (IOException e) {
-			e.printStackTrace();
-		} finally {
-			try {
-				if (in != null) {
-					in.close();
-				}
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
-		}
-
-		return trDict;
-	}
-
 }
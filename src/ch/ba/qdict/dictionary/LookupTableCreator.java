@@ -1,78 +1,113 @@
 package ch.ba.qdict.dictionary;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
-import java.io.IOException;
+import java.util.Arrays;
 import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ForkJoinPool;
 
 import ch.ba.qdict.file.DictionaryWriter;
-import ch.ba.qdict.graph.QueryGraph;
+import ch.ba.qdict.graph.CSRGraph;
 import ch.ba.qdict.graph.TPProcessor;
+import ch.ba.qdict.graph.TriplePatternCodec;
+import ch.ba.qdict.graph.VertexTable;
+import ch.ba.qdict.metrics.Phase;
+import ch.ba.qdict.metrics.RunMetrics;
+import ch.ba.qdict.partition.BlockLoop;
 
 public class LookupTableCreator {
 
-	public static String createLookupTable(String dictFileName, String metisFilePath, int noNodes,
-			QueryGraph<String> traceGraph, String outPath) {
+	private static final int MIN_GRAIN = 1 << 14;
+
+	/**
+	 * @param partitions
+	 *            Partition of every vertex of the trace graph, indexed by vertex id
+	 * @param threads
+	 *            Threads creating table entries
+	 */
+	public static String createLookupTable(String dictFileName, int[] partitions, int noNodes,
+			CSRGraph<String> traceGraph, String outPath, int threads) {
+		return createLookupTable(dictFileName, partitions, noNodes, traceGraph.getVertexTable(), outPath, threads);
+	}
+
+	/**
+	 * Table entries are created in parallel blocks of vertices and added to the table in vertex order.
+	 *
+	 * @param traceGraph
+	 *            Vertices of the trace graph
+	 * @param partitions
+	 *            Partition of every vertex of the trace graph, indexed by vertex id
+	 * @param threads
+	 *            Threads creating table entries
+	 */
+	public static String createLookupTable(String dictFileName, final int[] partitions, final int noNodes,
+			final VertexTable<String> traceGraph, String outPath, int threads) {
+
+		// The lookup graph keys its vertices with a TriplePatternCodec; Strings are only rebuilt for table entries
+		final TriplePatternCodec codec = (TriplePatternCodec) traceGraph.getCodec();
 
 		System.out.println("Creating LookupTable...");
-		long dictCreateStartTime = System.nanoTime();
+		Phase phase = RunMetrics.startPhase("lookup-table", dictFileName);
 
-		Map<String, Integer> lookupTable = new LinkedHashMap<String, Integer>();
-		
-		// Re-define METIS partition numbers to match natural node number of node vertices
-		Map<Integer, Integer> partitionDef = new LinkedHashMap<Integer, Integer>();
+		// Re-define partition numbers to match natural node number of node vertices; first vertices are node vertices
+		final int[] partitionDef = new int[noNodes];
+		Arrays.fill(partitionDef, -1);
+		int noNodeVertices = Math.min(noNodes, Math.min(partitions.length, traceGraph.getNumberOfVertices()));
+		for (int vertex = 0; vertex < noNodeVertices; vertex++) {
+			partitionDef[partitions[vertex]] = codec.getNode(traceGraph.getVertexKey(vertex));
+		}
 
-		BufferedReader in = null;
-		try {
-			in = new BufferedReader(new FileReader(metisFilePath + ".part." + Integer.toString(noNodes)));
+		// Only add TPs to lookup table if METIS node is not equal to natural node
+		final int from = noNodeVertices;
+		final int to = Math.min(partitions.length, traceGraph.getNumberOfVertices());
+		final String[] keys = new String[Math.max(0, to - from)];
+		final int[] values = new int[keys.length];
 
-			String partitionNumber = "";
+		ForkJoinPool pool = threads > 1 ? new ForkJoinPool(threads) : null;
+		try {
+			BlockLoop.run(pool, keys.length, BlockLoop.grain(pool, keys.length, MIN_GRAIN), new BlockLoop.Body() {
+				@Override
+				public void run(int fromEntry, int toEntry) {
+					for (int i = fromEntry; i < toEntry; i++) {
+						long indexVertex = traceGraph.getVertexKey(from + i);
+						int partitionNumber = partitions[from + i];
 
-			int i = 0;
-			for (Map.Entry<String, Map<String, Integer>> indexVertex : traceGraph.getTraceGraph().entrySet()) {
-				if (((partitionNumber = in.readLine()) != null)) {
-					if (i >= noNodes) { // Skip first lines representing node vertices
-						
-						int natNode = TPProcessor.getNodeNumber(indexVertex.getKey(), noNodes);
-						int metisNode = partitionDef.get(Integer.parseInt(partitionNumber));
+						int natNode = TPProcessor.getNodeNumber(codec.getSigId(indexVertex), noNodes);
+						int metisNode = partitionDef[partitionNumber];
+						if (metisNode < 0) {
+							throw new IllegalStateException("No node vertex in partition " + partitionNumber);
+						}
 
-						// Only add TPs to lookup table if METIS node is not equal to natural node
 						if (metisNode != natNode) {
-							lookupTable.put(indexVertex.getKey(), metisNode);
+							keys[i] = codec.decode(indexVertex);
+							values[i] = metisNode;
 						}
-					} else {
-						partitionDef.put(Integer.parseInt(partitionNumber), Integer.parseInt(indexVertex.getKey()));
-						++i;
 					}
-				} else {
-					System.err
-							.println("\tWARNING! Graph appears to have more vertices than METIS output! Vertex not in output: "
-									+ indexVertex.getKey());
 				}
+			});
+		} finally {
+			if (pool != null) {
+				pool.shutdown();
 			}
+		}
 
-		} catch (IOException e) {
-			e.printStackTrace();
-			System.exit(0);
-		} finally {
-			try {
-				if (in != null) {
-					in.close();
-				}
-			} catch (IOException e) {
-				e.printStackTrace();
-				System.exit(0);
+		Map<String, Integer> lookupTable = new LinkedHashMap<String, Integer>();
+		for (int i = 0; i < keys.length; i++) {
+			if (keys[i] != null) {
+				lookupTable.put(keys[i], values[i]);
 			}
 		}
 
-		long dictCreateEndTime = System.nanoTime();
-		long dictCreateTime = dictCreateEndTime - dictCreateStartTime;
+		for (int vertex = to; vertex < traceGraph.getNumberOfVertices(); vertex++) {
+			System.err.println("\tWARNING! Graph appears to have more vertices than METIS output! Vertex not in output: "
+					+ codec.decode(traceGraph.getVertexKey(vertex)));
+		}
+
+		phase.addLines(lookupTable.size());
+		phase.setGraphSize(traceGraph.getNumberOfVertices(), traceGraph.getNumberOfEdges());
+		long dictCreateTime = phase.end();
 
 		System.out.println("\t#Entries in table: " + lookupTable.size());
-		System.out.println("\tExecution time: " + TimeUnit.MILLISECONDS.convert(dictCreateTime, TimeUnit.NANOSECONDS)
-				+ " ms");
+		System.out.println("\tExecution time: " + dictCreateTime + " ms");
 
 		return DictionaryWriter.writeDictToFile(lookupTable, dictFileName, "tables", outPath);
 	}
@@ -0,0 +1,258 @@
+package ch.ba.qdict.dictionary;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import ch.ba.qdict.evaluation.IdMapPlacement;
+import ch.ba.qdict.evaluation.LookupTablePlacement;
+import ch.ba.qdict.graph.TriplePatternCodec;
+import ch.ba.qdict.graph.VertexTable;
+import ch.ba.qdict.metrics.Phase;
+import ch.ba.qdict.metrics.RunMetrics;
+
+/**
+ * Relabels the partitions of a new run so that as few entries as possible change their node compared to the previous
+ * deployment. Partition numbers are arbitrary, so the partitions are matched to nodes by the number of vertices they
+ * share with the nodes of the previous lookup table or ID map (maximum weight bipartite matching, Hungarian method).
+ * Among equally good labelings the one the creators would use anyway is kept.
+ */
+public class PartitionRelabeling {
+
+	/**
+	 * @param partitions
+	 *            Partition of every vertex of the lookup graph; first vertices are node vertices
+	 * @param previousTable
+	 *            Lookup table of the previous deployment
+	 * @return Partitions whose numbers are the nodes of the relabeled partitions, node vertex n in partition n, or the
+	 *         unchanged partitions if the previous table can't be read
+	 */
+	public static int[] relabelLookupTable(int[] partitions, VertexTable<String> lookupVertices, int noNodes,
+			File previousTable, String tableFileName) {
+
+		System.out.println("Relabeling Partitions against " + previousTable + "...");
+
+		LookupTablePlacement placement;
+		try {
+			placement = LookupTablePlacement.read(previousTable, noNodes);
+		} catch (IOException e) {
+			System.err.println("\tWARNING! Could not read previous lookup table, partitions are not relabeled: "
+					+ e.getMessage());
+			return partitions;
+		}
+
+		Phase phase = RunMetrics.startPhase("relabeling", tableFileName);
+
+		TriplePatternCodec codec = (TriplePatternCodec) lookupVertices.getCodec();
+		int n = Math.min(partitions.length, lookupVertices.getNumberOfVertices());
+
+		// LookupTableCreator maps a partition to the node of its node vertex; every partition needs exactly one
+		int[] labels = new int[noNodes];
+		Arrays.fill(labels, -1);
+		boolean[] labeled = new boolean[noNodes];
+		int noNodeVertices = Math.min(noNodes, n);
+		for (int vertex = 0; vertex < noNodeVertices; vertex++) {
+			int node = codec.getNode(lookupVertices.getVertexKey(vertex));
+			if (labels[partitions[vertex]] >= 0) {
+				throw new IllegalStateException("More than one node vertex in partition " + partitions[vertex]);
+			}
+			if (labeled[node]) {
+				throw new IllegalStateException("More than one node vertex of node " + node);
+			}
+			labels[partitions[vertex]] = node;
+			labeled[node] = true;
+		}
+		for (int part = 0; part < noNodes; part++) {
+			if (labels[part] < 0) {
+				throw new IllegalStateException("No node vertex in partition " + part);
+			}
+		}
+
+		int[] previousNodes = new int[n];
+		long[][] overlap = new long[noNodes][noNodes];
+		for (int vertex = noNodeVertices; vertex < n; vertex++) {
+			long key = lookupVertices.getVertexKey(vertex);
+			previousNodes[vertex] = placement.getNode(codec.getSubjectId(key), codec.getPredicateId(key),
+					codec.getObjectId(key));
+			overlap[partitions[vertex]][previousNodes[vertex]]++;
+		}
+
+		int[] newLabels = match(overlap, labels);
+
+		int[] relabeled = new int[partitions.length];
+		long moved = 0;
+		long movedBefore = 0;
+		for (int vertex = 0; vertex < n; vertex++) {
+			relabeled[vertex] = newLabels[partitions[vertex]];
+			if (vertex < noNodeVertices) {
+				relabeled[vertex] = codec.getNode(lookupVertices.getVertexKey(vertex));
+			} else {
+				moved += (relabeled[vertex] != previousNodes[vertex]) ? 1 : 0;
+				movedBefore += (labels[partitions[vertex]] != previousNodes[vertex]) ? 1 : 0;
+			}
+		}
+		for (int vertex = n; vertex < partitions.length; vertex++) {
+			relabeled[vertex] = newLabels[partitions[vertex]];
+		}
+
+		phase.addLines(placement.size());
+		phase.setGraphSize(lookupVertices.getNumberOfVertices(), lookupVertices.getNumberOfEdges());
+		long relabelTime = phase.end();
+
+		printRelabeling(labels, newLabels, moved, movedBefore, n - noNodeVertices);
+		System.out.println("\tExecution time: " + relabelTime + " ms");
+
+		return relabeled;
+	}
+
+	/**
+	 * @param partitions
+	 *            Partition of every vertex of the dictionary graph
+	 * @param previousIdMap
+	 *            ID map of the previous deployment
+	 * @return Relabeled partitions, or the unchanged partitions if the previous ID map can't be read
+	 */
+	public static int[] relabelDictionary(int[] partitions, VertexTable<Integer> dictVertices, int noNodes,
+			File previousIdMap, String dictFileName) {
+
+		System.out.println("Relabeling Partitions against " + previousIdMap + "...");
+
+		IdMapPlacement placement;
+		try {
+			placement = IdMapPlacement.read(previousIdMap, noNodes);
+		} catch (IOException e) {
+			System.err.println("\tWARNING! Could not read previous ID map, partitions are not relabeled: "
+					+ e.getMessage());
+			return partitions;
+		}
+
+		Phase phase = RunMetrics.startPhase("relabeling", dictFileName);
+
+		int n = Math.min(partitions.length, dictVertices.getNumberOfVertices());
+
+		// DictionaryCreator gives the vertices of partition mn new IDs on node mn
+		int[] labels = new int[noNodes];
+		for (int mn = 0; mn < noNodes; mn++) {
+			labels[mn] = mn;
+		}
+
+		int[] previousNodes = new int[n];
+		long[][] overlap = new long[noNodes][noNodes];
+		for (int vertex = 0; vertex < n; vertex++) {
+			previousNodes[vertex] = placement.getNode((int) dictVertices.getVertexKey(vertex));
+			overlap[partitions[vertex]][previousNodes[vertex]]++;
+		}
+
+		int[] newLabels = match(overlap, labels);
+
+		int[] relabeled = new int[partitions.length];
+		long moved = 0;
+		long movedBefore = 0;
+		for (int vertex = 0; vertex < partitions.length; vertex++) {
+			relabeled[vertex] = newLabels[partitions[vertex]];
+			if (vertex < n) {
+				moved += (relabeled[vertex] != previousNodes[vertex]) ? 1 : 0;
+				movedBefore += (partitions[vertex] != previousNodes[vertex]) ? 1 : 0;
+			}
+		}
+
+		phase.addLines(placement.size());
+		phase.setGraphSize(dictVertices.getNumberOfVertices(), dictVertices.getNumberOfEdges());
+		long relabelTime = phase.end();
+
+		printRelabeling(labels, newLabels, moved, movedBefore, n);
+		System.out.println("\tExecution time: " + relabelTime + " ms");
+
+		return relabeled;
+	}
+
+	private static void printRelabeling(int[] labels, int[] newLabels, long moved, long movedBefore, long entries) {
+		StringBuilder relabeling = new StringBuilder();
+		for (int part = 0; part < labels.length; part++) {
+			relabeling.append(part > 0 ? ", " : "").append(part).append(": ").append(labels[part]).append(" -> ")
+					.append(newLabels[part]);
+		}
+		System.out.println("\tPartition -> node: " + relabeling);
+		System.out.println("\t#Entries moved: " + moved + " of " + entries + " (without relabeling: " + movedBefore
+				+ ")");
+	}
+
+	/**
+	 * Maximum weight perfect matching of partitions to nodes with the Hungarian method, O(noNodes^3).
+	 *
+	 * @param overlap
+	 *            Vertices of partition i on node j in the previous deployment
+	 * @param labels
+	 *            Node of every partition without relabeling, preferred among labelings of equal overlap
+	 * @return Node of every partition
+	 */
+	static int[] match(long[][] overlap, int[] labels) {
+
+		int n = overlap.length;
+
+		// Minimize the negated overlap; scaling by n + 1 lets the preference for the default labels only break ties
+		long[][] cost = new long[n][n];
+		for (int i = 0; i < n; i++) {
+			for (int j = 0; j < n; j++) {
+				cost[i][j] = -(overlap[i][j] * (n + 1) + (labels[i] == j ? 1 : 0));
+			}
+		}
+
+		// Potentials u (partitions) and v (nodes), 1-based; column 0 is a virtual node
+		long[] u = new long[n + 1];
+		long[] v = new long[n + 1];
+		int[] match = new int[n + 1];
+		int[] way = new int[n + 1];
+		long[] minv = new long[n + 1];
+		boolean[] used = new boolean[n + 1];
+
+		for (int i = 1; i <= n; i++) {
+			match[0] = i;
+			int j0 = 0;
+			Arrays.fill(minv, Long.MAX_VALUE);
+			Arrays.fill(used, false);
+
+			do {
+				used[j0] = true;
+				int i0 = match[j0];
+				long delta = Long.MAX_VALUE;
+				int j1 = 0;
+				for (int j = 1; j <= n; j++) {
+					if (!used[j]) {
+						long cur = cost[i0 - 1][j - 1] - u[i0] - v[j];
+						if (cur < minv[j]) {
+							minv[j] = cur;
+							way[j] = j0;
+						}
+						if (minv[j] < delta) {
+							delta = minv[j];
+							j1 = j;
+						}
+					}
+				}
+				for (int j = 0; j <= n; j++) {
+					if (used[j]) {
+						u[match[j]] += delta;
+						v[j] -= delta;
+					} else {
+						minv[j] -= delta;
+					}
+				}
+				j0 = j1;
+			} while (match[j0] != 0);
+
+			// Augment along the alternating path
+			do {
+				int j1 = way[j0];
+				match[j0] = match[j1];
+				j0 = j1;
+			} while (j0 != 0);
+		}
+
+		int[] nodes = new int[n];
+		for (int j = 1; j <= n; j++) {
+			nodes[match[j] - 1] = j - 1;
+		}
+		return nodes;
+	}
+}
@@ -0,0 +1,85 @@
+package ch.ba.qdict.evaluation;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Arrays;
+
+import ch.ba.qdict.graph.TPProcessor;
+
+/**
+ * Placement under a dictionary created by {@link ch.ba.qdict.dictionary.DictionaryCreator}: the significant ID of a
+ * TriplePattern is translated with the ID map (lines "oldId -> newId") and the TriplePattern lives on the natural node
+ * of the new ID. IDs missing from the map keep their natural node.
+ */
+public class IdMapPlacement implements Placement {
+
+	private final int noNodes;
+
+	// New ID of every old ID, -1 if the old ID is not in the map
+	private final int[] newIds;
+	private final int size;
+
+	private IdMapPlacement(int noNodes, int[] newIds, int size) {
+		this.noNodes = noNodes;
+		this.newIds = newIds;
+		this.size = size;
+	}
+
+	public static IdMapPlacement read(File idMapFile, int noNodes) throws IOException {
+
+		int[] newIds = new int[1024];
+		Arrays.fill(newIds, -1);
+		int size = 0;
+
+		BufferedReader in = new BufferedReader(new FileReader(idMapFile));
+		try {
+			String line;
+			while ((line = in.readLine()) != null) {
+				int separator = line.indexOf(" -> ");
+				if (separator < 0) {
+					continue;
+				}
+				int oldId = Integer.parseInt(line.substring(0, separator).trim());
+				int newId = Integer.parseInt(line.substring(separator + 4).trim());
+				if (oldId >= newIds.length) {
+					int length = newIds.length;
+					newIds = Arrays.copyOf(newIds, Math.max(oldId + 1, 2 * length));
+					Arrays.fill(newIds, length, newIds.length, -1);
+				}
+				newIds[oldId] = newId;
+				size++;
+			}
+		} finally {
+			in.close();
+		}
+
+		return new IdMapPlacement(noNodes, newIds, size);
+	}
+
+	/**
+	 * @return Number of entries of the ID map
+	 */
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public String getName() {
+		return "idMap";
+	}
+
+	@Override
+	public int getNode(int subject, int predicate, int object) {
+		return getNode(TPProcessor.getSigId(subject, predicate, object));
+	}
+
+	/**
+	 * @return Node of the new ID of an old ID, or of the old ID itself if it is not in the map
+	 */
+	public int getNode(int oldId) {
+		int newId = (oldId >= 0 && oldId < newIds.length) ? newIds[oldId] : -1;
+		return TPProcessor.getNodeNumber(newId >= 0 ? newId : oldId, noNodes);
+	}
+}
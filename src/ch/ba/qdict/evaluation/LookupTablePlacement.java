@@ -0,0 +1,134 @@
+package ch.ba.qdict.evaluation;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Arrays;
+
+import ch.ba.qdict.graph.TPProcessor;
+
+/**
+ * Placement under a lookup table created by {@link ch.ba.qdict.dictionary.LookupTableCreator}: TriplePatterns in the
+ * table (lines "(subject,predicate,object) -> node") live on their table node, all others on their natural node.
+ * <p>
+ * The table is held in a primitive open-addressing table that is not changed after reading, so lookups don't lock.
+ */
+public class LookupTablePlacement implements Placement {
+
+	private final int noNodes;
+
+	// Subject, predicate, object of entry i at 3*i, 3*i+1, 3*i+2
+	private int[] ids = new int[3 * 64];
+	private int[] nodes = new int[64];
+	private int size;
+
+	// Entry index + 1 for every slot, 0 marks an empty slot
+	private int[] slots = new int[128];
+
+	private LookupTablePlacement(int noNodes) {
+		this.noNodes = noNodes;
+	}
+
+	public static LookupTablePlacement read(File tableFile, int noNodes) throws IOException {
+
+		LookupTablePlacement placement = new LookupTablePlacement(noNodes);
+
+		BufferedReader in = new BufferedReader(new FileReader(tableFile));
+		try {
+			String line;
+			while ((line = in.readLine()) != null) {
+				int separator = line.indexOf(" -> ");
+				if (separator < 0) {
+					continue;
+				}
+				int[] tp = TPProcessor.extractIds(line.substring(0, separator));
+				int node = Integer.parseInt(line.substring(separator + 4).trim());
+				if (node < 0 || node >= noNodes) {
+					throw new IOException("Node " + node + " of " + line + " is not below " + noNodes);
+				}
+				placement.put(tp[0], tp[1], tp[2], node);
+			}
+		} finally {
+			in.close();
+		}
+
+		return placement;
+	}
+
+	/**
+	 * @return Number of entries of the lookup table
+	 */
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public String getName() {
+		return "table";
+	}
+
+	@Override
+	public int getNode(int subject, int predicate, int object) {
+		int mask = slots.length - 1;
+		int slot = hash(subject, predicate, object) & mask;
+		while (slots[slot] != 0) {
+			int entry = slots[slot] - 1;
+			if (ids[3 * entry] == subject && ids[3 * entry + 1] == predicate && ids[3 * entry + 2] == object) {
+				return nodes[entry];
+			}
+			slot = (slot + 1) & mask;
+		}
+		return TPProcessor.getNodeNumber(TPProcessor.getSigId(subject, predicate, object), noNodes);
+	}
+
+	/**
+	 * Add an entry; a later entry for the same TriplePattern replaces the earlier one.
+	 */
+	private void put(int subject, int predicate, int object, int node) {
+		int mask = slots.length - 1;
+		int slot = hash(subject, predicate, object) & mask;
+		while (slots[slot] != 0) {
+			int entry = slots[slot] - 1;
+			if (ids[3 * entry] == subject && ids[3 * entry + 1] == predicate && ids[3 * entry + 2] == object) {
+				nodes[entry] = node;
+				return;
+			}
+			slot = (slot + 1) & mask;
+		}
+
+		if (size == nodes.length) {
+			ids = Arrays.copyOf(ids, 2 * ids.length);
+			nodes = Arrays.copyOf(nodes, 2 * nodes.length);
+		}
+		int index = size++;
+		ids[3 * index] = subject;
+		ids[3 * index + 1] = predicate;
+		ids[3 * index + 2] = object;
+		nodes[index] = node;
+		slots[slot] = index + 1;
+
+		if (size > slots.length / 2) {
+			rehash();
+		}
+	}
+
+	private void rehash() {
+		slots = new int[slots.length * 2];
+		int mask = slots.length - 1;
+		for (int index = 0; index < size; index++) {
+			int slot = hash(ids[3 * index], ids[3 * index + 1], ids[3 * index + 2]) & mask;
+			while (slots[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+			slots[slot] = index + 1;
+		}
+	}
+
+	private static int hash(int subject, int predicate, int object) {
+		int h = subject * 0x9E3779B9;
+		h = (h ^ predicate) * 0x85EBCA6B;
+		h = (h ^ object) * 0xC2B2AE35;
+		return h ^ (h >>> 16);
+	}
+}
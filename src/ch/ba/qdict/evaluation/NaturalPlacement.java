@@ -0,0 +1,25 @@
+package ch.ba.qdict.evaluation;
+
+import ch.ba.qdict.graph.TPProcessor;
+
+/**
+ * Default TripleRush placement: a TriplePattern lives on the natural node of its significant ID.
+ */
+public class NaturalPlacement implements Placement {
+
+	private final int noNodes;
+
+	public NaturalPlacement(int noNodes) {
+		this.noNodes = noNodes;
+	}
+
+	@Override
+	public String getName() {
+		return "natural";
+	}
+
+	@Override
+	public int getNode(int subject, int predicate, int object) {
+		return TPProcessor.getNodeNumber(TPProcessor.getSigId(subject, predicate, object), noNodes);
+	}
+}
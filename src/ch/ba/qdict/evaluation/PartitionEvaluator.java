@@ -0,0 +1,343 @@
+package ch.ba.qdict.evaluation;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import ch.ba.qdict.file.DictionaryWriter;
+import ch.ba.qdict.file.TraceChunk;
+import ch.ba.qdict.file.TraceFileProcessor;
+import ch.ba.qdict.file.TraceLineParser;
+import ch.ba.qdict.file.TraceLineReader;
+import ch.ba.qdict.metrics.Phase;
+import ch.ba.qdict.metrics.RunMetrics;
+
+/**
+ * Replays the trace folder against the natural placement and the placements of a lookup table and an ID map, to
+ * compare partitionings offline: cross-node messages per query, load per node and load imbalance. Trace chunks are
+ * replayed in parallel, every placement in the same pass.
+ * <p>
+ * Reads the same parameter file as {@link ch.ba.qdict.TraceDictionary}; the table and ID map default to the newest
+ * outputs of that tool (EVAL_TABLE, EVAL_ID_MAP). Writes OUT_PATH/qt-eval_dataset_noNodes.json.
+ */
+public class PartitionEvaluator {
+
+	private final List<Placement> placements;
+	private final int noNodes;
+	private final int noQueries;
+	private final int queryIdMin;
+
+	public PartitionEvaluator(List<Placement> placements, int noNodes, int noQueries, int queryIdMin) {
+		this.placements = placements;
+		this.noNodes = noNodes;
+		this.noQueries = noQueries;
+		this.queryIdMin = queryIdMin;
+	}
+
+	public static void main(String[] args) {
+
+		System.out.println("=== Partition Evaluator ===");
+
+		Properties params = new Properties();
+		InputStream input = null;
+
+		try {
+			input = new FileInputStream(args[0]);
+			params.load(input);
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.exit(0);
+		} finally {
+			if (input != null) {
+				try {
+					input.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+					System.exit(0);
+				}
+			}
+		}
+
+		String dataset = params.getProperty("DATASET");
+		int queryIdMin = Integer.parseInt(params.getProperty("QUERY_ID_MIN"));
+		int noQueries = Integer.parseInt(params.getProperty("NO_QUERIES"));
+		int noNodes = Integer.parseInt(params.getProperty("NO_NODES", "4"));
+		String outPath = params.getProperty("OUT_PATH");
+		String traceFilesPath = params.getProperty("TRACES_PATH");
+
+		// Default are the newest outputs in OUT_PATH
+		String tablePath = params.getProperty("EVAL_TABLE",
+				DictionaryWriter.getNewestFile(outPath + "tables/qt-table_" + dataset + "_" + noNodes).getPath());
+		String idMapPath = params.getProperty("EVAL_ID_MAP",
+				DictionaryWriter.getNewestFile(outPath + "qt-idMap_" + dataset + "_" + noNodes).getPath());
+		int threads = Integer.parseInt(params.getProperty("EVAL_THREADS", params.getProperty("INGEST_THREADS",
+				Integer.toString(Runtime.getRuntime().availableProcessors()))));
+
+		if (queryIdMin < 0 || noQueries < 1 || noNodes < 1) {
+			System.err.println("WARNING! Invalid query IDs or number of nodes. Exiting.");
+			System.exit(0);
+		}
+
+		List<Placement> placements = new ArrayList<Placement>();
+		placements.add(new NaturalPlacement(noNodes));
+
+		System.out.println("Reading Lookup Table " + tablePath + "...");
+		try {
+			LookupTablePlacement table = LookupTablePlacement.read(new File(tablePath), noNodes);
+			System.out.println("\t#Entries in table: " + table.size());
+			placements.add(table);
+		} catch (IOException e) {
+			System.err.println("\tWARNING! Could not read lookup table: " + e.getMessage());
+		}
+
+		System.out.println("Reading ID Map " + idMapPath + "...");
+		try {
+			IdMapPlacement idMap = IdMapPlacement.read(new File(idMapPath), noNodes);
+			System.out.println("\t#Entries in map: " + idMap.size());
+			placements.add(idMap);
+		} catch (IOException e) {
+			System.err.println("\tWARNING! Could not read ID map: " + e.getMessage());
+		}
+
+		List<TraceChunk> chunks = TraceFileProcessor.listTraceChunks(traceFilesPath, noNodes, dataset, threads);
+
+		PartitionEvaluator evaluator = new PartitionEvaluator(placements, noNodes, noQueries, queryIdMin);
+		PlacementStats[] stats = evaluator.evaluate(chunks, threads);
+
+		for (PlacementStats placementStats : stats) {
+			evaluator.printStats(placementStats);
+		}
+
+		File reportFile = new File(outPath + "qt-eval_" + dataset + "_" + noNodes + ".json");
+		if (reportFile.exists()) {
+			reportFile = new File(outPath + "qt-eval_" + dataset + "_" + noNodes + "_" + System.currentTimeMillis()
+					+ ".json");
+		}
+		try {
+			evaluator.writeReport(stats, reportFile);
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.exit(0);
+		}
+		System.out.println("Evaluation Report Created: " + reportFile.getAbsolutePath());
+
+		System.out.println("== DONE ==");
+	}
+
+	/**
+	 * Replay the traces of the chunks against all placements.
+	 *
+	 * @return Statistics of every placement, in the order of the placements
+	 */
+	public PlacementStats[] evaluate(List<TraceChunk> chunks, int threads) {
+
+		System.out.println("Replaying Query Traces against " + placements.size() + " Placements...");
+
+		Phase phase = RunMetrics.startPhase("evaluate", Integer.toString(placements.size()));
+
+		PlacementStats[] stats;
+		ExecutorService decompressor = TraceChunk.createDecompressor(chunks, threads);
+		try {
+			if (threads <= 1 || chunks.size() <= 1) {
+				stats = createStats();
+				for (TraceChunk chunk : chunks) {
+					replayChunk(chunk, stats, decompressor);
+				}
+			} else {
+				ForkJoinPool pool = new ForkJoinPool(threads);
+				try {
+					stats = pool.invoke(new ReplayTask(chunks, 0, chunks.size(), decompressor));
+				} finally {
+					pool.shutdown();
+				}
+			}
+		} finally {
+			if (decompressor != null) {
+				decompressor.shutdownNow();
+			}
+		}
+
+		long length = 0;
+		for (TraceChunk chunk : chunks) {
+			length += chunk.getLength();
+		}
+		phase.addBytesRead(length);
+		phase.addLines(stats.length > 0 ? stats[0].getNoMessages() : 0);
+		long replayTime = phase.end();
+
+		System.out.println("\tReplayed traces: " + (stats.length > 0 ? stats[0].getNoMessages() : 0));
+		System.out.println("\tExecution time: " + replayTime + " ms");
+
+		return stats;
+	}
+
+	private PlacementStats[] createStats() {
+		PlacementStats[] stats = new PlacementStats[placements.size()];
+		for (int i = 0; i < stats.length; i++) {
+			stats[i] = new PlacementStats(placements.get(i).getName(), noQueries, noNodes);
+		}
+		return stats;
+	}
+
+	private void replayChunk(TraceChunk chunk, PlacementStats[] stats, ExecutorService decompressor) {
+
+		TraceLineReader in = null;
+		try {
+			in = chunk.open(decompressor);
+
+			TraceLineParser trace = new TraceLineParser();
+			while (in.next(trace)) {
+				int query = trace.getQueryId() - queryIdMin;
+				for (int i = 0; i < stats.length; i++) {
+					Placement placement = placements.get(i);
+					int sourceNode = placement.getNode(trace.getSourceSubject(), trace.getSourcePredicate(),
+							trace.getSourceObject());
+					int destNode = placement.getNode(trace.getDestSubject(), trace.getDestPredicate(),
+							trace.getDestObject());
+					stats[i].addMessage(query, sourceNode, destNode);
+				}
+			}
+
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.exit(0);
+		} finally {
+			try {
+				if (in != null) {
+					in.close();
+				}
+			} catch (IOException e) {
+				e.printStackTrace();
+				System.exit(0);
+			}
+		}
+	}
+
+	private void printStats(PlacementStats stats) {
+
+		System.out.println("= Placement: " + stats.getName() + " =");
+		System.out.println("\tMessages: " + stats.getNoMessages() + ", cross-node: " + stats.getNoCrossNodeMessages()
+				+ " (" + formatPercent(stats.getCrossNodeRatio()) + ")");
+
+		StringBuilder load = new StringBuilder();
+		for (long nodeLoad : stats.getLoad()) {
+			load.append(load.length() == 0 ? "" : " ").append(nodeLoad);
+		}
+		System.out.println("\tNode load: " + load + ", imbalance: "
+				+ String.format(Locale.ROOT, "%.3f", stats.getImbalance()));
+
+		for (int q = 0; q < stats.getNoQueries(); q++) {
+			long messages = stats.getMessages(q);
+			if (messages > 0) {
+				long crossNode = stats.getCrossNodeMessages(q);
+				System.out.println("\tQuery " + (queryIdMin + q) + ": " + messages + " messages, cross-node: "
+						+ crossNode + " (" + formatPercent((double) crossNode / messages) + ")");
+			}
+		}
+	}
+
+	/**
+	 * Report format: { "noNodes", "placements": [ { "placement", "messages", "crossNodeMessages", "crossNodeRatio",
+	 * "imbalance", "load": [...], "queries": [ { "query", "messages", "crossNodeMessages" } ] } ] }; queries without
+	 * messages are left out.
+	 */
+	private void writeReport(PlacementStats[] stats, File reportFile) throws IOException {
+
+		BufferedWriter out = new BufferedWriter(new FileWriter(reportFile));
+		try {
+			out.write("{\n");
+			out.write("  \"noNodes\": " + noNodes + ",\n");
+			out.write("  \"placements\": [");
+			String separator = "\n";
+			for (PlacementStats placementStats : stats) {
+				out.write(separator);
+				out.write("    {\n");
+				out.write("      \"placement\": \"" + placementStats.getName() + "\",\n");
+				out.write("      \"messages\": " + placementStats.getNoMessages() + ",\n");
+				out.write("      \"crossNodeMessages\": " + placementStats.getNoCrossNodeMessages() + ",\n");
+				out.write("      \"crossNodeRatio\": "
+						+ String.format(Locale.ROOT, "%.6f", placementStats.getCrossNodeRatio()) + ",\n");
+				out.write("      \"imbalance\": " + String.format(Locale.ROOT, "%.6f", placementStats.getImbalance())
+						+ ",\n");
+
+				out.write("      \"load\": [");
+				long[] load = placementStats.getLoad();
+				for (int node = 0; node < load.length; node++) {
+					out.write((node == 0 ? "" : ", ") + load[node]);
+				}
+				out.write("],\n");
+
+				out.write("      \"queries\": [");
+				String querySeparator = "\n";
+				for (int q = 0; q < placementStats.getNoQueries(); q++) {
+					if (placementStats.getMessages(q) > 0) {
+						out.write(querySeparator);
+						out.write("        { \"query\": " + (queryIdMin + q) + ", \"messages\": "
+								+ placementStats.getMessages(q) + ", \"crossNodeMessages\": "
+								+ placementStats.getCrossNodeMessages(q) + " }");
+						querySeparator = ",\n";
+					}
+				}
+				out.write("\n      ]\n");
+				out.write("    }");
+				separator = ",\n";
+			}
+			out.write("\n  ]\n");
+			out.write("}\n");
+		} finally {
+			out.close();
+		}
+	}
+
+	private static String formatPercent(double ratio) {
+		return String.format(Locale.ROOT, "%.2f %%", 100 * ratio);
+	}
+
+	private class ReplayTask extends RecursiveTask<PlacementStats[]> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final List<TraceChunk> chunks;
+		private final int from;
+		private final int to;
+		private final ExecutorService decompressor;
+
+		ReplayTask(List<TraceChunk> chunks, int from, int to, ExecutorService decompressor) {
+			this.chunks = chunks;
+			this.from = from;
+			this.to = to;
+			this.decompressor = decompressor;
+		}
+
+		@Override
+		protected PlacementStats[] compute() {
+			if (to - from == 1) {
+				PlacementStats[] stats = createStats();
+				replayChunk(chunks.get(from), stats, decompressor);
+				return stats;
+			}
+
+			int mid = (from + to) >>> 1;
+			ReplayTask right = new ReplayTask(chunks, mid, to, decompressor);
+			right.fork();
+			PlacementStats[] left = new ReplayTask(chunks, from, mid, decompressor).compute();
+
+			PlacementStats[] rightStats = right.join();
+			for (int i = 0; i < left.length; i++) {
+				left[i].merge(rightStats[i]);
+			}
+
+			return left;
+		}
+	}
+}
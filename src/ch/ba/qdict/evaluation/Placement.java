@@ -0,0 +1,18 @@
+package ch.ba.qdict.evaluation;
+
+/**
+ * Node a TriplePattern is placed on in a TripleRush deployment. Implementations are read-only, so one instance can be
+ * used by all threads of an evaluation.
+ */
+public interface Placement {
+
+	/**
+	 * @return Name of the placement in reports, e.g. natural or table
+	 */
+	String getName();
+
+	/**
+	 * @return Node (0 to noNodes - 1) of the TriplePattern
+	 */
+	int getNode(int subject, int predicate, int object);
+}
@@ -0,0 +1,105 @@
+package ch.ba.qdict.evaluation;
+
+/**
+ * Messages of the replayed traces under one placement. Every trace line is one message from the node of its source
+ * TriplePattern to the node of its destination TriplePattern; it crosses nodes if the two differ. The load of a node
+ * is the number of messages it receives.
+ */
+public class PlacementStats {
+
+	private final String name;
+
+	private final long[] messages; // Per query
+	private final long[] crossNodeMessages; // Per query
+	private final long[] load; // Per node
+
+	// Messages of queries outside of QUERY_ID_MIN to QUERY_ID_MIN + NO_QUERIES - 1 only count towards the totals
+	private long noMessages;
+	private long noCrossNodeMessages;
+
+	public PlacementStats(String name, int noQueries, int noNodes) {
+		this.name = name;
+		this.messages = new long[noQueries];
+		this.crossNodeMessages = new long[noQueries];
+		this.load = new long[noNodes];
+	}
+
+	/**
+	 * @param query
+	 *            Query index, i.e. query ID - QUERY_ID_MIN
+	 */
+	void addMessage(int query, int sourceNode, int destNode) {
+		boolean crossNode = sourceNode != destNode;
+		if (query >= 0 && query < messages.length) {
+			messages[query]++;
+			if (crossNode) {
+				crossNodeMessages[query]++;
+			}
+		}
+		noMessages++;
+		if (crossNode) {
+			noCrossNodeMessages++;
+		}
+		load[destNode]++;
+	}
+
+	void merge(PlacementStats other) {
+		for (int q = 0; q < messages.length; q++) {
+			messages[q] += other.messages[q];
+			crossNodeMessages[q] += other.crossNodeMessages[q];
+		}
+		for (int node = 0; node < load.length; node++) {
+			load[node] += other.load[node];
+		}
+		noMessages += other.noMessages;
+		noCrossNodeMessages += other.noCrossNodeMessages;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public int getNoQueries() {
+		return messages.length;
+	}
+
+	public long getMessages(int query) {
+		return messages[query];
+	}
+
+	public long getCrossNodeMessages(int query) {
+		return crossNodeMessages[query];
+	}
+
+	public long getNoMessages() {
+		return noMessages;
+	}
+
+	public long getNoCrossNodeMessages() {
+		return noCrossNodeMessages;
+	}
+
+	/**
+	 * @return Share of cross-node messages, 0 if there are no messages
+	 */
+	public double getCrossNodeRatio() {
+		return noMessages == 0 ? 0 : (double) noCrossNodeMessages / noMessages;
+	}
+
+	public long[] getLoad() {
+		return load.clone();
+	}
+
+	/**
+	 * @return Maximum node load divided by the mean node load; 1 is perfectly balanced
+	 */
+	public double getImbalance() {
+		long max = 0;
+		long sum = 0;
+		for (long nodeLoad : load) {
+			max = Math.max(max, nodeLoad);
+			sum += nodeLoad;
+		}
+		return sum == 0 ? 1 : (double) max * load.length / sum;
+	}
+}
@@ -0,0 +1,155 @@
+package ch.ba.qdict.file;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * One block of a BGZF file (blocked gzip, as written by bgzip): a gzip member of at most 64 KB whose header carries
+ * its compressed size in a BC extra subfield, so blocks can be found without decompressing and decompressed
+ * independently.
+ * <p>
+ * Positions in BGZF files are virtual offsets: the file offset of a block shifted left by 16 bits, or'ed with an
+ * offset into its decompressed data.
+ */
+class BgzfBlock {
+
+	private static final int HEADER_SIZE = 12; // Fixed part of the gzip header, up to and including XLEN
+	private static final int MAX_BLOCK_SIZE = 1 << 16;
+
+	private final long offset;
+	private final byte[] data; // Whole compressed block
+
+	private BgzfBlock(long offset, byte[] data) {
+		this.offset = offset;
+		this.data = data;
+	}
+
+	static long virtualOffset(long blockOffset, int dataOffset) {
+		return (blockOffset << 16) | dataOffset;
+	}
+
+	static long blockOffset(long virtualOffset) {
+		return virtualOffset >>> 16;
+	}
+
+	static int dataOffset(long virtualOffset) {
+		return (int) (virtualOffset & 0xFFFF);
+	}
+
+	/**
+	 * @return True if the file starts with a BGZF block
+	 */
+	static boolean isBgzf(FileChannel channel) throws IOException {
+		return getBlockSize(channel, 0) > 0;
+	}
+
+	/**
+	 * Read the compressed block at offset.
+	 *
+	 * @return Block, or null at the end of the file
+	 */
+	static BgzfBlock read(FileChannel channel, long offset) throws IOException {
+		if (offset >= channel.size()) {
+			return null;
+		}
+		int blockSize = getBlockSize(channel, offset);
+		if (blockSize < 0) {
+			throw new IOException("No BGZF block at offset " + offset);
+		}
+		ByteBuffer buffer = ByteBuffer.allocate(blockSize);
+		readFully(channel, buffer, offset);
+		return new BgzfBlock(offset, buffer.array());
+	}
+
+	long getOffset() {
+		return offset;
+	}
+
+	long getNextOffset() {
+		return offset + data.length;
+	}
+
+	/**
+	 * @return Decompressed data of the block
+	 */
+	byte[] inflate() throws IOException {
+		ByteBuffer trailer = ByteBuffer.wrap(data, data.length - 8, 8).order(ByteOrder.LITTLE_ENDIAN);
+		int crc = trailer.getInt();
+		int size = trailer.getInt();
+		int xlen = (data[10] & 0xFF) | (data[11] & 0xFF) << 8;
+		int dataStart = HEADER_SIZE + xlen;
+
+		byte[] inflated = new byte[size];
+		Inflater inflater = new Inflater(true);
+		try {
+			inflater.setInput(data, dataStart, data.length - 8 - dataStart);
+			int length = 0;
+			while (length < size && !inflater.finished()) {
+				int n = inflater.inflate(inflated, length, size - length);
+				if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+					break;
+				}
+				length += n;
+			}
+			if (length != size) {
+				throw new IOException("Truncated BGZF block at offset " + offset);
+			}
+		} catch (DataFormatException e) {
+			throw new IOException("Corrupt BGZF block at offset " + offset, e);
+		} finally {
+			inflater.end();
+		}
+
+		CRC32 checksum = new CRC32();
+		checksum.update(inflated, 0, size);
+		if ((int) checksum.getValue() != crc) {
+			throw new IOException("CRC mismatch in BGZF block at offset " + offset);
+		}
+		return inflated;
+	}
+
+	/**
+	 * @return Size of the compressed block starting at offset, or -1 if there is no BGZF block header
+	 */
+	private static int getBlockSize(FileChannel channel, long offset) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		if (channel.read(header, offset) < HEADER_SIZE) {
+			return -1;
+		}
+		// ID1, ID2, deflate, FEXTRA set
+		if (header.get(0) != 31 || header.get(1) != (byte) 139 || header.get(2) != 8 || (header.get(3) & 4) == 0) {
+			return -1;
+		}
+
+		int xlen = header.getShort(10) & 0xFFFF;
+		ByteBuffer extra = ByteBuffer.allocate(xlen).order(ByteOrder.LITTLE_ENDIAN);
+		if (channel.read(extra, offset + HEADER_SIZE) < xlen) {
+			return -1;
+		}
+		int pos = 0;
+		while (pos + 4 <= xlen) {
+			int slen = extra.getShort(pos + 2) & 0xFFFF;
+			if (extra.get(pos) == 'B' && extra.get(pos + 1) == 'C' && slen == 2 && pos + 6 <= xlen) {
+				int blockSize = (extra.getShort(pos + 4) & 0xFFFF) + 1;
+				return blockSize <= MAX_BLOCK_SIZE ? blockSize : -1;
+			}
+			pos += 4 + slen;
+		}
+		return -1;
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer buffer, long offset) throws IOException {
+		while (buffer.hasRemaining()) {
+			int read = channel.read(buffer, offset + buffer.position());
+			if (read < 0) {
+				throw new EOFException("Truncated BGZF block at offset " + offset);
+			}
+		}
+	}
+}
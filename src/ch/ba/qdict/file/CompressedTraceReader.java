@@ -0,0 +1,271 @@
+package ch.ba.qdict.file;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads the lines of a compressed {@link TraceChunk}. Decompression runs on the threads of a decompressor and hands
+ * blocks of decompressed data to the reading thread through a bounded pipeline, so decompression overlaps with
+ * parsing and at most {@link #PIPELINE_BLOCKS} blocks are held per reader.
+ * <p>
+ * BGZF blocks are decompressed independently: the reading thread reads the compressed blocks ahead and submits one
+ * decompression task per block. Gzip files are decompressed sequentially by a single task per file.
+ * <p>
+ * Malformed lines are skipped and counted.
+ */
+class CompressedTraceReader implements TraceLineReader {
+
+	private static final int PIPELINE_BLOCKS = 32;
+	private static final int GZIP_BLOCK_SIZE = 1 << 20;
+
+	private static final byte[] END = new byte[0];
+
+	private final TraceChunk chunk;
+	private final FileChannel channel;
+
+	// BGZF: blocks in flight, in file order
+	private final ArrayDeque<Future<byte[]>> pendingBlocks = new ArrayDeque<Future<byte[]>>();
+	private final ArrayDeque<Long> pendingOffsets = new ArrayDeque<Long>();
+	private final ExecutorService decompressor;
+	private long nextBlockOffset;
+	private boolean firstBlock = true;
+
+	// Gzip: blocks decompressed by the gzip task, END after the last block
+	private final BlockingQueue<byte[]> gzipBlocks;
+	private final Future<?> gzipTask;
+	private volatile IOException gzipError;
+
+	private byte[] data = END;
+	private int pos;
+	private int limit;
+	private boolean lastBlock;
+
+	private byte[] line = new byte[256];
+	private int lineLength;
+	private long noMalformedLines;
+
+	CompressedTraceReader(TraceChunk chunk, ExecutorService decompressor) throws IOException {
+		this.chunk = chunk;
+		this.channel = FileChannel.open(chunk.getFile().toPath(), StandardOpenOption.READ);
+		this.decompressor = decompressor;
+
+		if (chunk.getCompression() == TraceChunk.Compression.BGZF) {
+			this.nextBlockOffset = BgzfBlock.blockOffset(chunk.getStart());
+			this.gzipBlocks = null;
+			this.gzipTask = null;
+		} else {
+			this.gzipBlocks = new ArrayBlockingQueue<byte[]>(PIPELINE_BLOCKS);
+			this.gzipTask = decompressor.submit(new Runnable() {
+				@Override
+				public void run() {
+					decompressGzip();
+				}
+			});
+		}
+	}
+
+	@Override
+	public boolean next(TraceLineParser parser) throws IOException {
+		while (true) {
+			if (pos == limit) {
+				if (!nextBlock()) {
+					if (lineLength == 0) {
+						return false;
+					}
+					return parseLine(parser);
+				}
+				continue;
+			}
+
+			int lineEnd = pos;
+			while (lineEnd < limit && data[lineEnd] != '\n') {
+				lineEnd++;
+			}
+
+			if (lineEnd == limit) { // Line continues in the next block
+				appendToLine(pos, limit);
+				pos = limit;
+				continue;
+			}
+
+			if (lineLength == 0) {
+				int end = (lineEnd > pos && data[lineEnd - 1] == '\r') ? lineEnd - 1 : lineEnd;
+				int start = pos;
+				pos = lineEnd + 1;
+				if (!parse(parser, data, start, end)) {
+					continue;
+				}
+			} else {
+				appendToLine(pos, lineEnd);
+				pos = lineEnd + 1;
+				if (!parseLine(parser)) {
+					continue;
+				}
+			}
+			return true;
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		chunk.warnMalformedLines(noMalformedLines);
+		for (Future<byte[]> block : pendingBlocks) {
+			block.cancel(false);
+		}
+		pendingBlocks.clear();
+		pendingOffsets.clear();
+		if (gzipTask != null) {
+			gzipTask.cancel(true);
+			gzipBlocks.clear();
+		}
+		channel.close();
+	}
+
+	private boolean parseLine(TraceLineParser parser) {
+		int end = (lineLength > 0 && line[lineLength - 1] == '\r') ? lineLength - 1 : lineLength;
+		lineLength = 0;
+		return parse(parser, line, 0, end);
+	}
+
+	/**
+	 * @return False if the line is malformed
+	 */
+	private boolean parse(TraceLineParser parser, byte[] bytes, int from, int to) {
+		try {
+			parser.parse(bytes, from, to);
+			return true;
+		} catch (NumberFormatException e) {
+			noMalformedLines++;
+			return false;
+		}
+	}
+
+	private void appendToLine(int from, int to) {
+		int length = to - from;
+		if (lineLength + length > line.length) {
+			line = Arrays.copyOf(line, Math.max(lineLength + length, line.length * 2));
+		}
+		System.arraycopy(data, from, line, lineLength, length);
+		lineLength += length;
+	}
+
+	/**
+	 * Move to the next block of decompressed data of the chunk.
+	 *
+	 * @return False if there are no more blocks
+	 */
+	private boolean nextBlock() throws IOException {
+		if (lastBlock) {
+			return false;
+		}
+		if (gzipBlocks != null) {
+			return nextGzipBlock();
+		}
+
+		long end = chunk.getEnd();
+		while (pendingBlocks.size() < PIPELINE_BLOCKS && (nextBlockOffset < BgzfBlock.blockOffset(end)
+				|| nextBlockOffset == BgzfBlock.blockOffset(end) && BgzfBlock.dataOffset(end) > 0)) {
+			final BgzfBlock block = BgzfBlock.read(channel, nextBlockOffset);
+			if (block == null) {
+				break;
+			}
+			pendingOffsets.add(block.getOffset());
+			pendingBlocks.add(decompressor.submit(new Callable<byte[]>() {
+				@Override
+				public byte[] call() throws IOException {
+					return block.inflate();
+				}
+			}));
+			nextBlockOffset = block.getNextOffset();
+		}
+
+		if (pendingBlocks.isEmpty()) {
+			lastBlock = true;
+			return false;
+		}
+
+		long blockOffset = pendingOffsets.poll();
+		try {
+			data = pendingBlocks.poll().get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while decompressing " + chunk, e);
+		} catch (ExecutionException e) {
+			throw new IOException("Could not decompress " + chunk, e.getCause());
+		}
+
+		pos = 0;
+		limit = data.length;
+		if (firstBlock) {
+			pos = BgzfBlock.dataOffset(chunk.getStart());
+			firstBlock = false;
+		}
+		if (blockOffset == BgzfBlock.blockOffset(end)) {
+			limit = BgzfBlock.dataOffset(end);
+			lastBlock = true;
+		}
+		return true;
+	}
+
+	private boolean nextGzipBlock() throws IOException {
+		try {
+			data = gzipBlocks.take();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while decompressing " + chunk, e);
+		}
+		if (data == END) {
+			lastBlock = true;
+			limit = pos = 0;
+			if (gzipError != null) {
+				throw gzipError;
+			}
+			return false;
+		}
+		pos = 0;
+		limit = data.length;
+		return true;
+	}
+
+	/**
+	 * Decompress the whole gzip file into blocks of {@link #GZIP_BLOCK_SIZE} bytes; runs on the decompressor.
+	 */
+	private void decompressGzip() {
+		try {
+			try {
+				InputStream in = new GZIPInputStream(Channels.newInputStream(channel.position(0)), 1 << 16);
+				byte[] block = new byte[GZIP_BLOCK_SIZE];
+				int length = 0;
+				int read;
+				while ((read = in.read(block, length, block.length - length)) >= 0) {
+					length += read;
+					if (length == block.length) {
+						gzipBlocks.put(block);
+						block = new byte[GZIP_BLOCK_SIZE];
+						length = 0;
+					}
+				}
+				if (length > 0) {
+					gzipBlocks.put(Arrays.copyOf(block, length));
+				}
+			} catch (IOException e) {
+				gzipError = new IOException("Could not decompress " + chunk, e);
+			}
+			gzipBlocks.put(END);
+		} catch (InterruptedException e) {
+			// Reader was closed
+		}
+	}
+}
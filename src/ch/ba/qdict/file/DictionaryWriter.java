@@ -5,14 +5,16 @@ import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.Map;
-import java.util.concurrent.TimeUnit;
+
+import ch.ba.qdict.metrics.Phase;
+import ch.ba.qdict.metrics.RunMetrics;
 
 public class DictionaryWriter {
 
 	public static String writeDictToFile(Map<String, Integer> dictMap, String dictFileName, String subfolder, String outPath) {
 
 		System.out.println("Writing Dictionary to File...");
-		long dictWriteStartTime = System.nanoTime();
+		Phase phase = RunMetrics.startPhase("write", dictFileName);
 		
 		String filePath = outPath + subfolder + "/" + dictFileName;
 		File dictFile = new File(filePath);
@@ -48,13 +50,45 @@ public class DictionaryWriter {
 			}
 		}
 
-		long dictWriteEndTime = System.nanoTime();
-		long dictWriteTime = dictWriteEndTime - dictWriteStartTime;
+		phase.addBytesWritten(dictFile.length());
+		phase.addLines(dictMap.size());
+		long dictWriteTime = phase.end();
 
-		System.out.println("\tExecution time: " + TimeUnit.MILLISECONDS.convert(dictWriteTime, TimeUnit.NANOSECONDS)
-				+ " ms");
+		System.out.println("\tExecution time: " + dictWriteTime + " ms");
 
 		return dictFile.getAbsolutePath();
 	}
 
+	/**
+	 * Writers add "_" and a timestamp to the name if a file already exists, so the newest output of a name is the file
+	 * with the highest timestamp.
+	 *
+	 * @param filePath
+	 *            Path of the output without timestamp
+	 * @return Newest output written to filePath, or the file at filePath if there is none
+	 */
+	public static File getNewestFile(String filePath) {
+		File file = new File(filePath);
+		File folder = file.getAbsoluteFile().getParentFile();
+		String[] names = (folder != null) ? folder.list() : null;
+		if (names == null) {
+			return file;
+		}
+
+		File newest = file;
+		long newestTimestamp = -1;
+		String prefix = file.getName() + "_";
+		for (String name : names) {
+			if (name.startsWith(prefix) && name.length() > prefix.length()
+					&& name.substring(prefix.length()).matches("\\d{1,18}")) {
+				long timestamp = Long.parseLong(name.substring(prefix.length()));
+				if (timestamp > newestTimestamp) {
+					newest = new File(folder, name);
+					newestTimestamp = timestamp;
+				}
+			}
+		}
+		return newest;
+	}
+
 }
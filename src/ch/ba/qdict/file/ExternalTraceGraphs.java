@@ -0,0 +1,95 @@
+package ch.ba.qdict.file;
+
+import java.io.File;
+import java.util.List;
+
+import ch.ba.qdict.graph.EdgeRunMerger;
+import ch.ba.qdict.graph.VertexTable;
+
+/**
+ * Trace graphs of an out-of-core ingestion: the vertices of the lookup and dictionary graphs are held in memory, their
+ * edges are in sorted run files that are merged with an {@link EdgeRunMerger}. A graph without usable traces has null
+ * vertices.
+ */
+public class ExternalTraceGraphs {
+
+	private final VertexTable<String> lookupVertices;
+	private final VertexTable<Integer> dictVertices;
+
+	private final List<File> lookupRuns;
+	private final List<File> dictRuns;
+	private final File spillFolder;
+
+	private final long noTraces;
+	private final long noIgnoredDictTraces;
+
+	ExternalTraceGraphs(VertexTable<String> lookupVertices, VertexTable<Integer> dictVertices, List<File> lookupRuns,
+			List<File> dictRuns, File spillFolder, long noTraces, long noIgnoredDictTraces) {
+		this.lookupVertices = lookupVertices;
+		this.dictVertices = dictVertices;
+		this.lookupRuns = lookupRuns;
+		this.dictRuns = dictRuns;
+		this.spillFolder = spillFolder;
+		this.noTraces = noTraces;
+		this.noIgnoredDictTraces = noIgnoredDictTraces;
+	}
+
+	public VertexTable<String> getLookupVertices() {
+		return lookupVertices;
+	}
+
+	public VertexTable<Integer> getDictVertices() {
+		return dictVertices;
+	}
+
+	/**
+	 * @return Run files of the lookup graph edges, in trace order
+	 */
+	public List<File> getLookupRuns() {
+		return lookupRuns;
+	}
+
+	/**
+	 * @return Run files of the dictionary graph edges, in trace order
+	 */
+	public List<File> getDictRuns() {
+		return dictRuns;
+	}
+
+	/**
+	 * @return Folder of the run files; intermediate runs of merges belong there too
+	 */
+	public File getSpillFolder() {
+		return spillFolder;
+	}
+
+	public long getNoTraces() {
+		return noTraces;
+	}
+
+	public long getNoIgnoredDictTraces() {
+		return noIgnoredDictTraces;
+	}
+
+	/**
+	 * Delete all run files and the spill folder.
+	 */
+	public void deleteRuns() {
+		for (File run : lookupRuns) {
+			run.delete();
+		}
+		for (File run : dictRuns) {
+			run.delete();
+		}
+		lookupRuns.clear();
+		dictRuns.clear();
+
+		File[] remaining = spillFolder.listFiles();
+		if (remaining != null) {
+			for (File file : remaining) {
+				file.delete();
+			}
+		}
+		spillFolder.delete();
+	}
+}
@@ -0,0 +1,210 @@
+package ch.ba.qdict.file;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+import ch.ba.qdict.metrics.Phase;
+import ch.ba.qdict.metrics.RunMetrics;
+
+/**
+ * Random access to the lines of a TripleRush dictionary (line i holds the String of ID i) through a memory mapped
+ * file, so only the Strings that are looked up end up on the heap.
+ * <p>
+ * Line start offsets are kept in an index file next to the dictionary (dictionary path + ".idx") and reused as long as
+ * length and modification time of the dictionary match. If the index can't be written there, a temporary index is
+ * used. Lines end with \n, a trailing \r is dropped.
+ */
+public class MappedDictionaryReader implements Closeable {
+
+	private static final int MAGIC = 0x51544449; // QTDI
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 24;
+
+	private static final int MAP_WINDOW = 1 << 30;
+
+	private final RandomAccessFile dictFile;
+	private final MappedByteBuffer[] dictWindows;
+
+	private final RandomAccessFile indexFile;
+	private final MappedByteBuffer[] indexWindows;
+	private final int noLines;
+
+	private final Charset charset = Charset.defaultCharset();
+
+	public MappedDictionaryReader(String dictFilePath) throws IOException {
+
+		File dict = new File(dictFilePath);
+		if (!dict.isFile()) {
+			throw new FileNotFoundException(dictFilePath);
+		}
+		File index = getIndexFile(dict);
+		if (!isIndexValid(index, dict)) {
+			System.out.println("Indexing Dictionary " + dict.getName() + "...");
+			try {
+				writeIndex(dict, index);
+			} catch (IOException e) {
+				System.err.println("\tWARNING! Could not write dictionary index next to the dictionary: " + e.getMessage());
+				index = File.createTempFile("qt-dict", ".idx");
+				index.deleteOnExit();
+				writeIndex(dict, index);
+			}
+		}
+
+		this.dictFile = new RandomAccessFile(dict, "r");
+		this.dictWindows = map(dictFile.getChannel(), 0, dictFile.length());
+
+		this.indexFile = new RandomAccessFile(index, "r");
+		long indexLength = indexFile.length();
+		this.noLines = (int) ((indexLength - HEADER_SIZE) / 8 - 1);
+		this.indexWindows = map(indexFile.getChannel(), HEADER_SIZE, indexLength - HEADER_SIZE);
+	}
+
+	public static File getIndexFile(File dict) {
+		return new File(dict.getPath() + ".idx");
+	}
+
+	/**
+	 * @return Number of lines, i.e. IDs, of the dictionary
+	 */
+	public int size() {
+		return noLines;
+	}
+
+	/**
+	 * @return String of the ID
+	 */
+	public String get(int id) {
+		if (id < 0 || id >= noLines) {
+			throw new IndexOutOfBoundsException("ID " + id + " not in dictionary of " + noLines + " entries");
+		}
+		long start = getOffset(id);
+		long end = getOffset(id + 1);
+		if (end > start && getByte(end - 1) == '\n') {
+			end--;
+		}
+		if (end > start && getByte(end - 1) == '\r') {
+			end--;
+		}
+
+		byte[] bytes = new byte[(int) (end - start)];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = getByte(start + i);
+		}
+		return new String(bytes, charset);
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			dictFile.close();
+		} finally {
+			indexFile.close();
+		}
+	}
+
+	private long getOffset(int line) {
+		long pos = 8L * line;
+		return indexWindows[(int) (pos / MAP_WINDOW)].getLong((int) (pos % MAP_WINDOW));
+	}
+
+	private byte getByte(long pos) {
+		return dictWindows[(int) (pos / MAP_WINDOW)].get((int) (pos % MAP_WINDOW));
+	}
+
+	private static MappedByteBuffer[] map(FileChannel channel, long offset, long length) throws IOException {
+		MappedByteBuffer[] windows = new MappedByteBuffer[(int) ((length + MAP_WINDOW - 1) / MAP_WINDOW)];
+		for (int w = 0; w < windows.length; w++) {
+			long from = (long) w * MAP_WINDOW;
+			windows[w] = channel.map(FileChannel.MapMode.READ_ONLY, offset + from, Math.min(MAP_WINDOW, length - from));
+		}
+		return windows;
+	}
+
+	private static boolean isIndexValid(File index, File dict) {
+		if (!index.exists() || index.length() < HEADER_SIZE + 8 || (index.length() - HEADER_SIZE) % 8 != 0) {
+			return false;
+		}
+		try {
+			RandomAccessFile in = new RandomAccessFile(index, "r");
+			try {
+				return in.readInt() == MAGIC && in.readInt() == VERSION && in.readLong() == dict.length()
+						&& in.readLong() == dict.lastModified();
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Write the start offset of every line and the dictionary length as end of the last line. The index is written
+	 * to a temporary file and renamed, so it is either complete or absent.
+	 */
+	private static void writeIndex(File dict, File index) throws IOException {
+
+		Phase phase = RunMetrics.startPhase("dictionary-index", dict.getName());
+
+		File tmpFile = new File(index.getPath() + ".tmp");
+		long noLines = 0;
+
+		try (RandomAccessFile in = new RandomAccessFile(dict, "r");
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile),
+						1 << 16))) {
+			long length = in.length();
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(length);
+			out.writeLong(dict.lastModified());
+
+			MappedByteBuffer[] windows = map(in.getChannel(), 0, length);
+			long lineStart = 0;
+			for (int w = 0; w < windows.length; w++) {
+				MappedByteBuffer window = windows[w];
+				long windowStart = (long) w * MAP_WINDOW;
+				int limit = window.limit();
+				for (int i = 0; i < limit; i++) {
+					if (window.get(i) == '\n') {
+						out.writeLong(lineStart);
+						noLines++;
+						lineStart = windowStart + i + 1;
+					}
+				}
+			}
+			if (lineStart < length) { // Last line without line break
+				out.writeLong(lineStart);
+				noLines++;
+			}
+			out.writeLong(length);
+		}
+
+		if (noLines > Integer.MAX_VALUE) {
+			tmpFile.delete();
+			throw new IOException("Dictionary has more lines than int IDs: " + dict);
+		}
+		if (!tmpFile.renameTo(index)) {
+			index.delete();
+			if (!tmpFile.renameTo(index)) {
+				tmpFile.delete();
+				throw new IOException("Could not replace dictionary index " + index);
+			}
+		}
+
+		phase.addBytesRead(dict.length());
+		phase.addBytesWritten(index.length());
+		phase.addLines(noLines);
+		long indexTime = phase.end();
+
+		System.out.println("\t#Lines: " + noLines);
+		System.out.println("\tExecution time: " + indexTime + " ms");
+	}
+}
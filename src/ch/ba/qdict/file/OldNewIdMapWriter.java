@@ -5,14 +5,16 @@ import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.Map;
-import java.util.concurrent.TimeUnit;
+
+import ch.ba.qdict.metrics.Phase;
+import ch.ba.qdict.metrics.RunMetrics;
 
 public class OldNewIdMapWriter {
 
 	public static String writeMapToFile(Map<Integer, Integer> idMap, String idMapFileName, String outPath) {
 
 		System.out.println("Writing Dictionary to File...");
-		long dictWriteStartTime = System.nanoTime();
+		Phase phase = RunMetrics.startPhase("write", idMapFileName);
 		
 		String filePath = outPath + "/" + idMapFileName;
 		File dictFile = new File(filePath);
@@ -48,11 +50,11 @@ public class OldNewIdMapWriter {
 			}
 		}
 
-		long dictWriteEndTime = System.nanoTime();
-		long dictWriteTime = dictWriteEndTime - dictWriteStartTime;
+		phase.addBytesWritten(dictFile.length());
+		phase.addLines(idMap.size());
+		long dictWriteTime = phase.end();
 
-		System.out.println("\tExecution time: " + TimeUnit.MILLISECONDS.convert(dictWriteTime, TimeUnit.NANOSECONDS)
-				+ " ms");
+		System.out.println("\tExecution time: " + dictWriteTime + " ms");
 
 		return dictFile.getAbsolutePath();
 	}
@@ -0,0 +1,279 @@
+package ch.ba.qdict.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Newline-aligned byte range [start, end) of a trace file, containing only whole lines.
+ * <p>
+ * Trace files may be gzip-compressed. A gzip file can't be split and is a single chunk. BGZF files (blocked gzip, see
+ * {@link BgzfBlock}) are split at line starts within blocks; start and end of their chunks are virtual offsets.
+ */
+public class TraceChunk {
+
+	public enum Compression {
+		NONE, GZIP, BGZF
+	}
+
+	private final File file;
+	private final long start;
+	private final long end;
+	private final Compression compression;
+
+	public TraceChunk(File file, long start, long end) {
+		this(file, start, end, Compression.NONE);
+	}
+
+	public TraceChunk(File file, long start, long end, Compression compression) {
+		this.file = file;
+		this.start = start;
+		this.end = end;
+		this.compression = compression;
+	}
+
+	/**
+	 * Split a file into chunks of roughly chunkSize bytes. Every chunk boundary is moved forward to the start of the
+	 * next line.
+	 *
+	 * @param file
+	 *            Trace file
+	 * @param chunkSize
+	 *            Minimum chunk size in bytes
+	 * @return Chunks in file order, covering the whole file
+	 */
+	public static List<TraceChunk> split(File file, long chunkSize) throws IOException {
+		return split(file, 0, chunkSize);
+	}
+
+	/**
+	 * Split the part of a file from a line start on, e.g. lines appended since a previous run.
+	 *
+	 * @param from
+	 *            Offset of a line start; 0 for compressed files
+	 * @return Chunks in file order, covering the file from offset from
+	 */
+	public static List<TraceChunk> split(File file, long from, long chunkSize) throws IOException {
+		List<TraceChunk> chunks = new ArrayList<TraceChunk>();
+		long length = file.length();
+
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try {
+			Compression compression = getCompression(channel);
+			if (compression != Compression.NONE && from != 0) {
+				throw new IOException("Compressed trace files can only be read from the start: " + file);
+			}
+			if (compression == Compression.GZIP) {
+				chunks.add(new TraceChunk(file, 0, length, compression));
+				return chunks;
+			}
+			if (compression == Compression.BGZF) {
+				return splitBgzf(file, channel, chunkSize);
+			}
+
+			long start = from;
+			while (start < length) {
+				long end = (length - start <= chunkSize) ? length : nextLineStart(channel, start + chunkSize, length);
+				chunks.add(new TraceChunk(file, start, end));
+				start = end;
+			}
+		} finally {
+			channel.close();
+		}
+
+		return chunks;
+	}
+
+	/**
+	 * @return True if a line starts at offset, i.e. offset is 0 or follows a line break. Always false for offsets
+	 *         other than 0 in compressed files, so changed compressed files are read again as a whole.
+	 */
+	public static boolean isLineStart(File file, long offset) throws IOException {
+		if (offset == 0) {
+			return true;
+		}
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try {
+			if (getCompression(channel) != Compression.NONE) {
+				return false;
+			}
+			ByteBuffer buffer = ByteBuffer.allocate(1);
+			return channel.read(buffer, offset - 1) == 1 && buffer.get(0) == '\n';
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * @return Offset of the first line starting at or after offset, or length if there is none
+	 */
+	private static long nextLineStart(FileChannel channel, long offset, long length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(4096);
+
+		// A line starts at offset if the byte before it is a line break
+		long position = offset - 1;
+		while (position < length) {
+			buffer.clear();
+			int read = channel.read(buffer, position);
+			if (read <= 0) {
+				break;
+			}
+			for (int i = 0; i < read; i++) {
+				if (buffer.get(i) == '\n') {
+					return position + i + 1;
+				}
+			}
+			position += read;
+		}
+
+		return length;
+	}
+
+	/**
+	 * Split a BGZF file into chunks of roughly chunkSize compressed bytes. Every chunk boundary is moved forward to the
+	 * start of the next line, which is found by decompressing the blocks at the boundary.
+	 */
+	private static List<TraceChunk> splitBgzf(File file, FileChannel channel, long chunkSize) throws IOException {
+		List<TraceChunk> chunks = new ArrayList<TraceChunk>();
+		long length = channel.size();
+
+		long start = 0;
+		long blockOffset = 0;
+		while (blockOffset < length) {
+			BgzfBlock block = BgzfBlock.read(channel, blockOffset);
+			if (block.getOffset() - BgzfBlock.blockOffset(start) < chunkSize) {
+				blockOffset = block.getNextOffset();
+				continue;
+			}
+
+			long end = nextBgzfLineStart(channel, block);
+			if (end < 0) {
+				break;
+			}
+			chunks.add(new TraceChunk(file, start, end, Compression.BGZF));
+			start = end;
+
+			// The next chunk starts within or at the start of a block
+			blockOffset = BgzfBlock.blockOffset(end);
+			if (BgzfBlock.dataOffset(end) > 0) {
+				blockOffset = BgzfBlock.read(channel, blockOffset).getNextOffset();
+			}
+		}
+		chunks.add(new TraceChunk(file, start, BgzfBlock.virtualOffset(length, 0), Compression.BGZF));
+
+		return chunks;
+	}
+
+	/**
+	 * @return Virtual offset of the first line starting at or after the start of the block, or -1 if there is none
+	 */
+	private static long nextBgzfLineStart(FileChannel channel, BgzfBlock block) throws IOException {
+		// A line starts at the block if the data before it ends with a line break, which is not known here; the first
+		// line break in or after the block is searched instead
+		while (block != null) {
+			byte[] data = block.inflate();
+			for (int i = 0; i < data.length; i++) {
+				if (data[i] == '\n') {
+					return (i + 1 < data.length) ? BgzfBlock.virtualOffset(block.getOffset(), i + 1)
+							: BgzfBlock.virtualOffset(block.getNextOffset(), 0);
+				}
+			}
+			block = BgzfBlock.read(channel, block.getNextOffset());
+		}
+		return -1;
+	}
+
+	/**
+	 * @return Compression of the file, detected from its first bytes
+	 */
+	private static Compression getCompression(FileChannel channel) throws IOException {
+		ByteBuffer magic = ByteBuffer.allocate(2);
+		if (channel.read(magic, 0) < 2 || magic.get(0) != 31 || magic.get(1) != (byte) 139) {
+			return Compression.NONE;
+		}
+		return BgzfBlock.isBgzf(channel) ? Compression.BGZF : Compression.GZIP;
+	}
+
+	/**
+	 * @return Decompressor for the compressed chunks, or null if all chunks are uncompressed. Its threads are daemon
+	 *         threads; it must be shut down after reading.
+	 */
+	public static ExecutorService createDecompressor(List<TraceChunk> chunks, int threads) {
+		for (TraceChunk chunk : chunks) {
+			if (chunk.getCompression() != Compression.NONE) {
+				return Executors.newFixedThreadPool(Math.max(1, threads), new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable runnable) {
+						Thread thread = new Thread(runnable, "trace-decompressor");
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Open a reader for the lines of the chunk.
+	 *
+	 * @param decompressor
+	 *            Worker threads decompressing compressed chunks; may be null for uncompressed chunks
+	 */
+	public TraceLineReader open(ExecutorService decompressor) throws IOException {
+		if (compression == Compression.NONE) {
+			return new TraceChunkReader(this);
+		}
+		if (decompressor == null) {
+			throw new IllegalArgumentException("Compressed trace chunk needs a decompressor: " + this);
+		}
+		return new CompressedTraceReader(this, decompressor);
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public long getStart() {
+		return start;
+	}
+
+	public long getEnd() {
+		return end;
+	}
+
+	public Compression getCompression() {
+		return compression;
+	}
+
+	/**
+	 * @return Number of bytes of the file in the chunk; compressed bytes for compressed chunks
+	 */
+	public long getLength() {
+		if (compression == Compression.BGZF) {
+			return BgzfBlock.blockOffset(end) - BgzfBlock.blockOffset(start);
+		}
+		return end - start;
+	}
+
+	/**
+	 * Report the malformed lines a reader skipped in the chunk.
+	 */
+	void warnMalformedLines(long noMalformedLines) {
+		if (noMalformedLines > 0) {
+			System.err.println("\tWARNING! Skipped " + noMalformedLines + " malformed trace lines in " + this);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return file.getName() + "[" + start + ", " + end + ")";
+	}
+}
@@ -0,0 +1,90 @@
+package ch.ba.qdict.file;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads the lines of an uncompressed {@link TraceChunk} from a memory-mapped window of the trace file and hands them
+ * to a {@link TraceLineParser} as bytes.
+ * <p>
+ * Chunks larger than a window are mapped one window at a time; a line crossing the end of a window is read from the
+ * next window, which starts at that line. Malformed lines are skipped and counted.
+ */
+public class TraceChunkReader implements TraceLineReader {
+
+	private static final long WINDOW_SIZE = 1L << 30;
+
+	private final TraceChunk chunk;
+	private final FileChannel channel;
+	private final long end;
+
+	private MappedByteBuffer window;
+	private long windowOffset; // File offset of window[0]
+
+	private byte[] line = new byte[256];
+	private long noMalformedLines;
+
+	public TraceChunkReader(TraceChunk chunk) throws IOException {
+		this.chunk = chunk;
+		this.channel = FileChannel.open(chunk.getFile().toPath(), StandardOpenOption.READ);
+		this.end = chunk.getEnd();
+		map(chunk.getStart());
+	}
+
+	@Override
+	public boolean next(TraceLineParser parser) throws IOException {
+		while (true) {
+			int lineStart = window.position();
+			int limit = window.limit();
+			if (lineStart == limit && windowOffset + limit >= end) {
+				return false;
+			}
+
+			int lineEnd = lineStart;
+			while (lineEnd < limit && window.get(lineEnd) != '\n') {
+				lineEnd++;
+			}
+
+			if (lineEnd == limit && windowOffset + limit < end) {
+				if (lineStart == 0) {
+					throw new IOException("Trace line longer than " + WINDOW_SIZE + " bytes at offset " + windowOffset);
+				}
+				map(windowOffset + lineStart);
+				continue;
+			}
+
+			int next = lineEnd < limit ? lineEnd + 1 : lineEnd;
+			if (lineEnd > lineStart && window.get(lineEnd - 1) == '\r') {
+				lineEnd--;
+			}
+
+			int length = lineEnd - lineStart;
+			if (length > line.length) {
+				line = new byte[Math.max(length, line.length * 2)];
+			}
+			window.get(line, 0, length);
+			window.position(next);
+
+			try {
+				parser.parse(line, 0, length);
+			} catch (NumberFormatException e) {
+				noMalformedLines++;
+				continue;
+			}
+			return true;
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		chunk.warnMalformedLines(noMalformedLines);
+		channel.close();
+	}
+
+	private void map(long offset) throws IOException {
+		window = channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(WINDOW_SIZE, end - offset));
+		windowOffset = offset;
+	}
+}
@@ -0,0 +1,211 @@
+package ch.ba.qdict.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import ch.ba.qdict.graph.EdgeSpiller;
+import ch.ba.qdict.graph.TPProcessor;
+import ch.ba.qdict.graph.TriplePatternCodec;
+import ch.ba.qdict.graph.VertexTable;
+
+/**
+ * Second pass of an out-of-core ingestion: reads the traces again and spills the edges of the lookup and dictionary
+ * graphs into sorted run files, using the vertex ids of the vertex tables built by the first pass. The edges are the
+ * same as those {@link TraceIngestion} adds to an in-memory graph.
+ * <p>
+ * Every chunk gets its own spillers; runs are returned in chunk order, so merging them gives the same weights as
+ * sequential ingestion.
+ */
+class TraceEdgeSpilling {
+
+	private final VertexTable<String> lookupVertices;
+	private final VertexTable<Integer> dictVertices;
+	private final TriplePatternCodec lookupCodec;
+
+	private final int traceWeight;
+	private final int nodeAffinityWeight;
+	private final int noNodes;
+
+	private final TraceWindow window;
+	private final long referenceTime;
+
+	private final File spillFolder;
+	private final long spillerMemory;
+
+	/**
+	 * @param lookupVertices
+	 *            Vertices of the lookup graph, null if it is not built
+	 * @param dictVertices
+	 *            Vertices of the dictionary graph, null if it is not built
+	 * @param lookupCodec
+	 *            Codec the lookup vertices were interned with
+	 * @param window
+	 *            Window the trace weights decay in; must match the window the vertices were ingested with
+	 * @param spillerMemory
+	 *            Heap in bytes of one spiller; up to two spillers per ingest thread are filled at the same time
+	 */
+	TraceEdgeSpilling(VertexTable<String> lookupVertices, VertexTable<Integer> dictVertices,
+			TriplePatternCodec lookupCodec, int traceWeight, int nodeAffinityWeight, int noNodes, TraceWindow window,
+			long referenceTime, File spillFolder, long spillerMemory) {
+		this.lookupVertices = lookupVertices;
+		this.dictVertices = dictVertices;
+		this.lookupCodec = lookupCodec;
+		this.traceWeight = traceWeight;
+		this.nodeAffinityWeight = nodeAffinityWeight;
+		this.noNodes = noNodes;
+		this.window = window;
+		this.referenceTime = referenceTime;
+		this.spillFolder = spillFolder;
+		this.spillerMemory = spillerMemory;
+	}
+
+	/**
+	 * @return Lookup runs at index 0 and dictionary runs at index 1, in trace order
+	 */
+	List<List<File>> spill(List<TraceChunk> chunks, int ingestThreads, int decompressThreads) {
+
+		ExecutorService decompressor = TraceChunk.createDecompressor(chunks, decompressThreads);
+		try {
+			if (ingestThreads <= 1 || chunks.size() <= 1) {
+				List<List<File>> runs = createRunLists();
+				for (int i = 0; i < chunks.size(); i++) {
+					addRuns(runs, spillChunk(chunks.get(i), i, decompressor));
+				}
+				return runs;
+			}
+
+			ForkJoinPool pool = new ForkJoinPool(ingestThreads);
+			try {
+				return pool.invoke(new SpillTask(chunks, 0, chunks.size(), decompressor));
+			} finally {
+				pool.shutdown();
+			}
+		} finally {
+			if (decompressor != null) {
+				decompressor.shutdownNow();
+			}
+		}
+	}
+
+	private List<List<File>> spillChunk(TraceChunk chunk, int chunkIndex, ExecutorService decompressor) {
+
+		EdgeSpiller lookupEdges = lookupVertices != null
+				? new EdgeSpiller(spillFolder, "lookup_" + chunkIndex, spillerMemory) : null;
+		EdgeSpiller dictEdges = dictVertices != null
+				? new EdgeSpiller(spillFolder, "dict_" + chunkIndex, spillerMemory) : null;
+
+		List<List<File>> runs = createRunLists();
+		TraceLineReader in = null;
+		try {
+			in = chunk.open(decompressor);
+
+			int chunkTraceWeight = window.getTraceWeight(traceWeight, chunk, referenceTime);
+			TraceLineParser trace = new TraceLineParser();
+			while (in.next(trace)) {
+				addTrace(trace, chunkTraceWeight, lookupEdges, dictEdges);
+			}
+
+			if (lookupEdges != null) {
+				runs.get(0).addAll(lookupEdges.finish());
+			}
+			if (dictEdges != null) {
+				runs.get(1).addAll(dictEdges.finish());
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.exit(0);
+		} finally {
+			try {
+				if (in != null) {
+					in.close();
+				}
+			} catch (IOException e) {
+				e.printStackTrace();
+				System.exit(0);
+			}
+		}
+		return runs;
+	}
+
+	private void addTrace(TraceLineParser trace, int traceWeight, EdgeSpiller lookupEdges, EdgeSpiller dictEdges)
+			throws IOException {
+
+		int sourceSigId = trace.getSourceSigId();
+		int destSigId = trace.getDestSigId();
+
+		if (lookupEdges != null) {
+			int source = lookupVertices.getVertexId(
+					lookupCodec.encode(trace.getSourceSubject(), trace.getSourcePredicate(), trace.getSourceObject()));
+			int dest = lookupVertices.getVertexId(
+					lookupCodec.encode(trace.getDestSubject(), trace.getDestPredicate(), trace.getDestObject()));
+			int sourceNode = lookupVertices.getVertexId(lookupCodec.encodeNode(TPProcessor.getNodeNumber(sourceSigId, noNodes)));
+			int destNode = lookupVertices.getVertexId(lookupCodec.encodeNode(TPProcessor.getNodeNumber(destSigId, noNodes)));
+
+			// Source-dest edge sums weights, node edges don't; both directions of the undirected graph
+			lookupEdges.add(source, dest, traceWeight, true);
+			lookupEdges.add(dest, source, traceWeight, true);
+			lookupEdges.add(source, sourceNode, nodeAffinityWeight, false);
+			lookupEdges.add(sourceNode, source, nodeAffinityWeight, false);
+			lookupEdges.add(dest, destNode, nodeAffinityWeight, false);
+			lookupEdges.add(destNode, dest, nodeAffinityWeight, false);
+		}
+
+		if (dictEdges != null && sourceSigId != destSigId) { // Only add Edge if it crosses SigId boundary
+			int source = dictVertices.getVertexId(sourceSigId);
+			int dest = dictVertices.getVertexId(destSigId);
+			dictEdges.add(source, dest, traceWeight, true);
+			dictEdges.add(dest, source, traceWeight, true);
+		}
+	}
+
+	private static List<List<File>> createRunLists() {
+		List<List<File>> runs = new ArrayList<List<File>>(2);
+		runs.add(new ArrayList<File>());
+		runs.add(new ArrayList<File>());
+		return runs;
+	}
+
+	private static void addRuns(List<List<File>> runs, List<List<File>> later) {
+		runs.get(0).addAll(later.get(0));
+		runs.get(1).addAll(later.get(1));
+	}
+
+	private class SpillTask extends RecursiveTask<List<List<File>>> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final List<TraceChunk> chunks;
+		private final int from;
+		private final int to;
+		private final ExecutorService decompressor;
+
+		SpillTask(List<TraceChunk> chunks, int from, int to, ExecutorService decompressor) {
+			this.chunks = chunks;
+			this.from = from;
+			this.to = to;
+			this.decompressor = decompressor;
+		}
+
+		@Override
+		protected List<List<File>> compute() {
+			if (to - from == 1) {
+				return spillChunk(chunks.get(from), from, decompressor);
+			}
+
+			int mid = (from + to) >>> 1;
+			SpillTask right = new SpillTask(chunks, mid, to, decompressor);
+			right.fork();
+			List<List<File>> left = new SpillTask(chunks, from, mid, decompressor).compute();
+
+			// Left covers the earlier chunks, so the runs of right follow
+			addRuns(left, right.join());
+
+			return left;
+		}
+	}
+}
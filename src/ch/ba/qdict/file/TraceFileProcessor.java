@@ -1,166 +1,399 @@
 package ch.ba.qdict.file;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
-import java.util.concurrent.TimeUnit;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
 
-import ch.ba.qdict.graph.QueryGraph;
-import ch.ba.qdict.graph.TPProcessor;
+import ch.ba.qdict.graph.CSRGraph;
+import ch.ba.qdict.graph.GraphBuilder;
+import ch.ba.qdict.graph.VertexCodec;
+import ch.ba.qdict.graph.VertexTable;
+import ch.ba.qdict.metrics.Phase;
+import ch.ba.qdict.metrics.RunMetrics;
 
 public class TraceFileProcessor {
-	
-	public static QueryGraph<String> createLookupTraceGraph(String traceFilesPath, int traceWeight,
-			int nodeAffinityWeight, int noNodes, String dataset, int noQueries, int queryIdMin) {
-		
-		System.out.println("Processing Query Trace Files...");
-		
-		long traceReadStartTime = System.nanoTime();
 
-		QueryGraph<String> traceGraph = new QueryGraph<String>(noQueries, true);
-		System.out.println("\tQueryGraph properties: " + traceGraph.getProperties());
-		int noTraces = 0;
-		
-		// Adding node vertices to query graph; ensures that they are the first noNodes entries in the traceGraph entrySet
-		for(int i = 0; i < noNodes; i++) {
-			traceGraph.addVertex(Integer.toString(i));
-		}
+	// Trace files larger than this are split into chunks that can be ingested in parallel
+	private static final long CHUNK_SIZE = 64L << 20;
+
+	/**
+	 * Build the lookup graph and the dictionary graph in a single pass over the trace folder.
+	 *
+	 * @param sharedGraph
+	 *            Whether all ingest threads add to the same concurrent graphs instead of merging partial graphs; the
+	 *            vertex order then depends on thread timing
+	 * @param window
+	 *            Window of the trace files that are read and decay of their trace weights
+	 * @return Trace graphs; a graph without usable traces is null
+	 */
+	public static TraceGraphs createTraceGraphs(String traceFilesPath, int traceWeight, int nodeAffinityWeight,
+			int noNodes, String dataset, int noQueries, int queryIdMin, int ingestThreads, int decompressThreads,
+			boolean sharedGraph, TraceWindow window) {
+
+		TraceIngestion ingestion = new TraceIngestion(true, true, traceWeight, nodeAffinityWeight, noNodes, noQueries,
+				queryIdMin);
+		return ingest(ingestion, traceFilesPath, noNodes, dataset, ingestThreads, decompressThreads, sharedGraph,
+				window);
+	}
+
+	/**
+	 * Incremental variant of {@link #createTraceGraphs}: continue the graphs of the last committed state with the
+	 * traces of new trace files and of lines appended to known trace files. All traces are read again if there is no
+	 * usable state, the parameters changed, or a known trace file was removed, changed other than by appending or left
+	 * the trace window. With a decaying window, the weights of the continued graphs decay by the time the newest trace
+	 * file advanced since the previous state.
+	 * <p>
+	 * The returned graphs carry the manifest of the new generation; it is committed with
+	 * {@link TraceStateStore#commit(TraceManifest)} once the new state is saved.
+	 *
+	 * @return Trace graphs; a graph without usable traces is null
+	 */
+	public static TraceGraphs updateTraceGraphs(String traceFilesPath, int traceWeight, int nodeAffinityWeight,
+			int noNodes, String dataset, int noQueries, int queryIdMin, int ingestThreads, int decompressThreads,
+			TraceWindow window, TraceStateStore store, long generation) {
 
+		System.out.println("Processing Query Trace Files (incremental)...");
+
+		Phase phase = RunMetrics.startPhase("trace-read", dataset);
+
+		TraceIngestion ingestion = new TraceIngestion(true, true, traceWeight, nodeAffinityWeight, noNodes, noQueries,
+				queryIdMin);
+		String parameters = traceWeight + " " + nodeAffinityWeight + " " + noNodes + " " + noQueries + " " + queryIdMin;
+		if (!window.isAll()) {
+			parameters += " " + window.getParameters();
+		}
 		File tracesFolder = new File(traceFilesPath + dataset + "/" + noNodes + "_nodes/");
-		System.out.println("\tTraces folder: " + tracesFolder.getAbsolutePath());
-		for (File traceFile : tracesFolder.listFiles()) {
+		long referenceTime = startWindow(ingestion, tracesFolder, window);
 
-			System.out.println("\tReading File: " + traceFile.getName());
+		TraceManifest manifest = new TraceManifest(generation, parameters);
+		manifest.setReferenceTime(referenceTime);
+		TraceManifest previous = store.loadManifest();
 
-			BufferedReader in = null;
-			try {
-				in = new BufferedReader(new FileReader(traceFile));
-
-				String line = "";
-				while ((line = in.readLine()) != null) {
-
-					// Trace format: queryId sourceTP destinationTP queryType
-					// queryType = forwarding/redirecting
-					String[] trace = line.split(" ");
-					int query = Integer.parseInt(trace[0]);
-					String source = trace[1];
-					String dest = trace[2];
-					
-					// Adding source-dest Edge (sum weights if edge already exists)
-					traceGraph.addEdge(source, dest, query - queryIdMin, traceWeight, true);
-					
-					// Adding source-node Edge (don't sum weights if edge already exists)
-					traceGraph.addEdge(source, Integer.toString(TPProcessor.getNodeNumber(source, noNodes)), query - queryIdMin, nodeAffinityWeight, false);
-					
-					// Adding dest-node Edge (don't sum weights if edge already exists)
-					traceGraph.addEdge(dest, Integer.toString(TPProcessor.getNodeNumber(dest, noNodes)), query - queryIdMin, nodeAffinityWeight, false);
-					
-					noTraces++;
-				}
+		TraceGraphs graphs = null;
+		if (previous == null) {
+			System.out.println("\tNo previous state found.");
+		} else if (!previous.getParameters().equals(parameters)) {
+			System.out.println("\tParameters changed since the previous state.");
+		} else {
+			List<TraceChunk> chunks = listNewChunks(tracesFolder, previous, manifest, window, referenceTime);
+			if (chunks == null) {
+				System.out.println("\tTrace files were removed or changed since the previous state.");
+			} else {
+				CSRGraph<String> lookupGraph = store.loadGraph(TraceStateStore.LOOKUP_GRAPH, previous.getGeneration(),
+						ingestion.getLookupCodec());
+				CSRGraph<Integer> dictGraph = store.loadGraph(TraceStateStore.DICT_GRAPH, previous.getGeneration(),
+						VertexCodec.INTEGER);
 
-			} catch (IOException e) {
-				e.printStackTrace();
-				System.exit(0);
-			} finally {
-				try {
-					if (in != null) {
-						in.close();
+				if (lookupGraph != null && dictGraph != null) {
+					System.out.println("\tContinuing state " + previous.getGeneration() + ": "
+							+ lookupGraph.getNumberOfVertices() + " lookup vertices, " + dictGraph.getNumberOfVertices()
+							+ " dictionary vertices, " + previous.getNoTraces() + " traces");
+
+					graphs = ingestion.restoreGraphs(lookupGraph, dictGraph);
+					graphs.addTraceCounts(previous.getNoTraces(), previous.getNoIgnoredDictTraces());
+
+					double decay = window.getDecay(previous.getReferenceTime(), referenceTime);
+					if (decay != 1) {
+						System.out.println("\tDecaying previous traces by " + decay);
+						graphs.decay(decay, noNodes);
 					}
-				} catch (IOException e) {
-					e.printStackTrace();
-					System.exit(0);
+					lookupGraph = null;
+					dictGraph = null;
+
+					System.out.println("\tIngest threads: " + ingestThreads);
+					phase.addBytesRead(getLength(chunks));
+					graphs.merge(ingestion.ingest(chunks, ingestThreads, decompressThreads));
+					graphs.setManifest(manifest, previous.getGeneration());
+				} else {
+					System.out.println("\tGraph snapshots of the previous state are missing.");
 				}
 			}
+		}
 
+		if (graphs == null) {
+			System.out.println("\tReading all traces.");
+			manifest = new TraceManifest(generation, parameters);
+			manifest.setReferenceTime(referenceTime);
+			List<TraceChunk> chunks = listChunks(tracesFolder, ingestThreads, manifest, window, referenceTime);
+			phase.addBytesRead(getLength(chunks));
+			graphs = ingestion.ingest(chunks, ingestThreads, decompressThreads);
+			graphs.setManifest(manifest, -1);
 		}
+		manifest.setTraceCounts(graphs.getNoTraces(), graphs.getNoIgnoredDictTraces());
+
+		return finishIngestion(graphs, phase);
+	}
 
-		long traceReadEndTime = System.nanoTime();
-		long traceReadTime = traceReadEndTime - traceReadStartTime;
+	/**
+	 * Out-of-core variant of {@link #createTraceGraphs}: only the vertices of both graphs are built in memory. A
+	 * second pass over the traces spills the edges into sorted run files in a new folder below spillPath, holding at
+	 * most about edgeMemory bytes of edges at a time.
+	 *
+	 * @return Trace graphs; the vertices of a graph without usable traces are null
+	 */
+	public static ExternalTraceGraphs createExternalTraceGraphs(String traceFilesPath, int traceWeight,
+			int nodeAffinityWeight, int noNodes, String dataset, int noQueries, int queryIdMin, int ingestThreads,
+			int decompressThreads, TraceWindow window, String spillPath, long edgeMemory) {
 
-		System.out.println("\tProcessed traces: " + noTraces);
-		System.out.println("\tExecution time: " + TimeUnit.MILLISECONDS.convert(traceReadTime, TimeUnit.NANOSECONDS)
-				+ " ms");
+		System.out.println("Processing Query Trace Files (out-of-core)...");
 
-		if (traceGraph.isEmpty()) {
-			System.err.println("WARNING! No usable traces found.");
-			return null;
+		Phase phase = RunMetrics.startPhase("trace-read", dataset);
+
+		// First pass: vertices and query weights, in the same vertex order as an in-memory ingestion
+		TraceIngestion ingestion = new TraceIngestion(true, true, false, traceWeight, nodeAffinityWeight, noNodes,
+				noQueries, queryIdMin);
+		File tracesFolder = new File(traceFilesPath + dataset + "/" + noNodes + "_nodes/");
+		long referenceTime = startWindow(ingestion, tracesFolder, window);
+		List<TraceChunk> chunks = listChunks(tracesFolder, ingestThreads, null, window, referenceTime);
+		phase.addBytesRead(getLength(chunks));
+		TraceGraphs graphs = finishIngestion(ingestion.ingest(chunks, ingestThreads, decompressThreads), phase);
+
+		VertexTable<String> lookupVertices = null;
+		if (graphs.getLookupGraph() != null) {
+			lookupVertices = graphs.getLookupGraph().freezeVertices();
+		}
+		VertexTable<Integer> dictVertices = null;
+		if (graphs.getDictGraph() != null) {
+			dictVertices = graphs.getDictGraph().freezeVertices();
+		}
+
+		// Second pass: edges
+		System.out.println("Spilling Trace Graph Edges...");
+
+		Phase spillPhase = RunMetrics.startPhase("edge-spill", dataset);
+
+		File spillFolder = null;
+		try {
+			spillFolder = Files.createTempDirectory(new File(spillPath).toPath(), "qt-spill_" + dataset + "_").toFile();
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.exit(0);
+		}
+		long spillerMemory = edgeMemory / (2L * Math.max(1, ingestThreads));
+		System.out.println("\tSpill folder: " + spillFolder.getAbsolutePath());
+		System.out.println("\tEdge memory per chunk: " + spillerMemory + " bytes");
+
+		TraceEdgeSpilling spilling = new TraceEdgeSpilling(lookupVertices, dictVertices, ingestion.getLookupCodec(),
+				traceWeight, nodeAffinityWeight, noNodes, window, referenceTime, spillFolder, spillerMemory);
+		List<List<File>> runs = spilling.spill(chunks, ingestThreads, decompressThreads);
+
+		long runBytes = 0;
+		for (List<File> graphRuns : runs) {
+			for (File run : graphRuns) {
+				runBytes += run.length();
+			}
 		}
-		
-		return traceGraph;
+		spillPhase.addBytesRead(getLength(chunks));
+		spillPhase.addBytesWritten(runBytes);
+		spillPhase.addLines(graphs.getNoTraces());
+		long spillTime = spillPhase.end();
+
+		System.out.println("\tRun files (Lookup): " + runs.get(0).size());
+		System.out.println("\tRun files (Dictionary): " + runs.get(1).size());
+		System.out.println("\tRun size: " + runBytes + " bytes");
+		System.out.println("\tExecution time: " + spillTime + " ms");
+
+		return new ExternalTraceGraphs(lookupVertices, dictVertices, runs.get(0), runs.get(1), spillFolder,
+				graphs.getNoTraces(), graphs.getNoIgnoredDictTraces());
+	}
+
+	public static GraphBuilder<String> createLookupTraceGraph(String traceFilesPath, int traceWeight,
+			int nodeAffinityWeight, int noNodes, String dataset, int noQueries, int queryIdMin, int ingestThreads,
+			int decompressThreads) {
+
+		TraceIngestion ingestion = new TraceIngestion(true, false, traceWeight, nodeAffinityWeight, noNodes, noQueries,
+				queryIdMin);
+		return ingest(ingestion, traceFilesPath, noNodes, dataset, ingestThreads, decompressThreads, false,
+				TraceWindow.ALL).getLookupGraph();
 	}
-	
-	public static QueryGraph<Integer> createDictTraceGraph(String traceFilesPath, int traceWeight, 
-			int noNodes, String dataset, int noQueries, int queryIdMin) {
+
+	public static GraphBuilder<Integer> createDictTraceGraph(String traceFilesPath, int traceWeight,
+			int noNodes, String dataset, int noQueries, int queryIdMin, int ingestThreads, int decompressThreads) {
+
+		TraceIngestion ingestion = new TraceIngestion(false, true, traceWeight, 0, noNodes, noQueries, queryIdMin);
+		return ingest(ingestion, traceFilesPath, noNodes, dataset, ingestThreads, decompressThreads, false,
+				TraceWindow.ALL).getDictGraph();
+	}
+
+	private static TraceGraphs ingest(TraceIngestion ingestion, String traceFilesPath, int noNodes, String dataset,
+			int ingestThreads, int decompressThreads, boolean sharedGraph, TraceWindow window) {
 
 		System.out.println("Processing Query Trace Files...");
-		
-		long traceReadStartTime = System.nanoTime();
 
-		QueryGraph<Integer> traceGraph = new QueryGraph<Integer>(noQueries, true);
-		System.out.println("\tQueryGraph properties: " + traceGraph.getProperties());
-		int noTraces = 0;
-		int noIgnoredTraces = 0;
+		Phase phase = RunMetrics.startPhase("trace-read", dataset);
+
+		TraceGraphs graphs = ingestion.createGraphs();
+		GraphBuilder<?> anyGraph = graphs.getLookupGraph() != null ? graphs.getLookupGraph() : graphs.getDictGraph();
+		System.out.println("\tQueryGraph properties: " + anyGraph.getProperties());
 
 		File tracesFolder = new File(traceFilesPath + dataset + "/" + noNodes + "_nodes/");
+		long referenceTime = startWindow(ingestion, tracesFolder, window);
+		List<TraceChunk> chunks = listChunks(tracesFolder, ingestThreads, null, window, referenceTime);
+		phase.addBytesRead(getLength(chunks));
+		if (sharedGraph) {
+			System.out.println("\tShared graph: true");
+			graphs = ingestion.ingestShared(chunks, ingestThreads, decompressThreads);
+		} else {
+			graphs = ingestion.ingest(chunks, ingestThreads, decompressThreads);
+		}
+
+		return finishIngestion(graphs, phase);
+	}
+
+	/**
+	 * @return Chunks of all trace files of the dataset, for other passes over the traces
+	 */
+	public static List<TraceChunk> listTraceChunks(String traceFilesPath, int noNodes, String dataset, int threads) {
+		File tracesFolder = new File(traceFilesPath + dataset + "/" + noNodes + "_nodes/");
+		return listChunks(tracesFolder, threads, null, TraceWindow.ALL, 0);
+	}
+
+	/**
+	 * Let the ingestion decay trace weights from the newest trace file of the folder on.
+	 *
+	 * @return Reference time of the window, 0 if all traces are read undecayed
+	 */
+	private static long startWindow(TraceIngestion ingestion, File tracesFolder, TraceWindow window) {
+		if (window.isAll()) {
+			return 0;
+		}
+		long referenceTime = TraceWindow.getReferenceTime(tracesFolder.listFiles());
+		System.out.println("\tTrace " + window + ", reference time: " + referenceTime);
+		ingestion.setTraceWindow(window, referenceTime);
+		return referenceTime;
+	}
+
+	/**
+	 * Print statistics and drop graphs without usable traces.
+	 */
+	private static TraceGraphs finishIngestion(TraceGraphs graphs, Phase phase) {
+
+		phase.addLines(graphs.getNoTraces());
+		if (graphs.getLookupGraph() != null) {
+			phase.setGraphSize(graphs.getLookupGraph().getNumberOfVertices(), graphs.getLookupGraph().getNumberOfEdges());
+		} else if (graphs.getDictGraph() != null) {
+			phase.setGraphSize(graphs.getDictGraph().getNumberOfVertices(), graphs.getDictGraph().getNumberOfEdges());
+		}
+		long traceReadTime = phase.end();
+
+		System.out.println("\tProcessed traces: " + graphs.getNoTraces());
+		if (graphs.getDictGraph() != null) {
+			System.out.println("\tIgnored Traces (Dictionary): " + graphs.getNoIgnoredDictTraces());
+			System.out.println("\tUsed Traces (Dictionary): " + (graphs.getNoTraces() - graphs.getNoIgnoredDictTraces()));
+		}
+		System.out.println("\tExecution time: " + traceReadTime + " ms");
+
+		if (graphs.getLookupGraph() != null && graphs.getLookupGraph().isEmpty()) {
+			System.err.println("WARNING! No usable traces found for the lookup graph.");
+			graphs.setLookupGraph(null);
+		}
+		if (graphs.getDictGraph() != null && graphs.getDictGraph().isEmpty()) {
+			System.err.println("WARNING! No usable traces found for the dictionary graph.");
+			graphs.setDictGraph(null);
+		}
+
+		return graphs;
+	}
+
+	/**
+	 * @param manifest
+	 *            If not null, every trace file that is read is added to it
+	 */
+	private static List<TraceChunk> listChunks(File tracesFolder, int ingestThreads, TraceManifest manifest,
+			TraceWindow window, long referenceTime) {
+
 		System.out.println("\tTraces folder: " + tracesFolder.getAbsolutePath());
-		for (File traceFile : tracesFolder.listFiles()) {
+		System.out.println("\tIngest threads: " + ingestThreads);
 
+		List<TraceChunk> chunks = new ArrayList<TraceChunk>();
+		for (File traceFile : tracesFolder.listFiles()) {
+			if (!window.contains(TraceWindow.getTimestamp(traceFile), referenceTime)) {
+				System.out.println("\tSkipping File: " + traceFile.getName() + " (outside trace window)");
+				continue;
+			}
 			System.out.println("\tReading File: " + traceFile.getName());
-
-			BufferedReader in = null;
 			try {
-				in = new BufferedReader(new FileReader(traceFile));
-
-				String line = "";
-				while ((line = in.readLine()) != null) {
-
-					// Trace format: queryId sourceTP destinationTP queryType
-					// queryType = forwarding/redirecting
-					String[] trace = line.split(" ");
-					int query = Integer.parseInt(trace[0]);
-					int source = TPProcessor.getSigId(trace[1]);
-					int dest = TPProcessor.getSigId(trace[2]);
-					
-					if (source != dest) { // Only add Edge if it crosses SigId boundary
-						// Adding source-dest Edge (sum weights if edge already exists)
-						traceGraph.addEdge(source, dest, query - queryIdMin, traceWeight, true);
-						noTraces++;
-					} else {
-						noIgnoredTraces++;
-					}
+				if (manifest != null) {
+					manifest.addFile(traceFile);
 				}
-
+				chunks.addAll(TraceChunk.split(traceFile, CHUNK_SIZE));
 			} catch (IOException e) {
 				e.printStackTrace();
 				System.exit(0);
-			} finally {
-				try {
-					if (in != null) {
-						in.close();
+			}
+		}
+
+		return chunks;
+	}
+
+	/**
+	 * List the chunks of new trace files and of lines appended to known trace files, and add all trace files inside
+	 * the window to the manifest of the new generation.
+	 *
+	 * @return Chunks not covered by the previous manifest, or null if a known trace file was removed, changed other
+	 *         than by appending whole lines or left the window
+	 */
+	private static List<TraceChunk> listNewChunks(File tracesFolder, TraceManifest previous, TraceManifest manifest,
+			TraceWindow window, long referenceTime) {
+
+		System.out.println("\tTraces folder: " + tracesFolder.getAbsolutePath());
+
+		List<TraceChunk> chunks = new ArrayList<TraceChunk>();
+		int noUnchangedFiles = 0;
+		try {
+			for (File traceFile : tracesFolder.listFiles()) {
+				String name = traceFile.getName();
+				long previousLength = previous.getLength(name);
+				if (!window.contains(TraceWindow.getTimestamp(traceFile), referenceTime)) {
+					if (previousLength >= 0) {
+						System.out.println("\tTrace file " + name + " left the trace window.");
+						return null;
 					}
-				} catch (IOException e) {
-					e.printStackTrace();
-					System.exit(0);
+					System.out.println("\tSkipping File: " + name + " (outside trace window)");
+					continue;
 				}
-			}
+				manifest.addFile(traceFile);
 
+				if (previousLength < 0) {
+					System.out.println("\tReading File: " + name);
+					chunks.addAll(TraceChunk.split(traceFile, CHUNK_SIZE));
+					continue;
+				}
+
+				if (traceFile.length() == previousLength && traceFile.lastModified() == previous.getLastModified(name)) {
+					noUnchangedFiles++;
+					continue;
+				}
+				if (traceFile.length() > previousLength && TraceChunk.isLineStart(traceFile, previousLength)) {
+					System.out.println("\tReading File: " + name + " from byte " + previousLength);
+					chunks.addAll(TraceChunk.split(traceFile, previousLength, CHUNK_SIZE));
+					continue;
+				}
+				return null;
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.exit(0);
 		}
 
-		long traceReadEndTime = System.nanoTime();
-		long traceReadTime = traceReadEndTime - traceReadStartTime;
+		// Every known file must still exist
+		for (String name : previous.getFileNames()) {
+			if (!manifest.containsFile(name)) {
+				return null;
+			}
+		}
+		System.out.println("\tUnchanged files: " + noUnchangedFiles);
 
-		System.out.println("\tIgnored Traces: " + noIgnoredTraces);
-		System.out.println("\tUsed Traces: " + noTraces);
-		System.out.println("\tTotal Processed Traces: " + (noTraces + noIgnoredTraces));
-		System.out.println("\tExecution time: " + TimeUnit.MILLISECONDS.convert(traceReadTime, TimeUnit.NANOSECONDS)
-				+ " ms");
+		return chunks;
+	}
 
-		if (traceGraph.isEmpty()) {
-			System.err.println("WARNING! No usable traces found.");
-			return null;
+	private static long getLength(List<TraceChunk> chunks) {
+		long length = 0;
+		for (TraceChunk chunk : chunks) {
+			length += chunk.getLength();
 		}
-		
-		return traceGraph;
+		return length;
 	}
 }
@@ -0,0 +1,117 @@
+package ch.ba.qdict.file;
+
+import ch.ba.qdict.graph.GraphBuilder;
+import ch.ba.qdict.graph.QueryGraph;
+
+/**
+ * Trace graphs built from one pass over a trace folder: the TriplePattern lookup graph and the significant ID
+ * dictionary graph. A graph that was not requested is null.
+ * <p>
+ * Graphs are {@link QueryGraph}s, unless they were built by a shared ingestion.
+ */
+public class TraceGraphs {
+
+	private GraphBuilder<String> lookupGraph;
+	private GraphBuilder<Integer> dictGraph;
+
+	private long noTraces;
+	private long noIgnoredDictTraces;
+
+	// Incremental mode: manifest of the traces in these graphs and the generation the graphs were continued from
+	private TraceManifest manifest;
+	private long previousGeneration = -1;
+
+	TraceGraphs(GraphBuilder<String> lookupGraph, GraphBuilder<Integer> dictGraph) {
+		this.lookupGraph = lookupGraph;
+		this.dictGraph = dictGraph;
+	}
+
+	public GraphBuilder<String> getLookupGraph() {
+		return lookupGraph;
+	}
+
+	public GraphBuilder<Integer> getDictGraph() {
+		return dictGraph;
+	}
+
+	/**
+	 * @return Number of trace lines read
+	 */
+	public long getNoTraces() {
+		return noTraces;
+	}
+
+	/**
+	 * @return Number of traces not added to the dictionary graph because they don't cross a significant ID boundary
+	 */
+	public long getNoIgnoredDictTraces() {
+		return noIgnoredDictTraces;
+	}
+
+	public TraceManifest getManifest() {
+		return manifest;
+	}
+
+	/**
+	 * @return Generation of the state the graphs were continued from, or -1 if they were built from all traces
+	 */
+	public long getPreviousGeneration() {
+		return previousGeneration;
+	}
+
+	void setManifest(TraceManifest manifest, long previousGeneration) {
+		this.manifest = manifest;
+		this.previousGeneration = previousGeneration;
+	}
+
+	void addTraceCounts(long noTraces, long noIgnoredDictTraces) {
+		this.noTraces += noTraces;
+		this.noIgnoredDictTraces += noIgnoredDictTraces;
+	}
+
+	void countTrace(boolean ignoredByDict) {
+		noTraces++;
+		if (ignoredByDict) {
+			noIgnoredDictTraces++;
+		}
+	}
+
+	void setLookupGraph(GraphBuilder<String> lookupGraph) {
+		this.lookupGraph = lookupGraph;
+	}
+
+	void setDictGraph(GraphBuilder<Integer> dictGraph) {
+		this.dictGraph = dictGraph;
+	}
+
+	/**
+	 * Decay the trace edge weights of both graphs, which must be {@link QueryGraph}s.
+	 *
+	 * @param noNodes
+	 *            Number of node vertices the lookup graph starts with
+	 */
+	void decay(double factor, int noNodes) {
+		if (lookupGraph != null) {
+			((QueryGraph<String>) lookupGraph).decay(factor, noNodes);
+		}
+		if (dictGraph != null) {
+			((QueryGraph<Integer>) dictGraph).decay(factor, 0);
+		}
+	}
+
+	/**
+	 * Merge graphs built from the traces following the traces of these graphs. Both must hold {@link QueryGraph}s.
+	 */
+	void merge(TraceGraphs later) {
+		if (lookupGraph != null) {
+			((QueryGraph<String>) lookupGraph).merge((QueryGraph<String>) later.lookupGraph);
+			later.lookupGraph.clear();
+		}
+		if (dictGraph != null) {
+			((QueryGraph<Integer>) dictGraph).merge((QueryGraph<Integer>) later.dictGraph);
+			later.dictGraph.clear();
+		}
+		noTraces += later.noTraces;
+		noIgnoredDictTraces += later.noIgnoredDictTraces;
+	}
+}
@@ -0,0 +1,339 @@
+package ch.ba.qdict.file;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import ch.ba.qdict.graph.CSRGraph;
+import ch.ba.qdict.graph.ConcurrentQueryGraph;
+import ch.ba.qdict.graph.GraphBuilder;
+import ch.ba.qdict.graph.QueryGraph;
+import ch.ba.qdict.graph.TPProcessor;
+import ch.ba.qdict.graph.TriplePatternCodec;
+import ch.ba.qdict.graph.VertexCodec;
+
+/**
+ * Builds the lookup and/or dictionary trace graphs from a list of trace chunks, reading every trace line once. Chunks
+ * are read either sequentially or on a fork-join pool.
+ * <p>
+ * In parallel mode every leaf task parses one chunk into its own partial graphs and partial graphs are merged pairwise
+ * in chunk order, so the result is identical to sequential ingestion. In shared mode all leaf tasks add their chunks to
+ * the same {@link ConcurrentQueryGraph}s instead; nothing is merged, but vertex ids depend on thread timing.
+ */
+class TraceIngestion {
+
+	private final boolean buildLookupGraph;
+	private final boolean buildDictGraph;
+
+	// False: only vertices and query weights are added, edges are aggregated by TraceEdgeSpilling
+	private final boolean buildEdges;
+
+	private final int traceWeight;
+	private final int nodeAffinityWeight;
+	private final int noNodes;
+	private final int noQueries;
+	private final int queryIdMin;
+
+	// Partial graphs of a parallel ingestion must share their codec
+	private final TriplePatternCodec lookupCodec = new TriplePatternCodec();
+
+	// Trace weights of a chunk decay with the age of its trace file
+	private TraceWindow window = TraceWindow.ALL;
+	private long referenceTime;
+
+	TraceIngestion(boolean buildLookupGraph, boolean buildDictGraph, int traceWeight, int nodeAffinityWeight,
+			int noNodes, int noQueries, int queryIdMin) {
+		this(buildLookupGraph, buildDictGraph, true, traceWeight, nodeAffinityWeight, noNodes, noQueries, queryIdMin);
+	}
+
+	TraceIngestion(boolean buildLookupGraph, boolean buildDictGraph, boolean buildEdges, int traceWeight,
+			int nodeAffinityWeight, int noNodes, int noQueries, int queryIdMin) {
+		this.buildLookupGraph = buildLookupGraph;
+		this.buildDictGraph = buildDictGraph;
+		this.buildEdges = buildEdges;
+		this.traceWeight = traceWeight;
+		this.nodeAffinityWeight = nodeAffinityWeight;
+		this.noNodes = noNodes;
+		this.noQueries = noQueries;
+		this.queryIdMin = queryIdMin;
+	}
+
+	/**
+	 * @return Empty graphs that traces are added to
+	 */
+	TraceGraphs createGraphs() {
+		return createGraphs(false);
+	}
+
+	/**
+	 * @param shared
+	 *            Whether the graphs are {@link ConcurrentQueryGraph}s
+	 */
+	private TraceGraphs createGraphs(boolean shared) {
+		GraphBuilder<String> lookupGraph = null;
+		if (buildLookupGraph) {
+			lookupGraph = shared ? new ConcurrentQueryGraph<String>(noQueries, true, lookupCodec)
+					: new QueryGraph<String>(noQueries, true, lookupCodec);
+
+			// Adding node vertices to query graph; ensures that they are the first noNodes entries in the traceGraph entrySet
+			for(int i = 0; i < noNodes; i++) {
+				lookupGraph.addVertexByKey(lookupCodec.encodeNode(i));
+			}
+		}
+
+		GraphBuilder<Integer> dictGraph = null;
+		if (buildDictGraph) {
+			dictGraph = shared ? new ConcurrentQueryGraph<Integer>(noQueries, true, VertexCodec.INTEGER)
+					: new QueryGraph<Integer>(noQueries, true, VertexCodec.INTEGER);
+		}
+
+		return new TraceGraphs(lookupGraph, dictGraph);
+	}
+
+	TriplePatternCodec getLookupCodec() {
+		return lookupCodec;
+	}
+
+	/**
+	 * Decay the trace weights of the chunks read from now on by the age of their trace files.
+	 *
+	 * @param referenceTime
+	 *            Time ages are measured from
+	 */
+	void setTraceWindow(TraceWindow window, long referenceTime) {
+		this.window = window;
+		this.referenceTime = referenceTime;
+	}
+
+	/**
+	 * @return Graphs containing the restored graphs, which must be encoded with the codecs of this ingestion
+	 */
+	TraceGraphs restoreGraphs(CSRGraph<String> lookupGraph, CSRGraph<Integer> dictGraph) {
+		TraceGraphs graphs = createGraphs();
+		if (buildLookupGraph) {
+			((QueryGraph<String>) graphs.getLookupGraph()).add(lookupGraph);
+		}
+		if (buildDictGraph) {
+			((QueryGraph<Integer>) graphs.getDictGraph()).add(dictGraph);
+		}
+		return graphs;
+	}
+
+	/**
+	 * Add the current trace line to the graphs.
+	 *
+	 * @param traceWeight
+	 *            Weight the trace adds to its source-dest edge
+	 */
+	void addTrace(TraceGraphs graphs, TraceLineParser trace, int traceWeight) {
+
+		// Trace format: queryId sourceTP destinationTP queryType
+		// queryType = forwarding/redirecting
+		int query = trace.getQueryId() - queryIdMin;
+		int sourceSigId = trace.getSourceSigId();
+		int destSigId = trace.getDestSigId();
+
+		if (buildLookupGraph) {
+			GraphBuilder<String> traceGraph = graphs.getLookupGraph();
+			long source = lookupCodec.encode(trace.getSourceSubject(), trace.getSourcePredicate(), trace.getSourceObject());
+			long dest = lookupCodec.encode(trace.getDestSubject(), trace.getDestPredicate(), trace.getDestObject());
+
+			long sourceNode = lookupCodec.encodeNode(TPProcessor.getNodeNumber(sourceSigId, noNodes));
+			long destNode = lookupCodec.encodeNode(TPProcessor.getNodeNumber(destSigId, noNodes));
+
+			if (buildEdges) {
+				// Adding source-dest Edge (sum weights if edge already exists)
+				traceGraph.addEdgeByKey(source, dest, query, traceWeight, true);
+
+				// Adding source-node Edge (don't sum weights if edge already exists)
+				traceGraph.addEdgeByKey(source, sourceNode, query, nodeAffinityWeight, false);
+
+				// Adding dest-node Edge (don't sum weights if edge already exists)
+				traceGraph.addEdgeByKey(dest, destNode, query, nodeAffinityWeight, false);
+			} else {
+				traceGraph.addVerticesByKey(source, dest, query);
+				traceGraph.addVerticesByKey(source, sourceNode, query);
+				traceGraph.addVerticesByKey(dest, destNode, query);
+			}
+		}
+
+		boolean ignoredByDict = (sourceSigId == destSigId);
+		if (buildDictGraph && !ignoredByDict) { // Only add Edge if it crosses SigId boundary
+			// Adding source-dest Edge (sum weights if edge already exists)
+			if (buildEdges) {
+				graphs.getDictGraph().addEdgeByKey(sourceSigId, destSigId, query, traceWeight, true);
+			} else {
+				graphs.getDictGraph().addVerticesByKey(sourceSigId, destSigId, query);
+			}
+		}
+
+		graphs.countTrace(ignoredByDict);
+	}
+
+	/**
+	 * @param decompressThreads
+	 *            Worker threads decompressing compressed chunks, in addition to the ingest threads
+	 */
+	TraceGraphs ingest(List<TraceChunk> chunks, int ingestThreads, int decompressThreads) {
+
+		ExecutorService decompressor = TraceChunk.createDecompressor(chunks, decompressThreads);
+		try {
+			if (ingestThreads <= 1 || chunks.size() <= 1) {
+				TraceGraphs graphs = createGraphs();
+				for (TraceChunk chunk : chunks) {
+					readChunk(chunk, graphs, decompressor);
+				}
+				return graphs;
+			}
+
+			ForkJoinPool pool = new ForkJoinPool(ingestThreads);
+			try {
+				return pool.invoke(new IngestTask(chunks, 0, chunks.size(), decompressor));
+			} finally {
+				pool.shutdown();
+			}
+		} finally {
+			if (decompressor != null) {
+				decompressor.shutdownNow();
+			}
+		}
+	}
+
+	/**
+	 * Shared variant of {@link #ingest}: all ingest threads add their chunks to the same graphs.
+	 */
+	TraceGraphs ingestShared(List<TraceChunk> chunks, int ingestThreads, int decompressThreads) {
+
+		TraceGraphs graphs = createGraphs(true);
+
+		ExecutorService decompressor = TraceChunk.createDecompressor(chunks, decompressThreads);
+		try {
+			if (ingestThreads <= 1 || chunks.size() <= 1) {
+				for (TraceChunk chunk : chunks) {
+					readChunk(chunk, graphs, decompressor);
+				}
+				return graphs;
+			}
+
+			ForkJoinPool pool = new ForkJoinPool(ingestThreads);
+			try {
+				TraceGraphs counts = pool.invoke(new SharedIngestTask(chunks, 0, chunks.size(), graphs, decompressor));
+				graphs.addTraceCounts(counts.getNoTraces(), counts.getNoIgnoredDictTraces());
+				return graphs;
+			} finally {
+				pool.shutdown();
+			}
+		} finally {
+			if (decompressor != null) {
+				decompressor.shutdownNow();
+			}
+		}
+	}
+
+	private void readChunk(TraceChunk chunk, TraceGraphs graphs, ExecutorService decompressor) {
+
+		TraceLineReader in = null;
+		try {
+			in = chunk.open(decompressor);
+
+			int chunkTraceWeight = window.getTraceWeight(traceWeight, chunk, referenceTime);
+			TraceLineParser trace = new TraceLineParser();
+			while (in.next(trace)) {
+				addTrace(graphs, trace, chunkTraceWeight);
+			}
+
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.exit(0);
+		} finally {
+			try {
+				if (in != null) {
+					in.close();
+				}
+			} catch (IOException e) {
+				e.printStackTrace();
+				System.exit(0);
+			}
+		}
+	}
+
+	private class IngestTask extends RecursiveTask<TraceGraphs> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final List<TraceChunk> chunks;
+		private final int from;
+		private final int to;
+		private final ExecutorService decompressor;
+
+		IngestTask(List<TraceChunk> chunks, int from, int to, ExecutorService decompressor) {
+			this.chunks = chunks;
+			this.from = from;
+			this.to = to;
+			this.decompressor = decompressor;
+		}
+
+		@Override
+		protected TraceGraphs compute() {
+			if (to - from == 1) {
+				TraceGraphs graphs = createGraphs();
+				readChunk(chunks.get(from), graphs, decompressor);
+				return graphs;
+			}
+
+			int mid = (from + to) >>> 1;
+			IngestTask right = new IngestTask(chunks, mid, to, decompressor);
+			right.fork();
+			TraceGraphs left = new IngestTask(chunks, from, mid, decompressor).compute();
+
+			// Left covers the earlier chunks, so right is merged into left
+			left.merge(right.join());
+
+			return left;
+		}
+	}
+
+	private class SharedIngestTask extends RecursiveTask<TraceGraphs> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final List<TraceChunk> chunks;
+		private final int from;
+		private final int to;
+		private final TraceGraphs shared;
+		private final ExecutorService decompressor;
+
+		SharedIngestTask(List<TraceChunk> chunks, int from, int to, TraceGraphs shared, ExecutorService decompressor) {
+			this.chunks = chunks;
+			this.from = from;
+			this.to = to;
+			this.shared = shared;
+			this.decompressor = decompressor;
+		}
+
+		/**
+		 * @return Graphs with the shared graphs and the trace counts of the chunks
+		 */
+		@Override
+		protected TraceGraphs compute() {
+			if (to - from == 1) {
+				// Trace counts aren't thread-safe, so every chunk counts in its own view of the shared graphs
+				TraceGraphs view = new TraceGraphs(shared.getLookupGraph(), shared.getDictGraph());
+				readChunk(chunks.get(from), view, decompressor);
+				return view;
+			}
+
+			int mid = (from + to) >>> 1;
+			SharedIngestTask right = new SharedIngestTask(chunks, mid, to, shared, decompressor);
+			right.fork();
+			TraceGraphs left = new SharedIngestTask(chunks, from, mid, shared, decompressor).compute();
+
+			TraceGraphs rightCounts = right.join();
+			left.addTraceCounts(rightCounts.getNoTraces(), rightCounts.getNoIgnoredDictTraces());
+
+			return left;
+		}
+	}
+}
@@ -0,0 +1,170 @@
+package ch.ba.qdict.file;
+
+import java.nio.charset.StandardCharsets;
+
+import ch.ba.qdict.graph.TPProcessor;
+
+/**
+ * Parses trace lines directly from bytes without allocating.
+ * <p>
+ * Trace format: queryId sourceTP destinationTP queryType, where a TriplePattern is written as (subject,predicate,object).
+ * The parser keeps the values of the last parsed line; it is meant to be reused for every line of a chunk.
+ */
+public class TraceLineParser {
+
+	private byte[] line;
+	private int from;
+	private int to;
+	private int pos;
+
+	private int queryId;
+
+	private int sourceSubject;
+	private int sourcePredicate;
+	private int sourceObject;
+	private int sourceStart;
+	private int sourceEnd;
+
+	private int destSubject;
+	private int destPredicate;
+	private int destObject;
+	private int destStart;
+	private int destEnd;
+
+	/**
+	 * Parse the line in line[from, to), without line terminator.
+	 *
+	 * @throws NumberFormatException
+	 *             If the line is not a valid trace
+	 */
+	public void parse(byte[] line, int from, int to) {
+		this.line = line;
+		this.from = from;
+		this.to = to;
+		this.pos = from;
+
+		queryId = parseInt();
+		skipSpace();
+
+		sourceStart = pos;
+		skipTo('(');
+		sourceSubject = parseInt();
+		skipTo(',');
+		sourcePredicate = parseInt();
+		skipTo(',');
+		sourceObject = parseInt();
+		skipTo(')');
+		sourceEnd = pos;
+		skipSpace();
+
+		destStart = pos;
+		skipTo('(');
+		destSubject = parseInt();
+		skipTo(',');
+		destPredicate = parseInt();
+		skipTo(',');
+		destObject = parseInt();
+		skipTo(')');
+		destEnd = pos;
+	}
+
+	public int getQueryId() {
+		return queryId;
+	}
+
+	public int getSourceSubject() {
+		return sourceSubject;
+	}
+
+	public int getSourcePredicate() {
+		return sourcePredicate;
+	}
+
+	public int getSourceObject() {
+		return sourceObject;
+	}
+
+	public int getDestSubject() {
+		return destSubject;
+	}
+
+	public int getDestPredicate() {
+		return destPredicate;
+	}
+
+	public int getDestObject() {
+		return destObject;
+	}
+
+	public int getSourceSigId() {
+		return TPProcessor.getSigId(sourceSubject, sourcePredicate, sourceObject);
+	}
+
+	public int getDestSigId() {
+		return TPProcessor.getSigId(destSubject, destPredicate, destObject);
+	}
+
+	/**
+	 * @return Source TriplePattern as it appears in the trace. Allocates a new String.
+	 */
+	public String getSourceTP() {
+		return new String(line, sourceStart, sourceEnd - sourceStart, StandardCharsets.ISO_8859_1);
+	}
+
+	/**
+	 * @return Destination TriplePattern as it appears in the trace. Allocates a new String.
+	 */
+	public String getDestTP() {
+		return new String(line, destStart, destEnd - destStart, StandardCharsets.ISO_8859_1);
+	}
+
+	private int parseInt() {
+		boolean negative = false;
+		if (pos < to && line[pos] == '-') {
+			negative = true;
+			pos++;
+		}
+
+		// Out of range IDs are malformed, as with Integer.parseInt
+		long limit = negative ? -(long) Integer.MIN_VALUE : Integer.MAX_VALUE;
+		int start = pos;
+		long value = 0;
+		while (pos < to && line[pos] >= '0' && line[pos] <= '9') {
+			value = value * 10 + (line[pos++] - '0');
+			if (value > limit) {
+				throw malformed();
+			}
+		}
+
+		if (pos == start) {
+			throw malformed();
+		}
+
+		return (int) (negative ? -value : value);
+	}
+
+	private void skipSpace() {
+		if (pos >= to || line[pos] != ' ') {
+			throw malformed();
+		}
+		pos++;
+	}
+
+	/**
+	 * Move past the next occurrence of c.
+	 */
+	private void skipTo(char c) {
+		while (pos < to && line[pos] != c) {
+			pos++;
+		}
+		if (pos == to) {
+			throw malformed();
+		}
+		pos++;
+	}
+
+	private NumberFormatException malformed() {
+		return new NumberFormatException("Malformed trace: \"" + new String(line, from, to - from, StandardCharsets.ISO_8859_1)
+				+ "\"");
+	}
+}
@@ -0,0 +1,17 @@
+package ch.ba.qdict.file;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Reads the lines of a {@link TraceChunk} and hands them to a {@link TraceLineParser}.
+ */
+public interface TraceLineReader extends Closeable {
+
+	/**
+	 * Parse the next line of the chunk.
+	 *
+	 * @return False if there are no more lines in the chunk
+	 */
+	boolean next(TraceLineParser parser) throws IOException;
+}
@@ -0,0 +1,171 @@
+package ch.ba.qdict.file;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Trace files (name, length, last modification) and trace counts an aggregated trace graph was built from, together
+ * with the generation of the stored graph state and the ingestion parameters.
+ */
+public class TraceManifest {
+
+	private static final String HEADER = "qt-manifest 1";
+
+	private final long generation;
+	private final String parameters;
+
+	private long noTraces;
+	private long noIgnoredDictTraces;
+
+	// Time the trace weights of the graph were decayed to, see TraceWindow
+	private long referenceTime;
+
+	// File name -> {length, last modified}
+	private final Map<String, long[]> files = new LinkedHashMap<String, long[]>();
+
+	/**
+	 * @param parameters
+	 *            Ingestion parameters; state built with other parameters can't be continued
+	 */
+	public TraceManifest(long generation, String parameters) {
+		this.generation = generation;
+		this.parameters = parameters;
+	}
+
+	public long getGeneration() {
+		return generation;
+	}
+
+	public String getParameters() {
+		return parameters;
+	}
+
+	public long getNoTraces() {
+		return noTraces;
+	}
+
+	public long getNoIgnoredDictTraces() {
+		return noIgnoredDictTraces;
+	}
+
+	void setTraceCounts(long noTraces, long noIgnoredDictTraces) {
+		this.noTraces = noTraces;
+		this.noIgnoredDictTraces = noIgnoredDictTraces;
+	}
+
+	/**
+	 * @return Time the trace weights of the graph were decayed to
+	 */
+	long getReferenceTime() {
+		return referenceTime;
+	}
+
+	void setReferenceTime(long referenceTime) {
+		this.referenceTime = referenceTime;
+	}
+
+	void addFile(File traceFile) {
+		files.put(traceFile.getName(), new long[] { traceFile.length(), traceFile.lastModified() });
+	}
+
+	boolean containsFile(String name) {
+		return files.containsKey(name);
+	}
+
+	/**
+	 * @return Length the file had, or -1 if it is not in the manifest
+	 */
+	long getLength(String name) {
+		long[] file = files.get(name);
+		return file == null ? -1 : file[0];
+	}
+
+	long getLastModified(String name) {
+		long[] file = files.get(name);
+		return file == null ? -1 : file[1];
+	}
+
+	Iterable<String> getFileNames() {
+		return files.keySet();
+	}
+
+	/**
+	 * Write the manifest to a temporary file first and rename it, so a manifest is either complete or absent.
+	 */
+	public void write(File manifestFile) throws IOException {
+
+		File tmpFile = new File(manifestFile.getPath() + ".tmp");
+
+		BufferedWriter out = new BufferedWriter(new FileWriter(tmpFile));
+		try {
+			out.write(HEADER);
+			out.newLine();
+			out.write("generation " + generation);
+			out.newLine();
+			out.write("parameters " + parameters);
+			out.newLine();
+			out.write("traces " + noTraces + " " + noIgnoredDictTraces);
+			out.newLine();
+			out.write("reference " + referenceTime);
+			out.newLine();
+			for (Map.Entry<String, long[]> file : files.entrySet()) {
+				// Format: file length lastModified name
+				out.write("file " + file.getValue()[0] + " " + file.getValue()[1] + " " + file.getKey());
+				out.newLine();
+			}
+		} finally {
+			out.close();
+		}
+
+		if (!tmpFile.renameTo(manifestFile)) {
+			manifestFile.delete();
+			if (!tmpFile.renameTo(manifestFile)) {
+				throw new IOException("Could not replace manifest " + manifestFile);
+			}
+		}
+	}
+
+	/**
+	 * @return Manifest, or null if the file does not exist
+	 */
+	public static TraceManifest read(File manifestFile) throws IOException {
+
+		if (!manifestFile.exists()) {
+			return null;
+		}
+
+		BufferedReader in = new BufferedReader(new FileReader(manifestFile));
+		try {
+			String line = in.readLine();
+			if (!HEADER.equals(line)) {
+				throw new IOException("Unsupported manifest: " + manifestFile);
+			}
+			long generation = Long.parseLong(in.readLine().substring("generation ".length()));
+			String parameters = in.readLine().substring("parameters ".length());
+			TraceManifest manifest = new TraceManifest(generation, parameters);
+
+			String[] traces = in.readLine().split(" ");
+			manifest.setTraceCounts(Long.parseLong(traces[1]), Long.parseLong(traces[2]));
+
+			line = in.readLine();
+			if (line == null || !line.startsWith("reference ")) {
+				throw new IOException("Unsupported manifest: " + manifestFile);
+			}
+			manifest.setReferenceTime(Long.parseLong(line.substring("reference ".length())));
+
+			while ((line = in.readLine()) != null) {
+				String[] file = line.split(" ", 4);
+				manifest.files.put(file[3], new long[] { Long.parseLong(file[1]), Long.parseLong(file[2]) });
+			}
+			return manifest;
+		} finally {
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,126 @@
+package ch.ba.qdict.file;
+
+import java.io.File;
+import java.io.IOException;
+
+import ch.ba.qdict.graph.CSRGraph;
+import ch.ba.qdict.graph.GraphReweighting;
+import ch.ba.qdict.graph.GraphSnapshot;
+import ch.ba.qdict.graph.TriplePatternCodec;
+import ch.ba.qdict.graph.VertexCodec;
+import ch.ba.qdict.metrics.Phase;
+import ch.ba.qdict.metrics.RunMetrics;
+
+/**
+ * Snapshots of the aggregated lookup and dictionary graphs, written after ingestion and loaded instead of the traces,
+ * e.g. to try other NO_NODES, TRACE_WEIGHT and AFFINITY_WEIGHT settings. Loaded graphs are adapted to the requested
+ * settings.
+ */
+public class TraceSnapshots {
+
+	public static File getSnapshotFile(String snapshotPath, String dataset, String graphName) {
+		return new File(snapshotPath, "qt-snapshot_" + dataset + "_" + graphName + ".graph");
+	}
+
+	public static void save(CSRGraph<?> graph, int noNodeVertices, int traceWeight, int affinityWeight, File graphFile) {
+
+		System.out.println("Saving Graph Snapshot...");
+
+		Phase phase = RunMetrics.startPhase("snapshot-save", graphFile.getName());
+
+		File folder = graphFile.getAbsoluteFile().getParentFile();
+		if (folder != null) {
+			folder.mkdirs();
+		}
+		try {
+			GraphSnapshot.write(graph, noNodeVertices, traceWeight, affinityWeight, graphFile);
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.exit(0);
+		}
+
+		phase.addBytesWritten(graphFile.length());
+		phase.setGraphSize(graph.getNumberOfVertices(), graph.getNumberOfEdges());
+		long saveTime = phase.end();
+
+		System.out.println("\tFile size: " + graphFile.length() + " bytes");
+		System.out.println("\tExecution time: " + saveTime + " ms");
+	}
+
+	/**
+	 * @return Lookup graph for noNodes nodes and the given weights, or null if the snapshot can't be read
+	 */
+	public static CSRGraph<String> loadLookupGraph(File graphFile, int noNodes, int traceWeight, int affinityWeight) {
+
+		GraphSnapshot<String> snapshot = load(graphFile, new TriplePatternCodec());
+		if (snapshot == null) {
+			return null;
+		}
+
+		CSRGraph<String> graph = snapshot.getGraph();
+		int noNodeVertices = snapshot.getNoNodeVertices();
+		if (noNodeVertices != noNodes) {
+			System.out.println("\tRedistributing snapshot from " + noNodeVertices + " to " + noNodes + " nodes");
+			graph = GraphReweighting.renode(graph, noNodeVertices, noNodes, affinityWeight);
+			noNodeVertices = noNodes;
+		}
+		return reweight(graph, snapshot, noNodeVertices, traceWeight, affinityWeight);
+	}
+
+	/**
+	 * @return Dictionary graph for the given trace weight, or null if the snapshot can't be read
+	 */
+	public static CSRGraph<Integer> loadDictGraph(File graphFile, int traceWeight) {
+
+		GraphSnapshot<Integer> snapshot = load(graphFile, VertexCodec.INTEGER);
+		if (snapshot == null) {
+			return null;
+		}
+		return reweight(snapshot.getGraph(), snapshot, 0, traceWeight, snapshot.getAffinityWeight());
+	}
+
+	/**
+	 * @return Snapshot, or null if it doesn't exist or can't be read
+	 */
+	private static <T> GraphSnapshot<T> load(File graphFile, VertexCodec<T> codec) {
+
+		if (!graphFile.exists()) {
+			System.err.println("\tWARNING! Graph snapshot not found: " + graphFile);
+			return null;
+		}
+
+		System.out.println("Loading Graph Snapshot " + graphFile.getName() + "...");
+
+		Phase phase = RunMetrics.startPhase("snapshot-load", graphFile.getName());
+
+		GraphSnapshot<T> snapshot = null;
+		try {
+			snapshot = GraphSnapshot.read(graphFile, codec);
+		} catch (IOException e) {
+			System.err.println("\tWARNING! Could not read graph snapshot: " + e.getMessage());
+			phase.end();
+			return null;
+		}
+
+		phase.addBytesRead(graphFile.length());
+		phase.setGraphSize(snapshot.getGraph().getNumberOfVertices(), snapshot.getGraph().getNumberOfEdges());
+		long loadTime = phase.end();
+
+		System.out.println("\tVertices: " + snapshot.getGraph().getNumberOfVertices() + ", edges: "
+				+ snapshot.getGraph().getNumberOfEdges());
+		System.out.println("\tExecution time: " + loadTime + " ms");
+
+		return snapshot;
+	}
+
+	private static <T> CSRGraph<T> reweight(CSRGraph<T> graph, GraphSnapshot<T> snapshot, int noNodeVertices,
+			int traceWeight, int affinityWeight) {
+		if (snapshot.getTraceWeight() == traceWeight
+				&& (snapshot.getAffinityWeight() == affinityWeight || noNodeVertices == 0)) {
+			return graph;
+		}
+		System.out.println("\tReweighting snapshot to trace weight " + traceWeight
+				+ (noNodeVertices > 0 ? ", affinity weight " + affinityWeight : ""));
+		return GraphReweighting.reweight(graph, noNodeVertices, snapshot.getTraceWeight(), traceWeight, affinityWeight);
+	}
+}
@@ -0,0 +1,111 @@
+package ch.ba.qdict.file;
+
+import java.io.File;
+import java.io.IOException;
+
+import ch.ba.qdict.graph.CSRGraph;
+import ch.ba.qdict.graph.GraphSnapshot;
+import ch.ba.qdict.graph.VertexCodec;
+
+/**
+ * Files of the incremental mode in the state folder: the manifest and, per generation, snapshots of the lookup and
+ * the dictionary graph and their partitions. State files of a generation are named *.generation.*; a generation only
+ * becomes current when its manifest is committed.
+ */
+public class TraceStateStore {
+
+	public static final String LOOKUP_GRAPH = "table";
+	public static final String DICT_GRAPH = "dict";
+
+	private final File stateFolder;
+	private final String baseName;
+	private final int noNodes;
+	private final int traceWeight;
+	private final int affinityWeight;
+
+	public TraceStateStore(String statePath, String dataset, int noNodes, int traceWeight, int affinityWeight) {
+		this.stateFolder = new File(statePath);
+		this.baseName = "qt-state_" + dataset + "_" + noNodes;
+		this.noNodes = noNodes;
+		this.traceWeight = traceWeight;
+		this.affinityWeight = affinityWeight;
+	}
+
+	File getManifestFile() {
+		return new File(stateFolder, baseName + ".manifest");
+	}
+
+	File getGraphFile(String graph, long generation) {
+		return new File(stateFolder, baseName + "_" + graph + "." + generation + ".graph");
+	}
+
+	/**
+	 * @param graphName
+	 *            Name the graph was partitioned under
+	 */
+	public File getPartitionFile(String graphName, long generation) {
+		return new File(stateFolder, baseName + "_" + graphName + "." + generation + ".partition");
+	}
+
+	/**
+	 * @return Current manifest, or null if there is no usable state
+	 */
+	TraceManifest loadManifest() {
+		try {
+			return TraceManifest.read(getManifestFile());
+		} catch (IOException e) {
+			System.err.println("\tWARNING! Could not read trace manifest: " + e.getMessage());
+			return null;
+		} catch (RuntimeException e) {
+			System.err.println("\tWARNING! Could not read trace manifest: " + e);
+			return null;
+		}
+	}
+
+	/**
+	 * @return Graph of the generation, or null if it can't be read
+	 */
+	<T> CSRGraph<T> loadGraph(String graph, long generation, VertexCodec<T> codec) {
+		File graphFile = getGraphFile(graph, generation);
+		if (!graphFile.exists()) {
+			return null;
+		}
+		try {
+			return GraphSnapshot.read(graphFile, codec).getGraph();
+		} catch (IOException e) {
+			System.err.println("\tWARNING! Could not read graph snapshot: " + e.getMessage());
+			return null;
+		}
+	}
+
+	public void saveGraph(CSRGraph<?> graph, String name, long generation) {
+		int noNodeVertices = name.equals(LOOKUP_GRAPH) ? noNodes : 0;
+		TraceSnapshots.save(graph, noNodeVertices, traceWeight, affinityWeight, getGraphFile(name, generation));
+	}
+
+	/**
+	 * Make the generation of the manifest current and delete the state files of all other generations.
+	 */
+	public void commit(TraceManifest manifest) {
+
+		stateFolder.mkdirs();
+		try {
+			manifest.write(getManifestFile());
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.exit(0);
+		}
+
+		String current = "." + manifest.getGeneration() + ".";
+		File[] stateFiles = stateFolder.listFiles();
+		if (stateFiles != null) {
+			for (File stateFile : stateFiles) {
+				String name = stateFile.getName();
+				if (name.startsWith(baseName + "_") && (name.endsWith(".graph") || name.endsWith(".partition"))
+						&& !name.contains(current)) {
+					stateFile.delete();
+				}
+			}
+		}
+	}
+}
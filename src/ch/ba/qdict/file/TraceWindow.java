@@ -0,0 +1,126 @@
+package ch.ba.qdict.file;
+
+import java.io.File;
+import java.util.Calendar;
+import java.util.TimeZone;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Time window of the traces that are aggregated, and the decay of trace weights with their age.
+ * <p>
+ * Every trace file has a timestamp: the first date yyyyMMdd, optionally followed by HHmm or HHmmss, in its name (UTC),
+ * or its last modification otherwise. Ages are measured from the reference time, the timestamp of the newest trace
+ * file, so results don't depend on when the tool runs. Trace files older than the window are not read, and the trace
+ * weight halves every half-life of age.
+ */
+public class TraceWindow {
+
+	/**
+	 * All traces, none decayed.
+	 */
+	public static final TraceWindow ALL = new TraceWindow(0, 0);
+
+	private static final Pattern DATE = Pattern.compile("(?<!\\d)(\\d{8})(?:[T_-]?(\\d{6}|\\d{4}))?(?!\\d)");
+
+	private final long windowMillis;
+	private final long halfLifeMillis;
+
+	/**
+	 * @param windowMillis
+	 *            Largest age of a trace file that is still read, 0 for no window
+	 * @param halfLifeMillis
+	 *            Age at which a trace counts half, 0 for no decay
+	 */
+	public TraceWindow(long windowMillis, long halfLifeMillis) {
+		this.windowMillis = windowMillis;
+		this.halfLifeMillis = halfLifeMillis;
+	}
+
+	public boolean isAll() {
+		return windowMillis <= 0 && halfLifeMillis <= 0;
+	}
+
+	/**
+	 * @return Window and half-life, for ingestion parameters that must match between runs
+	 */
+	String getParameters() {
+		return windowMillis + " " + halfLifeMillis;
+	}
+
+	@Override
+	public String toString() {
+		return "window: " + (windowMillis > 0 ? windowMillis + " ms" : "all") + ", half-life: "
+				+ (halfLifeMillis > 0 ? halfLifeMillis + " ms" : "none");
+	}
+
+	/**
+	 * @return Whether traces of the timestamp are inside the window
+	 */
+	boolean contains(long timestamp, long referenceTime) {
+		return windowMillis <= 0 || referenceTime - timestamp <= windowMillis;
+	}
+
+	/**
+	 * @return Factor weights recorded at fromTime decay by until toTime, 1 without decay
+	 */
+	double getDecay(long fromTime, long toTime) {
+		if (halfLifeMillis <= 0 || toTime <= fromTime) {
+			return 1;
+		}
+		return Math.pow(0.5, (double) (toTime - fromTime) / halfLifeMillis);
+	}
+
+	/**
+	 * @return Decayed trace weight of traces of the timestamp, at least 1
+	 */
+	int getTraceWeight(int traceWeight, long timestamp, long referenceTime) {
+		double decay = getDecay(timestamp, referenceTime);
+		if (decay == 1 || traceWeight == 0) {
+			return traceWeight;
+		}
+		return (int) Math.max(1, Math.round(traceWeight * decay));
+	}
+
+	/**
+	 * @return Decayed trace weight of the traces of the chunk
+	 */
+	int getTraceWeight(int traceWeight, TraceChunk chunk, long referenceTime) {
+		return getTraceWeight(traceWeight, getTimestamp(chunk.getFile()), referenceTime);
+	}
+
+	/**
+	 * @return Timestamp of the trace file: the date in its name or its last modification
+	 */
+	static long getTimestamp(File traceFile) {
+		Matcher date = DATE.matcher(traceFile.getName());
+		if (date.find()) {
+			String day = date.group(1);
+			String time = date.group(2) != null ? date.group(2) + "00" : "000000";
+
+			Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+			calendar.clear();
+			calendar.setLenient(false);
+			try {
+				calendar.set(Integer.parseInt(day.substring(0, 4)), Integer.parseInt(day.substring(4, 6)) - 1,
+						Integer.parseInt(day.substring(6, 8)), Integer.parseInt(time.substring(0, 2)),
+						Integer.parseInt(time.substring(2, 4)), Integer.parseInt(time.substring(4, 6)));
+				return calendar.getTimeInMillis();
+			} catch (IllegalArgumentException e) {
+				// Not a date; fall back to the last modification
+			}
+		}
+		return traceFile.lastModified();
+	}
+
+	/**
+	 * @return Timestamp of the newest trace file, 0 if there are none
+	 */
+	static long getReferenceTime(File[] traceFiles) {
+		long referenceTime = 0;
+		for (File traceFile : traceFiles) {
+			referenceTime = Math.max(referenceTime, getTimestamp(traceFile));
+		}
+		return referenceTime;
+	}
+}
@@ -0,0 +1,393 @@
+package ch.ba.qdict.generator;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import ch.ba.qdict.metrics.Phase;
+import ch.ba.qdict.metrics.RunMetrics;
+
+/**
+ * Generates synthetic LUBM-style query traces and the matching normal-dict_ file, in the layout
+ * {@link ch.ba.qdict.TraceDictionary} reads: TRACES_PATH/dataset/noNodes_nodes/trace*.txt with lines
+ * "queryId sourceTP destTP queryType" and DICT_PATH/normal-dict_dataset.
+ * <p>
+ * IDs 1..noPredicates are predicates, the following noEntities IDs are entities; ID 0 marks unbound positions. Every
+ * query joins along its own chain of predicates. Entities are drawn from a Zipf distribution, so some TriplePatterns
+ * are hot. Reads the same parameter file as TraceDictionary, plus the GEN_ parameters.
+ */
+public class TraceGenerator {
+
+	private static final int BUFFER_SIZE = 1 << 16;
+	private static final int MIN_CHAIN_LENGTH = 2;
+	private static final int MAX_CHAIN_LENGTH = 5;
+
+	private final int queryIdMin;
+	private final int noQueries;
+	private final int noPredicates;
+	private final int noEntities;
+	private final long fileSize;
+	private final long seed;
+
+	private final ZipfSampler entitySampler;
+	private final long entityStride;
+	private final int[][] queryPredicates;
+
+	/**
+	 * @param fileSize
+	 *            Size of every trace file in bytes; files end with the first complete line after this size
+	 * @param skew
+	 *            Zipf exponent of the entity distribution, 0 for uniform
+	 */
+	public TraceGenerator(int queryIdMin, int noQueries, int noPredicates, int noEntities, long fileSize, double skew,
+			long seed) {
+		this.queryIdMin = queryIdMin;
+		this.noQueries = noQueries;
+		this.noPredicates = noPredicates;
+		this.noEntities = noEntities;
+		this.fileSize = fileSize;
+		this.seed = seed;
+
+		this.entitySampler = new ZipfSampler(noEntities, skew);
+
+		// Hot ranks are spread over the ID range by a stride coprime to the number of entities
+		long stride = Math.floorMod(0x9E3779B97F4A7C15L, (long) noEntities);
+		while (gcd(stride, noEntities) != 1) {
+			stride++;
+		}
+		this.entityStride = stride;
+
+		Random random = new Random(seed);
+		this.queryPredicates = new int[noQueries][];
+		for (int q = 0; q < noQueries; q++) {
+			int length = MIN_CHAIN_LENGTH + random.nextInt(MAX_CHAIN_LENGTH - MIN_CHAIN_LENGTH + 1);
+			queryPredicates[q] = new int[length];
+			for (int i = 0; i < length; i++) {
+				queryPredicates[q][i] = 1 + random.nextInt(noPredicates);
+			}
+		}
+	}
+
+	public static void main(String[] args) {
+
+		System.out.println("=== Trace Generator ===");
+
+		Properties params = new Properties();
+		InputStream input = null;
+
+		try {
+			input = new FileInputStream(args[0]);
+			params.load(input);
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.exit(0);
+		} finally {
+			if (input != null) {
+				try {
+					input.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+					System.exit(0);
+				}
+			}
+		}
+
+		String dataset = params.getProperty("DATASET");
+		int queryIdMin = Integer.parseInt(params.getProperty("QUERY_ID_MIN"));
+		int noQueries = Integer.parseInt(params.getProperty("NO_QUERIES"));
+		int noNodes = Integer.parseInt(params.getProperty("NO_NODES", "4"));
+		String traceFilesPath = params.getProperty("TRACES_PATH");
+		String dictFilePath = params.getProperty("DICT_PATH");
+		String outPath = params.getProperty("OUT_PATH");
+		boolean runReport = Boolean.parseBoolean(params.getProperty("RUN_REPORT", "true"));
+
+		int noPredicates = Integer.parseInt(params.getProperty("GEN_PREDICATES", "32"));
+		int noEntities = Integer.parseInt(params.getProperty("GEN_ENTITIES", "100000"));
+		double skew = Double.parseDouble(params.getProperty("GEN_SKEW", "1.0"));
+		int noFiles = Integer.parseInt(params.getProperty("GEN_FILES", "4"));
+		long fileSize = (long) (Double.parseDouble(params.getProperty("GEN_FILE_SIZE_MB", "64")) * (1 << 20));
+		long seed = Long.parseLong(params.getProperty("GEN_SEED", "1"));
+		int threads = Integer.parseInt(params.getProperty("GEN_THREADS",
+				Integer.toString(Runtime.getRuntime().availableProcessors())));
+
+		if (noQueries < 1 || noPredicates < 1 || noEntities < 1 || noFiles < 1) {
+			System.err.println("WARNING! Number of queries, predicates, entities and files must be positive. Exiting.");
+			System.exit(0);
+		}
+		if ((long) noPredicates + noEntities >= Integer.MAX_VALUE) {
+			System.err.println("WARNING! Too many predicates and entities for int IDs. Exiting.");
+			System.exit(0);
+		}
+
+		TraceGenerator generator = new TraceGenerator(queryIdMin, noQueries, noPredicates, noEntities, fileSize, skew,
+				seed);
+
+		File tracesFolder = new File(traceFilesPath + dataset + "/" + noNodes + "_nodes/");
+		generator.generateTraces(tracesFolder, noFiles, threads);
+		generator.writeDictionary(new File(dictFilePath + "normal-dict_" + dataset));
+
+		if (runReport && outPath != null) {
+			writeRunReport(params, dataset, noNodes, outPath);
+		}
+
+		System.out.println("== DONE ==");
+	}
+
+	private static void writeRunReport(Properties params, String dataset, int noNodes, String outPath) {
+
+		File reportFile = new File(outPath + "qt-report_gen_" + dataset + "_" + noNodes + ".json");
+		if (reportFile.exists()) {
+			reportFile = new File(outPath + "qt-report_gen_" + dataset + "_" + noNodes + "_" + System.currentTimeMillis()
+					+ ".json");
+		}
+		try {
+			RunMetrics.writeReport(reportFile, params);
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.exit(0);
+		}
+		System.out.println("Run Report Created: " + reportFile.getAbsolutePath());
+	}
+
+	/**
+	 * Write noFiles trace files into the folder, up to threads files at a time. File i only depends on the seed and i.
+	 */
+	public void generateTraces(File tracesFolder, int noFiles, int threads) {
+
+		System.out.println("Generating " + noFiles + " Trace Files in " + tracesFolder + "...");
+
+		Phase phase = RunMetrics.startPhase("trace-generate", tracesFolder.getName());
+
+		tracesFolder.mkdirs();
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads));
+		try {
+			List<Future<Long>> results = new ArrayList<Future<Long>>();
+			for (int i = 0; i < noFiles; i++) {
+				final File traceFile = new File(tracesFolder, "trace" + i + ".txt");
+				final int fileIndex = i;
+				results.add(executor.submit(new Callable<Long>() {
+					@Override
+					public Long call() throws IOException {
+						return generateTraceFile(traceFile, fileIndex);
+					}
+				}));
+			}
+
+			long noTraces = 0;
+			for (Future<Long> result : results) {
+				noTraces += result.get();
+			}
+			for (int i = 0; i < noFiles; i++) {
+				phase.addBytesWritten(new File(tracesFolder, "trace" + i + ".txt").length());
+			}
+
+			phase.addLines(noTraces);
+			long generateTime = phase.end();
+
+			System.out.println("\t#Traces: " + noTraces);
+			System.out.println("\tExecution time: " + generateTime + " ms");
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+			System.exit(0);
+		} catch (ExecutionException e) {
+			e.printStackTrace();
+			System.exit(0);
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * @return Number of traces written
+	 */
+	long generateTraceFile(File traceFile, int fileIndex) throws IOException {
+
+		Random random = new Random(seed * 31 + fileIndex);
+		byte[] buffer = new byte[BUFFER_SIZE];
+		int pos = 0;
+		long written = 0;
+		long noTraces = 0;
+
+		OutputStream out = new FileOutputStream(traceFile);
+		try {
+			int[] source = new int[3];
+			int[] dest = new int[3];
+			while (written + pos < fileSize) {
+				if (pos > BUFFER_SIZE - 128) { // Longest line: 7 ints, separators and "redirecting"
+					out.write(buffer, 0, pos);
+					written += pos;
+					pos = 0;
+				}
+				int query = random.nextInt(noQueries);
+				boolean forwarding = nextStep(query, random, source, dest);
+
+				pos = appendInt(buffer, pos, queryIdMin + query);
+				buffer[pos++] = ' ';
+				pos = appendTriplePattern(buffer, pos, source);
+				buffer[pos++] = ' ';
+				pos = appendTriplePattern(buffer, pos, dest);
+				buffer[pos++] = ' ';
+				pos = appendAscii(buffer, pos, forwarding ? "forwarding" : "redirecting");
+				buffer[pos++] = '\n';
+				noTraces++;
+			}
+			out.write(buffer, 0, pos);
+		} finally {
+			out.close();
+		}
+
+		return noTraces;
+	}
+
+	/**
+	 * Pick the next exploration step of the query: from an index TriplePattern to a more specific one (forwarding)
+	 * or along a join to the next predicate of the query (redirecting).
+	 *
+	 * @return true for forwarding, false for redirecting
+	 */
+	boolean nextStep(int query, Random random, int[] source, int[] dest) {
+
+		int[] predicates = queryPredicates[query];
+		int step = random.nextInt(predicates.length);
+		int predicate = predicates[step];
+		int entity = nextEntity(random);
+		int other = nextEntity(random);
+
+		switch (random.nextInt(4)) {
+		case 0: // (0,p,0) -> (0,p,o)
+			set(source, 0, predicate, 0);
+			set(dest, 0, predicate, entity);
+			return true;
+		case 1: // (0,p,o) -> (s,p,o)
+			set(source, 0, predicate, entity);
+			set(dest, other, predicate, entity);
+			return true;
+		case 2: // (s,p,0) -> (s,p,o)
+			set(source, entity, predicate, 0);
+			set(dest, entity, predicate, other);
+			return true;
+		default: // (s,p,o) -> (o,p',0), join on o
+			set(source, other, predicate, entity);
+			set(dest, entity, predicates[(step + 1) % predicates.length], 0);
+			return false;
+		}
+	}
+
+	/**
+	 * Write the dictionary: line i holds the String of ID i.
+	 */
+	public void writeDictionary(File dictFile) {
+
+		System.out.println("Writing Dictionary " + dictFile + "...");
+
+		Phase phase = RunMetrics.startPhase("dict-generate", dictFile.getName());
+
+		File folder = dictFile.getAbsoluteFile().getParentFile();
+		if (folder != null) {
+			folder.mkdirs();
+		}
+		BufferedWriter out = null;
+		try {
+			out = new BufferedWriter(new FileWriter(dictFile), BUFFER_SIZE);
+			out.write("*"); // ID 0 marks unbound positions and is never looked up
+			out.newLine();
+			for (int p = 1; p <= noPredicates; p++) {
+				out.write("<http://swat.cse.lehigh.edu/onto/univ-bench.owl#property" + p + ">");
+				out.newLine();
+			}
+			for (int e = 0; e < noEntities; e++) {
+				out.write("<http://www.Department" + (e % 20) + ".University" + (e / 20000) + ".edu/Entity" + e + ">");
+				out.newLine();
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.exit(0);
+		} finally {
+			if (out != null) {
+				try {
+					out.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+					System.exit(0);
+				}
+			}
+		}
+
+		phase.addBytesWritten(dictFile.length());
+		phase.addLines(1 + noPredicates + noEntities);
+		long writeTime = phase.end();
+
+		System.out.println("\t#Entries: " + (1 + noPredicates + noEntities));
+		System.out.println("\tExecution time: " + writeTime + " ms");
+	}
+
+	private int nextEntity(Random random) {
+		long rank = entitySampler.sample(random) - 1;
+		return noPredicates + 1 + (int) ((rank * entityStride) % noEntities);
+	}
+
+	private static void set(int[] tp, int subject, int predicate, int object) {
+		tp[0] = subject;
+		tp[1] = predicate;
+		tp[2] = object;
+	}
+
+	private static int appendTriplePattern(byte[] buffer, int pos, int[] tp) {
+		buffer[pos++] = '(';
+		pos = appendInt(buffer, pos, tp[0]);
+		buffer[pos++] = ',';
+		pos = appendInt(buffer, pos, tp[1]);
+		buffer[pos++] = ',';
+		pos = appendInt(buffer, pos, tp[2]);
+		buffer[pos++] = ')';
+		return pos;
+	}
+
+	private static int appendInt(byte[] buffer, int pos, int value) {
+		if (value == 0) {
+			buffer[pos++] = '0';
+			return pos;
+		}
+		int start = pos;
+		while (value > 0) {
+			buffer[pos++] = (byte) ('0' + value % 10);
+			value /= 10;
+		}
+		for (int i = start, j = pos - 1; i < j; i++, j--) {
+			byte digit = buffer[i];
+			buffer[i] = buffer[j];
+			buffer[j] = digit;
+		}
+		return pos;
+	}
+
+	private static int appendAscii(byte[] buffer, int pos, String text) {
+		for (int i = 0; i < text.length(); i++) {
+			buffer[pos++] = (byte) text.charAt(i);
+		}
+		return pos;
+	}
+
+	private static long gcd(long a, long b) {
+		while (b != 0) {
+			long t = a % b;
+			a = b;
+			b = t;
+		}
+		return a;
+	}
+}
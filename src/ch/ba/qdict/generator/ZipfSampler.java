@@ -0,0 +1,88 @@
+package ch.ba.qdict.generator;
+
+import java.util.Random;
+
+/**
+ * Samples ranks 1..n with probability proportional to 1/rank^exponent in constant time and memory, by rejection
+ * inversion (Hoermann and Derflinger, "Rejection-inversion to generate variates from monotone discrete
+ * distributions"). Exponent 0 samples uniformly.
+ */
+public class ZipfSampler {
+
+	private final long n;
+	private final double exponent;
+
+	private final double hIntegralX1;
+	private final double hIntegralN;
+	private final double s;
+
+	public ZipfSampler(long n, double exponent) {
+		if (n < 1) {
+			throw new IllegalArgumentException("Number of elements must be positive: " + n);
+		}
+		if (exponent < 0) {
+			throw new IllegalArgumentException("Exponent must not be negative: " + exponent);
+		}
+		this.n = n;
+		this.exponent = exponent;
+		this.hIntegralX1 = hIntegral(1.5) - 1;
+		this.hIntegralN = hIntegral(n + 0.5);
+		this.s = 2 - hIntegralInverse(hIntegral(2.5) - h(2));
+	}
+
+	/**
+	 * @return Rank between 1 and n
+	 */
+	public long sample(Random random) {
+		while (true) {
+			double u = hIntegralN + random.nextDouble() * (hIntegralX1 - hIntegralN);
+			double x = hIntegralInverse(u);
+			long k = (long) (x + 0.5);
+			if (k < 1) {
+				k = 1;
+			} else if (k > n) {
+				k = n;
+			}
+			if (k - x <= s || u >= hIntegral(k + 0.5) - h(k)) {
+				return k;
+			}
+		}
+	}
+
+	private double h(double x) {
+		return Math.exp(-exponent * Math.log(x));
+	}
+
+	private double hIntegral(double x) {
+		double logX = Math.log(x);
+		return helper2((1 - exponent) * logX) * logX;
+	}
+
+	private double hIntegralInverse(double x) {
+		double t = x * (1 - exponent);
+		if (t < -1) {
+			t = -1;
+		}
+		return Math.exp(helper1(t) * x);
+	}
+
+	/**
+	 * @return log(1+x)/x, also for x close to 0
+	 */
+	private static double helper1(double x) {
+		if (Math.abs(x) > 1e-8) {
+			return Math.log1p(x) / x;
+		}
+		return 1 - x * (0.5 - x * (1.0 / 3 - 0.25 * x));
+	}
+
+	/**
+	 * @return (exp(x)-1)/x, also for x close to 0
+	 */
+	private static double helper2(double x) {
+		if (Math.abs(x) > 1e-8) {
+			return Math.expm1(x) / x;
+		}
+		return 1 + x * 0.5 * (1 + x * (1.0 / 3) * (1 + 0.25 * x));
+	}
+}
@@ -0,0 +1,114 @@
+package ch.ba.qdict.graph;
+
+/**
+ * Immutable trace graph in compressed sparse row layout.
+ * <p>
+ * Vertices are numbered densely from 0 in insertion order. The neighbours of vertex v are
+ * adjncy[xadj[v]] ... adjncy[xadj[v+1]-1] with the matching edge weights in adjwgt, which is the layout METIS uses.
+ */
+public class CSRGraph<T> {
+
+	private final VertexCodec<T> codec;
+	private final long[] vertexKeys;
+
+	private final int[] xadj;
+	private final int[] adjncy;
+	private final int[] adjwgt;
+
+	private final QueryBitSet queryWeights;
+
+	private final boolean isUndirectedGraph;
+
+	CSRGraph(VertexCodec<T> codec, long[] vertexKeys, int[] xadj, int[] adjncy, int[] adjwgt, QueryBitSet queryWeights,
+			boolean isUndirectedGraph) {
+		this.codec = codec;
+		this.vertexKeys = vertexKeys;
+		this.xadj = xadj;
+		this.adjncy = adjncy;
+		this.adjwgt = adjwgt;
+		this.queryWeights = queryWeights;
+		this.isUndirectedGraph = isUndirectedGraph;
+	}
+
+	public VertexCodec<T> getCodec() {
+		return codec;
+	}
+
+	public T getVertex(int vertex) {
+		return codec.decode(vertexKeys[vertex]);
+	}
+
+	/**
+	 * @return Codec key of the vertex, e.g. the significant ID for Integer vertices
+	 */
+	public long getVertexKey(int vertex) {
+		return vertexKeys[vertex];
+	}
+
+	long[] vertexKeys() {
+		return vertexKeys;
+	}
+
+	public int getNumberOfVertices() {
+		return vertexKeys.length;
+	}
+
+	public int getNumberOfEdges() {
+		if (isUndirectedGraph) {
+			return adjncy.length/2;
+		} else {
+			return adjncy.length;
+		}
+	}
+
+	public boolean isUndirectedGraph() {
+		return isUndirectedGraph;
+	}
+
+	public int getNumberOfQueries() {
+		return queryWeights.getNumberOfQueries();
+	}
+
+	/**
+	 * @return Approximate heap and off-heap size of the graph arrays, without the codec
+	 */
+	public long getSizeInBytes() {
+		long n = vertexKeys.length;
+		return 8 * n + 4 * (n + 1) + 8L * adjncy.length + 8 * n * queryWeights.getWordsPerVertex();
+	}
+
+	public int[] getXadj() {
+		return xadj;
+	}
+
+	public int[] getAdjncy() {
+		return adjncy;
+	}
+
+	public int[] getAdjwgt() {
+		return adjwgt;
+	}
+
+	/**
+	 * @return 1 if the vertex is touched by a trace of the query, 0 otherwise
+	 */
+	public int getQueryWeight(int vertex, int queryId) {
+		return queryWeights.get(vertex, queryId) ? 1 : 0;
+	}
+
+	public QueryBitSet getQueryWeights() {
+		return queryWeights;
+	}
+
+	public boolean isEmpty() {
+		return vertexKeys.length == 0;
+	}
+
+	/**
+	 * @return Vertices of the graph, sharing the vertex keys and query weights of the graph
+	 */
+	public VertexTable<T> getVertexTable() {
+		return new VertexTable<T>(codec, vertexKeys, queryWeights, getNumberOfEdges());
+	}
+
+}
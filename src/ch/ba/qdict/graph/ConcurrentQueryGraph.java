@@ -0,0 +1,266 @@
+package ch.ba.qdict.graph;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Trace graph builder that any number of threads may add traces to at the same time, so parallel ingestion needs no
+ * partial graphs and no merging.
+ * <p>
+ * Vertex ids are assigned from one counter under the lock of one of {@link #STRIPES} vertex stripes, edges are
+ * accumulated in edge tables striped by (source, dest) and query bits are set with compare-and-set on paged words.
+ * Vertices added before the threads start, like the node vertices of the lookup graph, keep their ids; the ids of all
+ * other vertices depend on the order the threads reach them. Summed edge weights don't depend on the order, but of
+ * concurrent overwrites of the same edge any one may win.
+ */
+public class ConcurrentQueryGraph<T> implements GraphBuilder<T> {
+
+	private static final int STRIPE_BITS = 6;
+	private static final int STRIPES = 1 << STRIPE_BITS;
+
+	// Vertex keys and query words are held in pages of PAGE_SIZE vertices, allocated on first use
+	private static final int PAGE_BITS = 14;
+	private static final int PAGE_SIZE = 1 << PAGE_BITS;
+	private static final int MAX_PAGES = 1 << (31 - PAGE_BITS);
+
+	private static final int INITIAL_CAPACITY = 1024;
+
+	private final VertexCodec<T> codec;
+	private final int numberOfQueries;
+	private final int wordsPerVertex;
+	private final boolean isUndirectedGraph;
+
+	private LongIntMap[] vertexIds;
+	private AtomicInteger numberOfVertices;
+	private AtomicReferenceArray<long[]> keyPages;
+	private AtomicReferenceArray<AtomicLongArray> queryPages;
+
+	private EdgeTable[] edges;
+
+	// Directed edge entries over all stripes, counted when an edge is created
+	private AtomicInteger numberOfEdgeEntries;
+
+	public ConcurrentQueryGraph(int numberOfQueries, boolean isUndirectedGraph, VertexCodec<T> codec) {
+		this.codec = codec;
+		this.numberOfQueries = numberOfQueries;
+		this.wordsPerVertex = (numberOfQueries + 63) >>> 6;
+		this.isUndirectedGraph = isUndirectedGraph;
+		clear();
+	}
+
+	@Override
+	public int addVertexByKey(long key) {
+		LongIntMap stripe = vertexIds[hash(key) & (STRIPES - 1)];
+		synchronized (stripe) {
+			int id = stripe.get(key);
+			if (id >= 0) {
+				return id;
+			}
+
+			id = numberOfVertices.getAndIncrement();
+			if (id < 0) {
+				throw new IllegalStateException("Too many vertices");
+			}
+			keyPage(id)[id & (PAGE_SIZE - 1)] = key;
+			stripe.putIfAbsent(key, id);
+			return id;
+		}
+	}
+
+	@Override
+	public void addEdgeByKey(long sourceKey, long destKey, int queryId, int weight, boolean sumWeights) {
+
+		int sourceId = addVertexByKey(sourceKey);
+		int destId = addVertexByKey(destKey);
+
+		// Update source -> dest Edge
+		addEdge(sourceId, destId, weight, sumWeights);
+
+		// Update dest -> source Edge (if it's an undirected graph)
+		if (isUndirectedGraph) {
+			addEdge(destId, sourceId, weight, sumWeights);
+		}
+
+		// Update source and dest vertex weights
+		setQueryWeight(sourceId, queryId);
+		setQueryWeight(destId, queryId);
+	}
+
+	@Override
+	public void addVerticesByKey(long sourceKey, long destKey, int queryId) {
+
+		int sourceId = addVertexByKey(sourceKey);
+		int destId = addVertexByKey(destKey);
+
+		setQueryWeight(sourceId, queryId);
+		setQueryWeight(destId, queryId);
+	}
+
+	@Override
+	public int getNumberOfVertices() {
+		return numberOfVertices.get();
+	}
+
+	@Override
+	public int getNumberOfEdges() {
+		int size = numberOfEdgeEntries.get();
+		return isUndirectedGraph ? size / 2 : size;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return numberOfVertices.get() == 0;
+	}
+
+	@Override
+	public String getProperties() {
+		return "isUnderectedGraph: " + isUndirectedGraph + ", numberOfQueries: " + numberOfQueries
+				+ ", concurrent: true";
+	}
+
+	/**
+	 * Must not be called while traces are added. Neighbours of a vertex are ordered by edge stripe, then by
+	 * insertion.
+	 */
+	@Override
+	public CSRGraph<T> freeze() {
+
+		int n = numberOfVertices.get();
+		int size = numberOfEdgeEntries.get();
+
+		int[] xadj = new int[n + 1];
+		int[] adjncy = new int[size];
+		int[] adjwgt = new int[size];
+
+		for (EdgeTable stripe : edges) {
+			for (int i = 0; i < stripe.size(); i++) {
+				xadj[stripe.getSource(i) + 1]++;
+			}
+		}
+		for (int v = 0; v < n; v++) {
+			xadj[v + 1] += xadj[v];
+		}
+
+		int[] next = new int[n];
+		System.arraycopy(xadj, 0, next, 0, n);
+		for (int s = 0; s < edges.length; s++) {
+			EdgeTable stripe = edges[s];
+			for (int i = 0; i < stripe.size(); i++) {
+				int pos = next[stripe.getSource(i)]++;
+				adjncy[pos] = stripe.getDest(i);
+				adjwgt[pos] = stripe.getWeight(i);
+			}
+			edges[s] = null;
+		}
+
+		CSRGraph<T> graph = new CSRGraph<T>(codec, getVertexKeys(n), xadj, adjncy, adjwgt, getQueryWeights(n),
+				isUndirectedGraph);
+		clear();
+
+		return graph;
+	}
+
+	/**
+	 * Must not be called while traces are added.
+	 */
+	@Override
+	public VertexTable<T> freezeVertices() {
+		int n = numberOfVertices.get();
+		VertexTable<T> vertices = new VertexTable<T>(codec, getVertexKeys(n), getQueryWeights(n), -1);
+		clear();
+
+		return vertices;
+	}
+
+	/**
+	 * Must not be called while traces are added.
+	 */
+	@Override
+	public void clear() {
+		vertexIds = new LongIntMap[STRIPES];
+		edges = new EdgeTable[STRIPES];
+		for (int i = 0; i < STRIPES; i++) {
+			vertexIds[i] = new LongIntMap(INITIAL_CAPACITY / STRIPES);
+			edges[i] = new EdgeTable(INITIAL_CAPACITY / STRIPES);
+		}
+		numberOfVertices = new AtomicInteger();
+		numberOfEdgeEntries = new AtomicInteger();
+		keyPages = new AtomicReferenceArray<long[]>(MAX_PAGES);
+		queryPages = new AtomicReferenceArray<AtomicLongArray>(MAX_PAGES);
+	}
+
+	private void addEdge(int sourceId, int destId, int weight, boolean sumWeights) {
+		EdgeTable stripe = edges[hash(((long) sourceId << 32) | (destId & 0xFFFFFFFFL)) & (STRIPES - 1)];
+		synchronized (stripe) {
+			int size = stripe.size();
+			stripe.add(sourceId, destId, weight, sumWeights);
+			if (stripe.size() > size) {
+				numberOfEdgeEntries.incrementAndGet();
+			}
+		}
+	}
+
+	private void setQueryWeight(int vertex, int queryId) {
+		if (queryId < 0 || queryId >= numberOfQueries) {
+			throw new IndexOutOfBoundsException("Query id: " + queryId + ", numberOfQueries: " + numberOfQueries);
+		}
+		AtomicLongArray page = queryPage(vertex);
+		int index = (vertex & (PAGE_SIZE - 1)) * wordsPerVertex + (queryId >>> 6);
+		long bit = 1L << queryId;
+
+		// Most bits are set already, so the word is only written if the bit is missing
+		long word = page.get(index);
+		while ((word & bit) == 0 && !page.compareAndSet(index, word, word | bit)) {
+			word = page.get(index);
+		}
+	}
+
+	private long[] keyPage(int vertex) {
+		int p = vertex >>> PAGE_BITS;
+		long[] page = keyPages.get(p);
+		if (page == null) {
+			keyPages.compareAndSet(p, null, new long[PAGE_SIZE]);
+			page = keyPages.get(p);
+		}
+		return page;
+	}
+
+	private AtomicLongArray queryPage(int vertex) {
+		int p = vertex >>> PAGE_BITS;
+		AtomicLongArray page = queryPages.get(p);
+		if (page == null) {
+			queryPages.compareAndSet(p, null, new AtomicLongArray(PAGE_SIZE * wordsPerVertex));
+			page = queryPages.get(p);
+		}
+		return page;
+	}
+
+	private long[] getVertexKeys(int n) {
+		long[] vertexKeys = new long[n];
+		for (int from = 0; from < n; from += PAGE_SIZE) {
+			System.arraycopy(keyPages.get(from >>> PAGE_BITS), 0, vertexKeys, from, Math.min(PAGE_SIZE, n - from));
+		}
+		return vertexKeys;
+	}
+
+	private QueryBitSet getQueryWeights(int n) {
+		QueryBitSet queryWeights = new QueryBitSet(numberOfQueries, n);
+		for (int v = 0; v < n; v++) {
+			AtomicLongArray page = queryPages.get(v >>> PAGE_BITS);
+			if (page == null) {
+				continue;
+			}
+			int index = (v & (PAGE_SIZE - 1)) * wordsPerVertex;
+			for (int w = 0; w < wordsPerVertex; w++) {
+				queryWeights.setWord(v, w, page.get(index + w));
+			}
+		}
+		return queryWeights;
+	}
+
+	private static int hash(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+}
@@ -0,0 +1,85 @@
+package ch.ba.qdict.graph;
+
+/**
+ * Multi-constraint vertex weights of a trace graph, as handed to the partitioner.
+ * <p>
+ * With node vertices (lookup graph), constraint 0 is 1 for the leading node vertices and 0 for all others, so node
+ * vertices get evenly partitioned over all partitions; node vertices are 0 for all other constraints. Constraint
+ * 1+q (or q without node vertices) is 1 if query q touches the vertex.
+ */
+public class ConstraintWeights {
+
+	private final VertexTable<?> vertices;
+	private final int noNodeVertices;
+
+	/**
+	 * @param noNodeVertices
+	 *            Number of leading node vertices, 0 if the graph has none
+	 */
+	public ConstraintWeights(CSRGraph<?> graph, int noNodeVertices) {
+		this(graph.getVertexTable(), noNodeVertices);
+	}
+
+	public ConstraintWeights(VertexTable<?> vertices, int noNodeVertices) {
+		this.vertices = vertices;
+		this.noNodeVertices = noNodeVertices;
+	}
+
+	public int getNumberOfConstraints() {
+		return (noNodeVertices > 0 ? 1 : 0) + vertices.getNumberOfQueries();
+	}
+
+	public int getNumberOfVertices() {
+		return vertices.getNumberOfVertices();
+	}
+
+	public int get(int vertex, int constraint) {
+		if (noNodeVertices > 0) {
+			if (constraint == 0) {
+				return vertex < noNodeVertices ? 1 : 0;
+			}
+			return vertex < noNodeVertices ? 0 : vertices.getQueryWeight(vertex, constraint - 1);
+		}
+		return vertices.getQueryWeight(vertex, constraint);
+	}
+
+	/**
+	 * @return Weights of all vertices, vertex by vertex: weight of constraint c of vertex v at v*ncon+c
+	 */
+	public int[] toArray() {
+		int ncon = getNumberOfConstraints();
+		int[] weights = new int[vertices.getNumberOfVertices() * ncon];
+		for (int v = 0; v < vertices.getNumberOfVertices(); v++) {
+			for (int c = 0; c < ncon; c++) {
+				weights[v * ncon + c] = get(v, c);
+			}
+		}
+		return weights;
+	}
+
+	/**
+	 * Write the weights of a vertex as space separated METIS columns.
+	 *
+	 * @param out
+	 *            Target buffer with room for 2 * ncon bytes after pos
+	 * @return Position after the last written column
+	 */
+	public int writeColumns(int vertex, byte[] out, int pos) {
+		QueryBitSet queryWeights = vertices.getQueryWeights();
+
+		if (noNodeVertices > 0) {
+			if (vertex < noNodeVertices) {
+				out[pos++] = '1';
+				out[pos++] = ' ';
+				for (int q = 0; q < vertices.getNumberOfQueries(); q++) {
+					out[pos++] = '0';
+					out[pos++] = ' ';
+				}
+				return pos;
+			}
+			out[pos++] = '0';
+			out[pos++] = ' ';
+		}
+		return queryWeights.writeColumns(vertex, out, pos);
+	}
+}
@@ -0,0 +1,241 @@
+package ch.ba.qdict.graph;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * K-way merge of the sorted run files of {@link EdgeSpiller}s, yielding every edge once in (source, dest) order.
+ * <p>
+ * Records of the same edge are combined in run order like {@link QueryGraph#merge}: weights are summed, unless a later
+ * run overwrote the weight, in which case its weight wins. Runs must therefore be given in the order their traces
+ * were read. More than {@link #MAX_FAN_IN} runs are first merged group by group into intermediate runs.
+ */
+public class EdgeRunMerger implements Closeable {
+
+	public static final int MAX_FAN_IN = 128;
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	// Binary min-heap of the runs with records left, ordered by edge and run order
+	private final RunCursor[] heap;
+	private int heapSize;
+
+	private final List<File> intermediateRuns = new ArrayList<File>();
+
+	private int source;
+	private int dest;
+	private int weight;
+	private boolean overwritten;
+
+	/**
+	 * @param spillFolder
+	 *            Folder for intermediate runs; they are deleted on close
+	 */
+	public EdgeRunMerger(List<File> runs, File spillFolder) throws IOException {
+
+		List<File> mergeRuns = runs;
+		int level = 0;
+		while (mergeRuns.size() > MAX_FAN_IN) {
+			List<File> merged = new ArrayList<File>();
+			for (int from = 0; from < mergeRuns.size(); from += MAX_FAN_IN) {
+				List<File> group = mergeRuns.subList(from, Math.min(mergeRuns.size(), from + MAX_FAN_IN));
+				File run = File.createTempFile("qt-merge_" + level + "_", ".run", spillFolder);
+				mergeInto(group, run, spillFolder);
+				intermediateRuns.add(run);
+				merged.add(run);
+			}
+			mergeRuns = merged;
+			level++;
+		}
+
+		heap = new RunCursor[mergeRuns.size()];
+		try {
+			for (int i = 0; i < mergeRuns.size(); i++) {
+				RunCursor cursor = new RunCursor(mergeRuns.get(i), i);
+				if (cursor.next()) {
+					push(cursor);
+				} else {
+					cursor.close();
+				}
+			}
+		} catch (IOException e) {
+			close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Move to the next edge.
+	 *
+	 * @return False if there are no more edges
+	 */
+	public boolean next() throws IOException {
+		if (heapSize == 0) {
+			return false;
+		}
+
+		RunCursor first = heap[0];
+		source = first.source;
+		dest = first.dest;
+		weight = first.weight;
+		overwritten = first.overwritten;
+		advance();
+
+		while (heapSize > 0 && heap[0].source == source && heap[0].dest == dest) {
+			RunCursor cursor = heap[0];
+			weight = cursor.overwritten ? cursor.weight : weight + cursor.weight;
+			overwritten |= cursor.overwritten;
+			advance();
+		}
+		return true;
+	}
+
+	public int getSource() {
+		return source;
+	}
+
+	public int getDest() {
+		return dest;
+	}
+
+	public int getWeight() {
+		return weight;
+	}
+
+	@Override
+	public void close() throws IOException {
+		for (int i = 0; i < heapSize; i++) {
+			heap[i].close();
+		}
+		heapSize = 0;
+		for (File run : intermediateRuns) {
+			run.delete();
+		}
+		intermediateRuns.clear();
+	}
+
+	private static void mergeInto(List<File> runs, File target, File spillFolder) throws IOException {
+		EdgeRunMerger merger = new EdgeRunMerger(runs, spillFolder);
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(target), BUFFER_SIZE));
+		try {
+			while (merger.next()) {
+				out.writeInt(merger.source);
+				out.writeInt(merger.dest);
+				out.writeInt(merger.weight);
+				out.writeByte(merger.overwritten ? 1 : 0);
+			}
+		} finally {
+			out.close();
+			merger.close();
+		}
+	}
+
+	/**
+	 * Move the cursor at the top of the heap to its next record, or remove it if it has none.
+	 */
+	private void advance() throws IOException {
+		RunCursor top = heap[0];
+		if (!top.next()) {
+			top.close();
+			heap[0] = heap[--heapSize];
+			heap[heapSize] = null;
+		}
+		if (heapSize > 0) {
+			siftDown(0);
+		}
+	}
+
+	private void push(RunCursor cursor) {
+		int i = heapSize++;
+		heap[i] = cursor;
+		while (i > 0) {
+			int parent = (i - 1) >>> 1;
+			if (!less(heap[i], heap[parent])) {
+				break;
+			}
+			swap(i, parent);
+			i = parent;
+		}
+	}
+
+	private void siftDown(int i) {
+		while (true) {
+			int smallest = i;
+			int left = 2 * i + 1;
+			int right = left + 1;
+			if (left < heapSize && less(heap[left], heap[smallest])) {
+				smallest = left;
+			}
+			if (right < heapSize && less(heap[right], heap[smallest])) {
+				smallest = right;
+			}
+			if (smallest == i) {
+				return;
+			}
+			swap(i, smallest);
+			i = smallest;
+		}
+	}
+
+	private void swap(int i, int j) {
+		RunCursor cursor = heap[i];
+		heap[i] = heap[j];
+		heap[j] = cursor;
+	}
+
+	private static boolean less(RunCursor a, RunCursor b) {
+		if (a.source != b.source) {
+			return a.source < b.source;
+		}
+		if (a.dest != b.dest) {
+			return a.dest < b.dest;
+		}
+		return a.order < b.order;
+	}
+
+	private static class RunCursor implements Closeable {
+
+		private final DataInputStream in;
+		private final int order;
+
+		private int source;
+		private int dest;
+		private int weight;
+		private boolean overwritten;
+
+		RunCursor(File run, int order) throws IOException {
+			this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(run), BUFFER_SIZE));
+			this.order = order;
+		}
+
+		/**
+		 * @return False at the end of the run
+		 */
+		boolean next() throws IOException {
+			try {
+				source = in.readInt();
+			} catch (EOFException e) {
+				return false;
+			}
+			dest = in.readInt();
+			weight = in.readInt();
+			overwritten = in.readByte() == 1;
+			return true;
+		}
+
+		@Override
+		public void close() throws IOException {
+			in.close();
+		}
+	}
+}
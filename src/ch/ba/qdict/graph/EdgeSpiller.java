@@ -0,0 +1,100 @@
+package ch.ba.qdict.graph;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Aggregates edges like the edge table of a {@link QueryGraph}, but only up to a maximum number of edges: when the
+ * table is full, its edges are written to a run file sorted by (source, dest) and the table starts over. The runs are
+ * merged by {@link EdgeRunMerger}.
+ * <p>
+ * Run format: one record per edge with source (int), dest (int), weight (int) and a byte that is 1 if the weight was
+ * overwritten at least once; all big endian.
+ */
+public class EdgeSpiller {
+
+	// Upper bound of the heap used per edge by the edge table and the sort on spilling
+	public static final int BYTES_PER_EDGE = 48;
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private final File spillFolder;
+	private final String runPrefix;
+	private final int maxEdges;
+
+	private EdgeTable edges;
+	private final List<File> runs = new ArrayList<File>();
+
+	/**
+	 * @param spillFolder
+	 *            Folder of the run files
+	 * @param runPrefix
+	 *            Prefix of the run file names; must be unique among the spillers sharing the folder
+	 * @param memoryBudget
+	 *            Heap in bytes the spiller may use for its edges
+	 */
+	public EdgeSpiller(File spillFolder, String runPrefix, long memoryBudget) {
+		this.spillFolder = spillFolder;
+		this.runPrefix = runPrefix;
+		this.maxEdges = (int) Math.max(1024, Math.min(Integer.MAX_VALUE / 4, memoryBudget / BYTES_PER_EDGE));
+		this.edges = new EdgeTable(1024);
+	}
+
+	/**
+	 * Same semantics as the edges of {@link QueryGraph#addEdgeByKey}, for vertex ids.
+	 */
+	public void add(int source, int dest, int weight, boolean sumWeights) throws IOException {
+		edges.add(source, dest, weight, sumWeights);
+		if (edges.size() >= maxEdges) {
+			spill();
+		}
+	}
+
+	/**
+	 * Write the remaining edges.
+	 *
+	 * @return Run files in the order their edges were added
+	 */
+	public List<File> finish() throws IOException {
+		if (edges.size() > 0) {
+			spill();
+		}
+		edges = null;
+		return runs;
+	}
+
+	private void spill() throws IOException {
+
+		int size = edges.size();
+		long[] keys = new long[size];
+		for (int i = 0; i < size; i++) {
+			keys[i] = ((long) edges.getSource(i) << 32) | edges.getDest(i);
+		}
+		Arrays.sort(keys);
+
+		File run = new File(spillFolder, runPrefix + "_" + runs.size() + ".run");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run), BUFFER_SIZE));
+		try {
+			for (long key : keys) {
+				int source = (int) (key >>> 32);
+				int dest = (int) key;
+				int entry = edges.indexOf(source, dest);
+				out.writeInt(source);
+				out.writeInt(dest);
+				out.writeInt(edges.getWeight(entry));
+				out.writeByte(edges.isOverwritten(entry) ? 1 : 0);
+			}
+		} finally {
+			out.close();
+		}
+		runs.add(run);
+
+		edges = new EdgeTable(1024);
+	}
+}
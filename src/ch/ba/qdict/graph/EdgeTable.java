@@ -0,0 +1,194 @@
+package ch.ba.qdict.graph;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing table of directed edges keyed on (source, dest) vertex id pairs.
+ * <p>
+ * Entries are stored in insertion order in primitive arrays, so they can be frozen into a CSR layout without boxing
+ * and without changing the neighbour order of a vertex.
+ */
+class EdgeTable {
+
+	private static final int MIN_CAPACITY = 16;
+
+	private long[] keys;
+	private int[] weights;
+	private int size;
+
+	// Set for entries whose weight was overwritten at least once; needed to merge partial tables exactly
+	private boolean[] overwritten;
+
+	// Entry index + 1 for every slot, 0 marks an empty slot
+	private int[] slots;
+	private int mask;
+
+	EdgeTable(int expectedEdges) {
+		int capacity = Math.max(MIN_CAPACITY, expectedEdges);
+		this.keys = new long[capacity];
+		this.weights = new int[capacity];
+		this.overwritten = new boolean[capacity];
+		this.slots = new int[tableSize(capacity)];
+		this.mask = slots.length - 1;
+	}
+
+	/**
+	 * Add weight to an edge, creating the edge if it does not exist yet.
+	 *
+	 * @param source
+	 *            Source vertex id
+	 * @param dest
+	 *            Destination vertex id
+	 * @param weight
+	 *            Edge weight
+	 * @param sumWeights
+	 *            Whether to add the weight to an existing edge weight or to overwrite it
+	 * @return Index of the edge entry
+	 */
+	int add(int source, int dest, int weight, boolean sumWeights) {
+		long key = key(source, dest);
+		int slot = slotOf(key);
+		int entry = slots[slot] - 1;
+
+		if (entry >= 0) {
+			weights[entry] = sumWeights ? weights[entry] + weight : weight;
+			overwritten[entry] |= !sumWeights;
+			return entry;
+		}
+
+		if (size == keys.length) {
+			keys = Arrays.copyOf(keys, size * 2);
+			weights = Arrays.copyOf(weights, size * 2);
+			overwritten = Arrays.copyOf(overwritten, size * 2);
+		}
+
+		entry = size++;
+		keys[entry] = key;
+		weights[entry] = weight;
+		overwritten[entry] = !sumWeights;
+		slots[slot] = entry + 1;
+
+		if (size > slots.length / 2) {
+			rehash(slots.length * 2);
+		}
+
+		return entry;
+	}
+
+	/**
+	 * @return Index of the edge entry, or -1 if the edge does not exist
+	 */
+	int indexOf(int source, int dest) {
+		return slots[slotOf(key(source, dest))] - 1;
+	}
+
+	int size() {
+		return size;
+	}
+
+	int getSource(int entry) {
+		return (int) (keys[entry] >>> 32);
+	}
+
+	int getDest(int entry) {
+		return (int) keys[entry];
+	}
+
+	int getWeight(int entry) {
+		return weights[entry];
+	}
+
+	boolean isOverwritten(int entry) {
+		return overwritten[entry];
+	}
+
+	/**
+	 * Scale the weights of all edges whose source and dest are not smaller than minVertex. Weights are rounded, but
+	 * stay at least 1.
+	 */
+	void scale(double factor, int minVertex) {
+		for (int i = 0; i < size; i++) {
+			if (getSource(i) >= minVertex && getDest(i) >= minVertex) {
+				weights[i] = (int) Math.max(1, Math.round(weights[i] * factor));
+			}
+		}
+	}
+
+	/**
+	 * Freeze the table into CSR arrays. Neighbours of a vertex keep their insertion order.
+	 *
+	 * @param numberOfVertices
+	 *            Number of vertices; all ids in the table must be smaller
+	 * @return Array of xadj, adjncy and adjwgt
+	 */
+	int[][] toCSR(int numberOfVertices) {
+		int[] xadj = new int[numberOfVertices + 1];
+		int[] adjncy = new int[size];
+		int[] adjwgt = new int[size];
+
+		for (int i = 0; i < size; i++) {
+			xadj[getSource(i) + 1]++;
+		}
+		for (int v = 0; v < numberOfVertices; v++) {
+			xadj[v + 1] += xadj[v];
+		}
+
+		int[] next = Arrays.copyOf(xadj, numberOfVertices);
+		for (int i = 0; i < size; i++) {
+			int pos = next[getSource(i)]++;
+			adjncy[pos] = getDest(i);
+			adjwgt[pos] = weights[i];
+		}
+
+		return new int[][] { xadj, adjncy, adjwgt };
+	}
+
+	void clear() {
+		keys = new long[MIN_CAPACITY];
+		weights = new int[MIN_CAPACITY];
+		overwritten = new boolean[MIN_CAPACITY];
+		slots = new int[tableSize(MIN_CAPACITY)];
+		mask = slots.length - 1;
+		size = 0;
+	}
+
+	private int slotOf(long key) {
+		int slot = hash(key) & mask;
+		while (true) {
+			int entry = slots[slot] - 1;
+			if (entry < 0 || keys[entry] == key) {
+				return slot;
+			}
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	private void rehash(int tableSize) {
+		slots = new int[tableSize];
+		mask = tableSize - 1;
+		for (int entry = 0; entry < size; entry++) {
+			int slot = hash(keys[entry]) & mask;
+			while (slots[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+			slots[slot] = entry + 1;
+		}
+	}
+
+	private static long key(int source, int dest) {
+		return ((long) source << 32) | (dest & 0xFFFFFFFFL);
+	}
+
+	private static int hash(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+
+	private static int tableSize(int capacity) {
+		int tableSize = MIN_CAPACITY;
+		while (tableSize < capacity * 2) {
+			tableSize <<= 1;
+		}
+		return tableSize;
+	}
+}
@@ -0,0 +1,56 @@
+package ch.ba.qdict.graph;
+
+/**
+ * Mutable trace graph that traces are added to by codec keys and that is frozen into a {@link CSRGraph} once all
+ * traces are added. {@link QueryGraph} is the single-threaded builder, {@link ConcurrentQueryGraph} may be shared by
+ * threads.
+ */
+public interface GraphBuilder<T> {
+
+	/**
+	 * Add a vertex by its codec key.
+	 *
+	 * @return Dense id of the vertex
+	 */
+	int addVertexByKey(long key);
+
+	/**
+	 * Add an edge between two vertices given by their codec keys and set the query weight of both vertices.
+	 *
+	 * @param sumWeights
+	 *            Whether to add the weight to an existing edge weight or to overwrite it
+	 */
+	void addEdgeByKey(long sourceKey, long destKey, int queryId, int weight, boolean sumWeights);
+
+	/**
+	 * Add the vertices and query weights of an edge, but not the edge itself.
+	 */
+	void addVerticesByKey(long sourceKey, long destKey, int queryId);
+
+	/**
+	 * @return Number of vertices; ids are dense, 0 to n-1 in the order the vertices were first added, so the METIS
+	 *         number of a vertex is its id + 1 and no numbering map is needed
+	 */
+	int getNumberOfVertices();
+
+	/**
+	 * @return Number of edges, counted as edges are created; both directions of an undirected edge count once
+	 */
+	int getNumberOfEdges();
+
+	boolean isEmpty();
+
+	String getProperties();
+
+	/**
+	 * Freeze the graph into a compressed sparse row representation. The builder is cleared afterwards.
+	 */
+	CSRGraph<T> freeze();
+
+	/**
+	 * Freeze only the vertices of the graph. The builder is cleared afterwards.
+	 */
+	VertexTable<T> freezeVertices();
+
+	void clear();
+}
@@ -0,0 +1,138 @@
+package ch.ba.qdict.graph;
+
+/**
+ * Derive trace graphs for other weight and node settings from an aggregated graph, so settings can be tried without
+ * reading the traces again.
+ * <p>
+ * Trace edges sum the trace weight once per trace, so their weight is a multiple of the trace weight. Edges between a
+ * TriplePattern and a node vertex carry the affinity weight.
+ */
+public class GraphReweighting {
+
+	/**
+	 * @param noNodeVertices
+	 *            Number of node vertices the graph starts with; edges touching them are affinity edges
+	 * @param oldTraceWeight
+	 *            Trace weight the graph was built with
+	 * @return Graph with the same vertices and edges, sharing all arrays but the edge weights
+	 */
+	public static <T> CSRGraph<T> reweight(CSRGraph<T> graph, int noNodeVertices, int oldTraceWeight, int traceWeight,
+			int affinityWeight) {
+
+		if (oldTraceWeight == 0 && traceWeight != 0) {
+			throw new IllegalArgumentException("Graph was built with trace weight 0; trace counts can't be restored");
+		}
+
+		int n = graph.getNumberOfVertices();
+		int[] xadj = graph.getXadj();
+		int[] adjncy = graph.getAdjncy();
+		int[] adjwgt = graph.getAdjwgt();
+
+		int[] newAdjwgt = new int[adjwgt.length];
+		for (int v = 0; v < n; v++) {
+			for (int e = xadj[v]; e < xadj[v + 1]; e++) {
+				if (v < noNodeVertices || adjncy[e] < noNodeVertices) {
+					newAdjwgt[e] = affinityWeight;
+				} else if (traceWeight != 0) {
+					// Decayed trace weights (see TraceWindow) aren't multiples of the trace weight; rounded like
+					// EdgeTable.scale, so no edge loses its weight
+					newAdjwgt[e] = (int) Math.max(1, Math.round((double) adjwgt[e] * traceWeight / oldTraceWeight));
+				}
+			}
+		}
+
+		return new CSRGraph<T>(graph.getCodec(), graph.vertexKeys(), xadj, adjncy, newAdjwgt, graph.getQueryWeights(),
+				graph.isUndirectedGraph());
+	}
+
+	/**
+	 * Distribute a lookup graph over a different number of nodes: the node vertices are replaced and every
+	 * TriplePattern gets its affinity edge to its natural node for the new number of nodes. TriplePatterns keep their
+	 * order after the node vertices, trace edges are unchanged.
+	 *
+	 * @param graph
+	 *            Lookup graph encoded with a {@link TriplePatternCodec}, starting with oldNoNodes node vertices
+	 */
+	public static CSRGraph<String> renode(CSRGraph<String> graph, int oldNoNodes, int noNodes, int affinityWeight) {
+
+		TriplePatternCodec codec = (TriplePatternCodec) graph.getCodec();
+		int n = graph.getNumberOfVertices();
+		int[] xadj = graph.getXadj();
+		int[] adjncy = graph.getAdjncy();
+		int[] adjwgt = graph.getAdjwgt();
+		QueryBitSet queryWeights = graph.getQueryWeights();
+
+		for (int v = 0; v < oldNoNodes; v++) {
+			if (!codec.isNode(graph.getVertexKey(v))) {
+				throw new IllegalArgumentException("Graph does not start with " + oldNoNodes + " node vertices");
+			}
+		}
+
+		int offset = noNodes - oldNoNodes;
+		int newN = n + offset;
+
+		// Natural node and new degree of every TriplePattern; degree of every node vertex
+		int[] natNode = new int[n];
+		int[] degree = new int[newN];
+		for (int v = oldNoNodes; v < n; v++) {
+			natNode[v] = TPProcessor.getNodeNumber(codec.getSigId(graph.getVertexKey(v)), noNodes);
+			boolean hasAffinity = false;
+			for (int e = xadj[v]; e < xadj[v + 1]; e++) {
+				if (adjncy[e] >= oldNoNodes) {
+					degree[v + offset]++;
+				} else {
+					hasAffinity = true;
+				}
+			}
+			if (hasAffinity) {
+				degree[v + offset]++;
+				degree[natNode[v]]++;
+			}
+		}
+
+		int[] newXadj = new int[newN + 1];
+		for (int v = 0; v < newN; v++) {
+			newXadj[v + 1] = newXadj[v] + degree[v];
+		}
+		int[] newAdjncy = new int[newXadj[newN]];
+		int[] newAdjwgt = new int[newXadj[newN]];
+		int[] fill = new int[noNodes];
+		for (int node = 0; node < noNodes; node++) {
+			fill[node] = newXadj[node];
+		}
+
+		long[] vertexKeys = new long[newN];
+		QueryBitSet newQueryWeights = new QueryBitSet(graph.getNumberOfQueries(), newN);
+		for (int node = 0; node < noNodes; node++) {
+			vertexKeys[node] = codec.encodeNode(node);
+		}
+
+		for (int v = oldNoNodes; v < n; v++) {
+			int newV = v + offset;
+			vertexKeys[newV] = graph.getVertexKey(v);
+			newQueryWeights.or(newV, queryWeights, v);
+
+			// The affinity edge takes the place of the old one
+			int pos = newXadj[newV];
+			boolean hasAffinity = false;
+			for (int e = xadj[v]; e < xadj[v + 1]; e++) {
+				if (adjncy[e] >= oldNoNodes) {
+					newAdjncy[pos] = adjncy[e] + offset;
+					newAdjwgt[pos++] = adjwgt[e];
+				} else if (!hasAffinity) {
+					hasAffinity = true;
+					newAdjncy[pos] = natNode[v];
+					newAdjwgt[pos++] = affinityWeight;
+
+					int node = natNode[v];
+					newAdjncy[fill[node]] = newV;
+					newAdjwgt[fill[node]++] = affinityWeight;
+					newQueryWeights.or(node, queryWeights, v);
+				}
+			}
+		}
+
+		return new CSRGraph<String>(codec, vertexKeys, newXadj, newAdjncy, newAdjwgt, newQueryWeights,
+				graph.isUndirectedGraph());
+	}
+}
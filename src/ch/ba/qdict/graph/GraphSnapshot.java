@@ -0,0 +1,294 @@
+package ch.ba.qdict.graph;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Versioned binary snapshot of a {@link CSRGraph}, so an aggregated trace graph can be kept between runs.
+ * <p>
+ * Layout (little endian, sections aligned to 8 bytes):
+ * <ul>
+ * <li>Header: magic, version, flags, key size, number of queries, number of vertices, number of adjacencies, number of
+ * node vertices, trace weight, affinity weight, words per vertex and the offsets of the five sections</li>
+ * <li>Vertex table: fixed size keys written by {@link VertexCodec#writeKey(long, ByteBuffer)}</li>
+ * <li>xadj, adjncy, adjwgt as int arrays</li>
+ * <li>Query bits: words per vertex longs for every vertex</li>
+ * </ul>
+ * Sections are read through memory mapped windows with bulk copies. Vertex keys are re-encoded, so a snapshot can be
+ * read with a different codec instance, e.g. the codec of a new ingestion. Vertex ids and neighbour order are
+ * preserved. The weights the graph was built with are kept, so the graph can be reweighted with
+ * {@link GraphReweighting}.
+ */
+public class GraphSnapshot<T> {
+
+	private static final int MAGIC = 0x51544753; // QTGS
+	private static final int VERSION = 2;
+	private static final int HEADER_SIZE = 96;
+
+	private static final int FLAG_UNDIRECTED = 1;
+
+	private static final int BUFFER_SIZE = 1 << 20;
+	private static final int MAP_WINDOW = 1 << 30;
+
+	private final CSRGraph<T> graph;
+	private final int noNodeVertices;
+	private final int traceWeight;
+	private final int affinityWeight;
+
+	private GraphSnapshot(CSRGraph<T> graph, int noNodeVertices, int traceWeight, int affinityWeight) {
+		this.graph = graph;
+		this.noNodeVertices = noNodeVertices;
+		this.traceWeight = traceWeight;
+		this.affinityWeight = affinityWeight;
+	}
+
+	public CSRGraph<T> getGraph() {
+		return graph;
+	}
+
+	/**
+	 * @return Number of node vertices at the start of the vertex table, 0 for the dictionary graph
+	 */
+	public int getNoNodeVertices() {
+		return noNodeVertices;
+	}
+
+	public int getTraceWeight() {
+		return traceWeight;
+	}
+
+	public int getAffinityWeight() {
+		return affinityWeight;
+	}
+
+	/**
+	 * @param noNodeVertices
+	 *            Number of node vertices the graph starts with
+	 * @param traceWeight
+	 *            Weight every trace added to the trace edges
+	 * @param affinityWeight
+	 *            Weight of the edges between TriplePatterns and node vertices
+	 */
+	public static void write(CSRGraph<?> graph, int noNodeVertices, int traceWeight, int affinityWeight, File file)
+			throws IOException {
+
+		int n = graph.getNumberOfVertices();
+		int[] xadj = graph.getXadj();
+		int[] adjncy = graph.getAdjncy();
+		int[] adjwgt = graph.getAdjwgt();
+		QueryBitSet queryWeights = graph.getQueryWeights();
+		VertexCodec<?> codec = graph.getCodec();
+		int keySize = codec.getKeySize();
+		int wordsPerVertex = queryWeights.getWordsPerVertex();
+
+		long keysOffset = HEADER_SIZE;
+		long xadjOffset = align(keysOffset + (long) n * keySize);
+		long adjncyOffset = align(xadjOffset + 4L * (n + 1));
+		long adjwgtOffset = align(adjncyOffset + 4L * adjncy.length);
+		long bitsOffset = align(adjwgtOffset + 4L * adjwgt.length);
+
+		RandomAccessFile out = new RandomAccessFile(file, "rw");
+		try {
+			out.setLength(0);
+			Output output = new Output(out.getChannel());
+
+			output.putInt(MAGIC);
+			output.putInt(VERSION);
+			output.putInt(graph.isUndirectedGraph() ? FLAG_UNDIRECTED : 0);
+			output.putInt(keySize);
+			output.putInt(graph.getNumberOfQueries());
+			output.putInt(n);
+			output.putLong(adjncy.length);
+			output.putInt(noNodeVertices);
+			output.putInt(traceWeight);
+			output.putInt(affinityWeight);
+			output.putInt(wordsPerVertex);
+			output.putLong(keysOffset);
+			output.putLong(xadjOffset);
+			output.putLong(adjncyOffset);
+			output.putLong(adjwgtOffset);
+			output.putLong(bitsOffset);
+			output.padTo(keysOffset);
+
+			for (int v = 0; v < n; v++) {
+				codec.writeKey(graph.getVertexKey(v), output.reserve(keySize));
+			}
+			output.padTo(xadjOffset);
+			output.putInts(xadj);
+			output.padTo(adjncyOffset);
+			output.putInts(adjncy);
+			output.padTo(adjwgtOffset);
+			output.putInts(adjwgt);
+			output.padTo(bitsOffset);
+			output.putWords(queryWeights, (long) n * wordsPerVertex);
+			output.flush();
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * @param codec
+	 *            Codec the vertex keys are encoded with
+	 */
+	public static <T> GraphSnapshot<T> read(File file, VertexCodec<T> codec) throws IOException {
+
+		RandomAccessFile in = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = in.getChannel();
+			if (channel.size() < HEADER_SIZE) {
+				throw new IOException("Not a graph snapshot: " + file);
+			}
+			ByteBuffer header = map(channel, 0, HEADER_SIZE);
+			if (header.getInt() != MAGIC) {
+				throw new IOException("Not a graph snapshot: " + file);
+			}
+			int version = header.getInt();
+			if (version != VERSION) {
+				throw new IOException("Unsupported graph snapshot version " + version + ": " + file);
+			}
+			boolean isUndirectedGraph = (header.getInt() & FLAG_UNDIRECTED) != 0;
+			int keySize = header.getInt();
+			int numberOfQueries = header.getInt();
+			int n = header.getInt();
+			long noAdjacencies = header.getLong();
+			int noNodeVertices = header.getInt();
+			int traceWeight = header.getInt();
+			int affinityWeight = header.getInt();
+			int wordsPerVertex = header.getInt();
+			long keysOffset = header.getLong();
+			long xadjOffset = header.getLong();
+			long adjncyOffset = header.getLong();
+			long adjwgtOffset = header.getLong();
+			long bitsOffset = header.getLong();
+
+			if (keySize != codec.getKeySize()) {
+				throw new IOException("Graph snapshot was written by a different vertex codec: " + file);
+			}
+			if (noAdjacencies > Integer.MAX_VALUE || channel.size() < bitsOffset + 8L * n * wordsPerVertex) {
+				throw new IOException("Truncated graph snapshot: " + file);
+			}
+
+			long[] vertexKeys = new long[n];
+			int keysPerWindow = MAP_WINDOW / keySize;
+			for (int from = 0; from < n; from += keysPerWindow) {
+				int to = Math.min(n, from + keysPerWindow);
+				ByteBuffer keys = map(channel, keysOffset + (long) from * keySize, (long) (to - from) * keySize);
+				for (int v = from; v < to; v++) {
+					vertexKeys[v] = codec.readKey(keys);
+				}
+			}
+
+			int[] xadj = readInts(channel, xadjOffset, n + 1);
+			int[] adjncy = readInts(channel, adjncyOffset, (int) noAdjacencies);
+			int[] adjwgt = readInts(channel, adjwgtOffset, (int) noAdjacencies);
+
+			QueryBitSet queryWeights = new QueryBitSet(numberOfQueries, n);
+			if (queryWeights.getWordsPerVertex() != wordsPerVertex) {
+				throw new IOException("Inconsistent query bits in graph snapshot: " + file);
+			}
+			long noWords = (long) n * wordsPerVertex;
+			int wordsPerWindow = MAP_WINDOW / 8;
+			for (long from = 0; from < noWords; from += wordsPerWindow) {
+				long count = Math.min(noWords - from, wordsPerWindow);
+				queryWeights.putWords(from, map(channel, bitsOffset + 8L * from, 8L * count).asLongBuffer());
+			}
+
+			CSRGraph<T> graph = new CSRGraph<T>(codec, vertexKeys, xadj, adjncy, adjwgt, queryWeights, isUndirectedGraph);
+			return new GraphSnapshot<T>(graph, noNodeVertices, traceWeight, affinityWeight);
+		} finally {
+			in.close();
+		}
+	}
+
+	private static long align(long offset) {
+		return (offset + 7) & ~7L;
+	}
+
+	private static MappedByteBuffer map(FileChannel channel, long offset, long size) throws IOException {
+		MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, offset, size);
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		return buffer;
+	}
+
+	private static int[] readInts(FileChannel channel, long offset, int length) throws IOException {
+		int[] values = new int[length];
+		int intsPerWindow = MAP_WINDOW / 4;
+		for (int from = 0; from < length; from += intsPerWindow) {
+			int count = Math.min(length - from, intsPerWindow);
+			map(channel, offset + 4L * from, 4L * count).asIntBuffer().get(values, from, count);
+		}
+		return values;
+	}
+
+	/**
+	 * Buffered little endian writer on a file channel.
+	 */
+	private static class Output {
+
+		private final FileChannel channel;
+		private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		private long position;
+
+		Output(FileChannel channel) {
+			this.channel = channel;
+		}
+
+		/**
+		 * @return Buffer with at least size bytes remaining
+		 */
+		ByteBuffer reserve(int size) throws IOException {
+			if (buffer.remaining() < size) {
+				flush();
+			}
+			return buffer;
+		}
+
+		void putInt(int value) throws IOException {
+			reserve(4).putInt(value);
+		}
+
+		void putLong(long value) throws IOException {
+			reserve(8).putLong(value);
+		}
+
+		void padTo(long offset) throws IOException {
+			while (position + buffer.position() < offset) {
+				reserve(1).put((byte) 0);
+			}
+		}
+
+		void putInts(int[] values) throws IOException {
+			for (int from = 0; from < values.length;) {
+				int count = Math.min(values.length - from, reserve(4).remaining() / 4);
+				buffer.asIntBuffer().put(values, from, count);
+				buffer.position(buffer.position() + 4 * count);
+				from += count;
+			}
+		}
+
+		void putWords(QueryBitSet queryWeights, long noWords) throws IOException {
+			for (long from = 0; from < noWords;) {
+				int count = (int) Math.min(noWords - from, reserve(8).remaining() / 8);
+				LongBuffer target = buffer.asLongBuffer();
+				queryWeights.getWords(from, count, target);
+				buffer.position(buffer.position() + 8 * count);
+				from += count;
+			}
+		}
+
+		void flush() throws IOException {
+			buffer.flip();
+			while (buffer.hasRemaining()) {
+				position += channel.write(buffer);
+			}
+			buffer.clear();
+		}
+	}
+}
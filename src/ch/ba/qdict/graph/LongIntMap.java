@@ -0,0 +1,98 @@
+package ch.ba.qdict.graph;
+
+/**
+ * Open-addressing map from long keys to non-negative int values.
+ */
+class LongIntMap {
+
+	private static final int MIN_CAPACITY = 16;
+
+	private long[] keys;
+	private int[] values;
+	private boolean[] used;
+	private int size;
+	private int mask;
+
+	LongIntMap(int expectedSize) {
+		allocate(tableSize(expectedSize));
+	}
+
+	/**
+	 * @return Value for the key, or -1 if the key is not in the map
+	 */
+	int get(long key) {
+		int slot = slotOf(key);
+		return used[slot] ? values[slot] : -1;
+	}
+
+	/**
+	 * @return Existing value for the key, or -1 if the value was added
+	 */
+	int putIfAbsent(long key, int value) {
+		int slot = slotOf(key);
+		if (used[slot]) {
+			return values[slot];
+		}
+
+		keys[slot] = key;
+		values[slot] = value;
+		used[slot] = true;
+		if (++size > keys.length / 2) {
+			rehash(keys.length * 2);
+		}
+		return -1;
+	}
+
+	int size() {
+		return size;
+	}
+
+	void clear() {
+		allocate(MIN_CAPACITY);
+		size = 0;
+	}
+
+	private int slotOf(long key) {
+		int slot = hash(key) & mask;
+		while (used[slot] && keys[slot] != key) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	private void rehash(int tableSize) {
+		long[] oldKeys = keys;
+		int[] oldValues = values;
+		boolean[] oldUsed = used;
+
+		allocate(tableSize);
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldUsed[i]) {
+				int slot = slotOf(oldKeys[i]);
+				keys[slot] = oldKeys[i];
+				values[slot] = oldValues[i];
+				used[slot] = true;
+			}
+		}
+	}
+
+	private void allocate(int tableSize) {
+		keys = new long[tableSize];
+		values = new int[tableSize];
+		used = new boolean[tableSize];
+		mask = tableSize - 1;
+	}
+
+	private static int hash(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+
+	private static int tableSize(int expectedSize) {
+		int tableSize = MIN_CAPACITY;
+		while (tableSize < expectedSize * 2) {
+			tableSize <<= 1;
+		}
+		return tableSize;
+	}
+}
@@ -0,0 +1,249 @@
+package ch.ba.qdict.graph;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.util.Arrays;
+
+/**
+ * Per-vertex query membership bits, packed into off-heap blocks of longs. Each block stays below 2 GB, the limit of a
+ * direct buffer; large bit sets are split into several blocks of whole rows.
+ * <p>
+ * Every vertex owns a row of ceil(numberOfQueries / 64) words. Bit q of a row is set if a trace of query q touches
+ * the vertex, which is exactly the 0/1 vertex weight METIS gets for constraint q.
+ */
+public class QueryBitSet {
+
+	// Column text for every byte value: "b0 b1 b2 b3 b4 b5 b6 b7 " with the least significant bit first
+	private static final byte[][] COLUMNS = new byte[256][16];
+
+	static {
+		for (int b = 0; b < 256; b++) {
+			for (int bit = 0; bit < 8; bit++) {
+				COLUMNS[b][bit * 2] = (byte) (((b >>> bit) & 1) == 1 ? '1' : '0');
+				COLUMNS[b][bit * 2 + 1] = (byte) ' ';
+			}
+		}
+	}
+
+	// Largest direct buffer in words; rows never span two buffers
+	private static final long MAX_BUFFER_WORDS = Integer.MAX_VALUE / 8;
+
+	// Unsafe.invokeCleaner, to free replaced buffers without waiting for a GC; null if not available
+	private static final Object UNSAFE;
+	private static final Method INVOKE_CLEANER;
+
+	static {
+		Object unsafe = null;
+		Method invokeCleaner = null;
+		try {
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+			theUnsafe.setAccessible(true);
+			unsafe = theUnsafe.get(null);
+			invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+		} catch (Exception e) {
+			// Replaced buffers are freed by the GC
+		}
+		UNSAFE = unsafe;
+		INVOKE_CLEANER = invokeCleaner;
+	}
+
+	private final int numberOfQueries;
+	private final int wordsPerVertex;
+
+	// Buffer i holds the rows of vertices [i << rowShift, (i + 1) << rowShift); only the last one may be shorter
+	private final int rowShift;
+	private final int rowMask;
+
+	private ByteBuffer[] blocks;
+	private LongBuffer[] words;
+	private int capacity;
+
+	public QueryBitSet(int numberOfQueries, int initialVertices) {
+		this.numberOfQueries = numberOfQueries;
+		this.wordsPerVertex = (numberOfQueries + 63) >>> 6;
+		this.rowShift = 31 - Integer.numberOfLeadingZeros((int) (MAX_BUFFER_WORDS / Math.max(1, wordsPerVertex)));
+		this.rowMask = (1 << rowShift) - 1;
+		this.capacity = Math.max(1, initialVertices);
+
+		int noBuffers = ((capacity - 1) >>> rowShift) + 1;
+		this.blocks = new ByteBuffer[noBuffers];
+		this.words = new LongBuffer[noBuffers];
+		for (int i = 0; i < noBuffers; i++) {
+			allocate(i, rowsOfBuffer(i, capacity));
+		}
+	}
+
+	/**
+	 * Make sure rows exist for all vertex ids smaller than numberOfVertices. Full buffers are kept, only the last
+	 * buffer is copied, and the replaced buffer is freed right away.
+	 */
+	public void ensureCapacity(int numberOfVertices) {
+		if (numberOfVertices <= capacity) {
+			return;
+		}
+
+		int newCapacity = (int) Math.min(Integer.MAX_VALUE, Math.max(numberOfVertices, 2L * capacity));
+		int noBuffers = ((newCapacity - 1) >>> rowShift) + 1;
+
+		int last = blocks.length - 1;
+		ByteBuffer lastBlock = blocks[last];
+		LongBuffer lastWords = words[last];
+
+		blocks = Arrays.copyOf(blocks, noBuffers);
+		words = Arrays.copyOf(words, noBuffers);
+		if (rowsOfBuffer(last, capacity) < rowsOfBuffer(last, newCapacity)) {
+			allocate(last, rowsOfBuffer(last, newCapacity));
+			lastWords.clear();
+			words[last].put(lastWords);
+			words[last].clear();
+			free(lastBlock);
+		}
+		for (int i = last + 1; i < noBuffers; i++) {
+			allocate(i, rowsOfBuffer(i, newCapacity));
+		}
+		capacity = newCapacity;
+	}
+
+	public void set(int vertex, int queryId) {
+		if (queryId < 0 || queryId >= numberOfQueries) {
+			throw new IndexOutOfBoundsException("Query id: " + queryId + ", numberOfQueries: " + numberOfQueries);
+		}
+		LongBuffer row = words[vertex >>> rowShift];
+		int index = (vertex & rowMask) * wordsPerVertex + (queryId >>> 6);
+		row.put(index, row.get(index) | (1L << queryId));
+	}
+
+	public boolean get(int vertex, int queryId) {
+		return (getWord(vertex, queryId >>> 6) & (1L << queryId)) != 0;
+	}
+
+	/**
+	 * OR a whole row of another bit set into a row of this one.
+	 */
+	public void or(int vertex, QueryBitSet other, int otherVertex) {
+		LongBuffer row = words[vertex >>> rowShift];
+		int offset = (vertex & rowMask) * wordsPerVertex;
+		for (int w = 0; w < wordsPerVertex; w++) {
+			row.put(offset + w, row.get(offset + w) | other.getWord(otherVertex, w));
+		}
+	}
+
+	public long getWord(int vertex, int word) {
+		return words[vertex >>> rowShift].get((vertex & rowMask) * wordsPerVertex + word);
+	}
+
+	public void setWord(int vertex, int word, long bits) {
+		words[vertex >>> rowShift].put((vertex & rowMask) * wordsPerVertex + word, bits);
+	}
+
+	/**
+	 * Copy all remaining words of src into the rows, starting at word index.
+	 */
+	void putWords(long index, LongBuffer src) {
+		long bufferWords = (long) wordsPerVertex << rowShift;
+		while (src.hasRemaining()) {
+			LongBuffer target = words[(int) (index / bufferWords)].duplicate();
+			target.position((int) (index % bufferWords));
+			int count = Math.min(src.remaining(), target.remaining());
+
+			LongBuffer part = src.duplicate();
+			part.limit(part.position() + count);
+			target.put(part);
+			src.position(src.position() + count);
+			index += count;
+		}
+	}
+
+	/**
+	 * Copy count words, starting at word index, into target.
+	 */
+	void getWords(long index, int count, LongBuffer target) {
+		long bufferWords = (long) wordsPerVertex << rowShift;
+		while (count > 0) {
+			LongBuffer source = words[(int) (index / bufferWords)].duplicate();
+			source.position((int) (index % bufferWords));
+			source.limit(source.position() + Math.min(count, source.remaining()));
+			count -= source.remaining();
+			index += source.remaining();
+			target.put(source);
+		}
+	}
+
+	public int getWordsPerVertex() {
+		return wordsPerVertex;
+	}
+
+	public int getNumberOfQueries() {
+		return numberOfQueries;
+	}
+
+	/**
+	 * Write the bits of a vertex as space separated METIS constraint columns, one byte of bits at a time.
+	 *
+	 * @param out
+	 *            Target buffer with room for 2 * numberOfQueries bytes after pos
+	 * @return Position after the last written column
+	 */
+	public int writeColumns(int vertex, byte[] out, int pos) {
+		int remaining = numberOfQueries;
+		for (int w = 0; w < wordsPerVertex && remaining > 0; w++) {
+			long word = getWord(vertex, w);
+			for (int b = 0; b < 8 && remaining > 0; b++) {
+				int bits = Math.min(8, remaining);
+				System.arraycopy(COLUMNS[(int) (word >>> (b * 8)) & 0xFF], 0, out, pos, bits * 2);
+				pos += bits * 2;
+				remaining -= bits;
+			}
+		}
+		return pos;
+	}
+
+	/**
+	 * @return True if the rows of both bit sets are equal for all vertex ids smaller than numberOfVertices
+	 */
+	public boolean equalRows(QueryBitSet other, int numberOfVertices) {
+		if (wordsPerVertex != other.wordsPerVertex) {
+			return false;
+		}
+		for (int v = 0; v < numberOfVertices; v++) {
+			for (int w = 0; w < wordsPerVertex; w++) {
+				if (getWord(v, w) != other.getWord(v, w)) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return Rows of buffer i if the bit set has rows for capacity vertices
+	 */
+	private int rowsOfBuffer(int i, int capacity) {
+		return Math.min(1 << rowShift, capacity - (i << rowShift));
+	}
+
+	private void allocate(int i, int rows) {
+		long bytes = 8L * wordsPerVertex * rows;
+		if (bytes > Integer.MAX_VALUE) {
+			throw new IllegalStateException("Query bits of " + rows + " vertices and " + numberOfQueries
+					+ " queries exceed one buffer: " + bytes + " bytes");
+		}
+		blocks[i] = ByteBuffer.allocateDirect((int) bytes).order(ByteOrder.nativeOrder());
+		words[i] = blocks[i].asLongBuffer();
+	}
+
+	private static void free(ByteBuffer block) {
+		if (INVOKE_CLEANER == null) {
+			return;
+		}
+		try {
+			INVOKE_CLEANER.invoke(UNSAFE, block);
+		} catch (Exception e) {
+			// Freed by the GC instead
+		}
+	}
+}
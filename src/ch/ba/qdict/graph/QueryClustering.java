@@ -0,0 +1,394 @@
+package ch.ba.qdict.graph;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+import ch.ba.qdict.partition.BlockLoop;
+
+/**
+ * Groups queries with similar vertex footprints, so the partitioner balances one constraint per group instead of one
+ * per query.
+ * <p>
+ * Footprints are compared by their MinHash signatures: the share of equal signature positions of two queries
+ * estimates the Jaccard similarity of their vertex sets. Groups are merged agglomeratively, most similar pair first;
+ * the signature of a merged group is the position-wise minimum, i.e. the signature of the union of the footprints. The
+ * weight of a group is 1 if any of its queries touches the vertex, so a group constraint balances the union of its
+ * footprints. Node vertices are not part of any footprint.
+ */
+public class QueryClustering {
+
+	private static final int SIGNATURE_SIZE = 128;
+	private static final int MIN_GRAIN = 1 << 14;
+
+	private final int[] groups;
+	private final int noGroups;
+	private final int noNodeVertices;
+
+	private QueryClustering(int[] groups, int noGroups, int noNodeVertices) {
+		this.groups = groups;
+		this.noGroups = noGroups;
+		this.noNodeVertices = noNodeVertices;
+	}
+
+	/**
+	 * @param noNodeVertices
+	 *            Number of leading node vertices, 0 if the graph has none
+	 * @param noGroups
+	 *            Number of groups; queries are not grouped if there are not more queries than groups
+	 * @param threads
+	 *            Threads computing the MinHash signatures
+	 */
+	public static QueryClustering cluster(VertexTable<?> vertices, int noNodeVertices, int noGroups, int threads) {
+
+		int noQueries = vertices.getNumberOfQueries();
+		if (noGroups <= 0 || noGroups >= noQueries) {
+			int[] groups = new int[noQueries];
+			for (int q = 0; q < noQueries; q++) {
+				groups[q] = q;
+			}
+			return new QueryClustering(groups, noQueries, noNodeVertices);
+		}
+
+		int[] signatures = signatures(vertices, noNodeVertices, threads);
+		int[] groups = merge(signatures, noQueries, noGroups);
+
+		return new QueryClustering(groups, noGroups, noNodeVertices);
+	}
+
+	public int getNumberOfGroups() {
+		return noGroups;
+	}
+
+	/**
+	 * @return Group of the query, from 0 to the number of groups - 1
+	 */
+	public int getGroup(int queryId) {
+		return groups[queryId];
+	}
+
+	/**
+	 * @return Graph with the same vertices and edges, sharing all arrays, but one vertex weight per group
+	 */
+	public <T> CSRGraph<T> apply(CSRGraph<T> graph) {
+		return new CSRGraph<T>(graph.getCodec(), graph.vertexKeys(), graph.getXadj(), graph.getAdjncy(),
+				graph.getAdjwgt(), group(graph.getQueryWeights(), graph.getNumberOfVertices()),
+				graph.isUndirectedGraph());
+	}
+
+	/**
+	 * @return Vertices with the same keys, but one vertex weight per group
+	 */
+	public <T> VertexTable<T> apply(VertexTable<T> vertices) {
+		return new VertexTable<T>(vertices.getCodec(), vertices.vertexKeys(),
+				group(vertices.getQueryWeights(), vertices.getNumberOfVertices()), vertices.getNumberOfEdges());
+	}
+
+	/**
+	 * Print how well the groups stand in for their queries: the footprint coverage of a query is the size of its
+	 * footprint relative to the union of the footprints of its group.
+	 */
+	public void printFidelity(VertexTable<?> vertices) {
+
+		long[] footprints = new long[groups.length];
+		long[] groupFootprints = new long[noGroups];
+		countFootprints(vertices, null, 0, footprints, groupFootprints);
+
+		double sum = 0;
+		double min = 1;
+		int noCounted = 0;
+		for (int q = 0; q < groups.length; q++) {
+			if (groupFootprints[groups[q]] == 0) {
+				continue;
+			}
+			double coverage = (double) footprints[q] / groupFootprints[groups[q]];
+			sum += coverage;
+			min = Math.min(min, coverage);
+			noCounted++;
+		}
+
+		System.out.println("\tConstraints: " + groups.length + " queries in " + noGroups + " groups");
+		System.out.println("\tFootprint coverage: mean " + (noCounted > 0 ? sum / noCounted : 1) + ", min " + min);
+	}
+
+	/**
+	 * Print the largest part load over all queries next to the largest part load over all groups, which is what the
+	 * partitioner balanced. The difference is the balance fidelity lost by grouping.
+	 *
+	 * @param partitions
+	 *            Partition of every vertex
+	 */
+	public void printBalance(VertexTable<?> vertices, int[] partitions, int noParts) {
+
+		if (partitions.length < vertices.getNumberOfVertices()) {
+			return;
+		}
+
+		long[] footprints = new long[groups.length];
+		long[] groupFootprints = new long[noGroups];
+		long[] partLoads = new long[groups.length * noParts];
+		long[] groupPartLoads = new long[noGroups * noParts];
+		countFootprints(vertices, partitions, noParts, footprints, groupFootprints, partLoads, groupPartLoads);
+
+		double queryLoad = maxLoad(footprints, partLoads, noParts);
+		double groupLoad = maxLoad(groupFootprints, groupPartLoads, noParts);
+
+		System.out.println("\tMax load over queries: " + queryLoad + " (over groups: " + groupLoad + ")");
+	}
+
+	private void countFootprints(VertexTable<?> vertices, int[] partitions, int noParts, long[] footprints,
+			long[] groupFootprints) {
+		countFootprints(vertices, partitions, noParts, footprints, groupFootprints, null, null);
+	}
+
+	private void countFootprints(VertexTable<?> vertices, int[] partitions, int noParts, long[] footprints,
+			long[] groupFootprints, long[] partLoads, long[] groupPartLoads) {
+
+		QueryBitSet queryWeights = vertices.getQueryWeights();
+		int wordsPerVertex = queryWeights.getWordsPerVertex();
+
+		// Vertex that last counted for a group, so a group counts every vertex once
+		int[] stamps = new int[noGroups];
+		Arrays.fill(stamps, -1);
+
+		for (int v = noNodeVertices; v < vertices.getNumberOfVertices(); v++) {
+			for (int w = 0; w < wordsPerVertex; w++) {
+				long word = queryWeights.getWord(v, w);
+				while (word != 0) {
+					int q = (w << 6) + Long.numberOfTrailingZeros(word);
+					word &= word - 1;
+
+					int g = groups[q];
+					footprints[q]++;
+					if (partLoads != null) {
+						partLoads[q * noParts + partitions[v]]++;
+					}
+					if (stamps[g] != v) {
+						stamps[g] = v;
+						groupFootprints[g]++;
+						if (groupPartLoads != null) {
+							groupPartLoads[g * noParts + partitions[v]]++;
+						}
+					}
+				}
+			}
+		}
+	}
+
+	private static double maxLoad(long[] totals, long[] partLoads, int noParts) {
+		double maxLoad = 0;
+		for (int c = 0; c < totals.length; c++) {
+			if (totals[c] == 0) {
+				continue;
+			}
+			for (int p = 0; p < noParts; p++) {
+				maxLoad = Math.max(maxLoad, partLoads[c * noParts + p] * (double) noParts / totals[c]);
+			}
+		}
+		return maxLoad;
+	}
+
+	private QueryBitSet group(QueryBitSet queryWeights, int n) {
+
+		QueryBitSet grouped = new QueryBitSet(noGroups, n);
+		int wordsPerVertex = queryWeights.getWordsPerVertex();
+
+		for (int v = 0; v < n; v++) {
+			for (int w = 0; w < wordsPerVertex; w++) {
+				long word = queryWeights.getWord(v, w);
+				while (word != 0) {
+					grouped.set(v, groups[(w << 6) + Long.numberOfTrailingZeros(word)]);
+					word &= word - 1;
+				}
+			}
+		}
+		return grouped;
+	}
+
+	/**
+	 * @return MinHash signature of every query: position i of query q at q*SIGNATURE_SIZE+i
+	 */
+	private static int[] signatures(final VertexTable<?> vertices, final int noNodeVertices, int threads) {
+
+		final int noQueries = vertices.getNumberOfQueries();
+		final QueryBitSet queryWeights = vertices.getQueryWeights();
+		final int wordsPerVertex = queryWeights.getWordsPerVertex();
+
+		final int[] signatures = new int[noQueries * SIGNATURE_SIZE];
+		Arrays.fill(signatures, Integer.MAX_VALUE);
+
+		final int n = vertices.getNumberOfVertices() - noNodeVertices;
+		ForkJoinPool pool = threads > 1 ? new ForkJoinPool(threads) : null;
+		try {
+			BlockLoop.run(pool, n, BlockLoop.grain(pool, n, MIN_GRAIN), new BlockLoop.Body() {
+				@Override
+				public void run(int from, int to) {
+					int[] local = new int[signatures.length];
+					Arrays.fill(local, Integer.MAX_VALUE);
+					int[] hashes = new int[SIGNATURE_SIZE];
+
+					for (int v = noNodeVertices + from; v < noNodeVertices + to; v++) {
+						boolean hashed = false;
+						for (int w = 0; w < wordsPerVertex; w++) {
+							long word = queryWeights.getWord(v, w);
+							if (word != 0 && !hashed) {
+								hash(v, hashes);
+								hashed = true;
+							}
+							while (word != 0) {
+								int offset = ((w << 6) + Long.numberOfTrailingZeros(word)) * SIGNATURE_SIZE;
+								word &= word - 1;
+								for (int i = 0; i < SIGNATURE_SIZE; i++) {
+									if (hashes[i] < local[offset + i]) {
+										local[offset + i] = hashes[i];
+									}
+								}
+							}
+						}
+					}
+
+					synchronized (signatures) {
+						for (int i = 0; i < signatures.length; i++) {
+							if (local[i] < signatures[i]) {
+								signatures[i] = local[i];
+							}
+						}
+					}
+				}
+			});
+		} finally {
+			if (pool != null) {
+				pool.shutdown();
+			}
+		}
+		return signatures;
+	}
+
+	/**
+	 * SIGNATURE_SIZE hash functions of the vertex, derived from two halves of one 64-bit hash. Vertex ids are hashed
+	 * rather than codec keys, which depend on the order the codec saw the vertices.
+	 */
+	private static void hash(int vertex, int[] hashes) {
+		long h = vertex * 0x9E3779B97F4A7C15L;
+		h ^= h >>> 32;
+		h *= 0xD6E8FEB86659FD93L;
+		h ^= h >>> 32;
+
+		int h1 = (int) h;
+		int h2 = (int) (h >>> 32) | 1;
+		for (int i = 0; i < SIGNATURE_SIZE; i++) {
+			hashes[i] = h1 + i * h2;
+		}
+	}
+
+	/**
+	 * Merge the most similar pair of groups until noGroups groups are left. Ties go to the lowest query ids, so the
+	 * result only depends on the signatures.
+	 *
+	 * @return Group of every query; groups are numbered in order of their first query
+	 */
+	private static int[] merge(int[] signatures, int noQueries, int noGroups) {
+
+		// similarities[a*noQueries+b]: equal signature positions of the groups led by queries a and b
+		int[] similarities = new int[noQueries * noQueries];
+		for (int a = 0; a < noQueries; a++) {
+			for (int b = a + 1; b < noQueries; b++) {
+				int s = similarity(signatures, a, b);
+				similarities[a * noQueries + b] = s;
+				similarities[b * noQueries + a] = s;
+			}
+		}
+
+		// Query leading the group every query belongs to; a group is active while it leads itself
+		int[] leaders = new int[noQueries];
+		int[] nearest = new int[noQueries];
+		for (int a = 0; a < noQueries; a++) {
+			leaders[a] = a;
+		}
+		for (int a = 0; a < noQueries; a++) {
+			nearest[a] = nearest(similarities, leaders, noQueries, a);
+		}
+
+		for (int active = noQueries; active > noGroups; active--) {
+			int a = -1;
+			for (int c = 0; c < noQueries; c++) {
+				if (leaders[c] == c && (a < 0
+						|| similarities[c * noQueries + nearest[c]] > similarities[a * noQueries + nearest[a]])) {
+					a = c;
+				}
+			}
+			int b = nearest[a];
+			if (b < a) {
+				int t = a;
+				a = b;
+				b = t;
+			}
+
+			// b joins a; the signature of a becomes the signature of the union
+			for (int q = 0; q < noQueries; q++) {
+				if (leaders[q] == b) {
+					leaders[q] = a;
+				}
+			}
+			for (int i = 0; i < SIGNATURE_SIZE; i++) {
+				signatures[a * SIGNATURE_SIZE + i] = Math.min(signatures[a * SIGNATURE_SIZE + i],
+						signatures[b * SIGNATURE_SIZE + i]);
+			}
+			for (int c = 0; c < noQueries; c++) {
+				if (leaders[c] == c && c != a) {
+					int s = similarity(signatures, a, c);
+					similarities[a * noQueries + c] = s;
+					similarities[c * noQueries + a] = s;
+				}
+			}
+
+			nearest[a] = nearest(similarities, leaders, noQueries, a);
+			for (int c = 0; c < noQueries; c++) {
+				if (leaders[c] != c || c == a) {
+					continue;
+				}
+				if (nearest[c] == a || nearest[c] == b) {
+					nearest[c] = nearest(similarities, leaders, noQueries, c);
+				} else if (similarities[c * noQueries + a] > similarities[c * noQueries + nearest[c]]
+						|| (similarities[c * noQueries + a] == similarities[c * noQueries + nearest[c]]
+								&& a < nearest[c])) {
+					nearest[c] = a;
+				}
+			}
+		}
+
+		int[] groupIds = new int[noQueries];
+		int[] groups = new int[noQueries];
+		int noAssigned = 0;
+		for (int q = 0; q < noQueries; q++) {
+			if (leaders[q] == q) {
+				groupIds[q] = noAssigned++;
+			}
+			groups[q] = groupIds[leaders[q]];
+		}
+		return groups;
+	}
+
+	/**
+	 * @return Most similar other active group, the lowest one on ties
+	 */
+	private static int nearest(int[] similarities, int[] leaders, int noQueries, int a) {
+		int best = -1;
+		for (int c = 0; c < noQueries; c++) {
+			if (leaders[c] == c && c != a
+					&& (best < 0 || similarities[a * noQueries + c] > similarities[a * noQueries + best])) {
+				best = c;
+			}
+		}
+		return best;
+	}
+
+	private static int similarity(int[] signatures, int a, int b) {
+		int equal = 0;
+		for (int i = 0; i < SIGNATURE_SIZE; i++) {
+			if (signatures[a * SIGNATURE_SIZE + i] == signatures[b * SIGNATURE_SIZE + i]) {
+				equal++;
+			}
+		}
+		return equal;
+	}
+}
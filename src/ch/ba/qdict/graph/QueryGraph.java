@@ -1,150 +1,229 @@
 package ch.ba.qdict.graph;
 
-import java.util.LinkedHashMap;
-import java.util.Map;
-
-public class QueryGraph<T> {
-	
-	private Map<T, Map<T, Integer>> traceGraph;
-	private Map<T, Integer[]> weightMap;
-	
+import java.util.Arrays;
+
+public class QueryGraph<T> implements GraphBuilder<T> {
+
+	private static final int INITIAL_CAPACITY = 1024;
+
+	// Vertices get dense ids in insertion order; the codec maps them to primitive keys
+	private VertexCodec<T> codec;
+	private LongIntMap vertexIds;
+	private long[] vertexKeys;
+	private int numberOfVertices;
+
+	private EdgeTable edges;
+
+	// Per-query vertex weights: bit queryId of the vertex row is set if the query touches the vertex
+	private QueryBitSet queryWeights;
+
 	private int numberOfQueries;
 	private boolean isUndirectedGraph;
-	
+
 	public QueryGraph(int numberOfQueries, boolean isUndirectedGraph) {
-		this.traceGraph = new LinkedHashMap<>();
-		this.weightMap = new LinkedHashMap<>();
+		this(numberOfQueries, isUndirectedGraph, VertexCodec.<T> interning());
+	}
+
+	public QueryGraph(int numberOfQueries, boolean isUndirectedGraph, VertexCodec<T> codec) {
+		this.codec = codec;
+		this.vertexIds = new LongIntMap(INITIAL_CAPACITY);
+		this.vertexKeys = new long[INITIAL_CAPACITY];
+		this.edges = new EdgeTable(INITIAL_CAPACITY);
+		this.queryWeights = new QueryBitSet(numberOfQueries, INITIAL_CAPACITY);
 		this.numberOfQueries = numberOfQueries;
 		this.isUndirectedGraph = isUndirectedGraph;
 	}
 
-	public Map<T, Map<T, Integer>> getTraceGraph() {
-		return traceGraph;
+	public int addVertex(T vertex) {
+		return addVertexByKey(codec.encode(vertex));
 	}
 
-	public Map<T, Integer[]> getWeightMap() {
-		return weightMap;
-	}
-	
-	public void addVertex(T vertex) {
-		boolean containsVertex = traceGraph.containsKey(vertex);
-		if (!containsVertex) {
-			traceGraph.put(vertex, new LinkedHashMap<>());
+	/**
+	 * Add a vertex by its codec key.
+	 *
+	 * @return Dense id of the vertex
+	 */
+	public int addVertexByKey(long key) {
+		int id = vertexIds.putIfAbsent(key, numberOfVertices);
+		if (id >= 0) {
+			return id;
 		}
-		
-		boolean containsWeightVertex = weightMap.containsKey(vertex);
-		if (!containsWeightVertex) {
-			weightMap.put(vertex, new Integer[numberOfQueries]);
+
+		int newId = numberOfVertices++;
+		if (newId == vertexKeys.length) {
+			vertexKeys = Arrays.copyOf(vertexKeys, newId * 2);
 		}
+		vertexKeys[newId] = key;
+		queryWeights.ensureCapacity(newId + 1);
+
+		return newId;
 	}
-	
+
 	public void addEdge(T source, T dest, int queryId, int weight, boolean sumWeights) {
-		
-		int edgeWeight = 0;
-		
+		addEdgeByKey(codec.encode(source), codec.encode(dest), queryId, weight, sumWeights);
+	}
+
+	/**
+	 * Add an edge between two vertices given by their codec keys. Same semantics as
+	 * {@link #addEdge(Object, Object, int, int, boolean)}.
+	 */
+	public void addEdgeByKey(long sourceKey, long destKey, int queryId, int weight, boolean sumWeights) {
+
+		int sourceId = addVertexByKey(sourceKey);
+		int destId = addVertexByKey(destKey);
+
 		// Update source -> dest Edge
-		Map<T, Integer> sourceToDestEdges = traceGraph.get(source);
-		edgeWeight = weight;
-		
-		if (sourceToDestEdges == null) {
-			sourceToDestEdges = new LinkedHashMap<>();
-		} else if (sumWeights) {
-			Integer existingEdgeWeight = sourceToDestEdges.get(dest);
-			if (existingEdgeWeight != null) {
-				edgeWeight += existingEdgeWeight;
-			}
-		}
-		
-		sourceToDestEdges.put(dest, edgeWeight);
-		traceGraph.put(source, sourceToDestEdges);
-		
+		edges.add(sourceId, destId, weight, sumWeights);
+
 		// Update dest -> source Edge (if it's an undirected graph)
 		if (isUndirectedGraph) {
-			Map<T, Integer> destToSourceEdges = traceGraph.get(dest);
-			edgeWeight = weight;
-			
-			if (destToSourceEdges == null) {
-				destToSourceEdges = new LinkedHashMap<>();
-			} else if (sumWeights) {
-				Integer existingEdgeWeight = destToSourceEdges.get(source);
-				if (existingEdgeWeight != null) {
-					edgeWeight += existingEdgeWeight;
-				}
-			}
-			
-			destToSourceEdges.put(source, edgeWeight);
-			traceGraph.put(dest, destToSourceEdges);
+			edges.add(destId, sourceId, weight, sumWeights);
+		}
+
+		// Update source and dest vertex weights
+		queryWeights.set(sourceId, queryId);
+		queryWeights.set(destId, queryId);
+	}
+
+	/**
+	 * Add the vertices and query weights of an edge, but not the edge itself; for graphs whose edges are aggregated
+	 * elsewhere, see {@link EdgeSpiller}. Vertices get the same ids as with {@link #addEdgeByKey}.
+	 */
+	public void addVerticesByKey(long sourceKey, long destKey, int queryId) {
+
+		int sourceId = addVertexByKey(sourceKey);
+		int destId = addVertexByKey(destKey);
+
+		queryWeights.set(sourceId, queryId);
+		queryWeights.set(destId, queryId);
+	}
+
+	/**
+	 * Merge a graph that was built from traces following the traces of this graph.
+	 * <p>
+	 * The result is identical to adding the traces of both graphs to a single graph one after another: vertices and
+	 * edges of the other graph are appended in their insertion order, query weights are combined and edge weights are
+	 * summed, unless the other graph overwrote the edge weight, in which case its weight wins.
+	 *
+	 * @param other
+	 *            Graph with the same number of queries, directedness and codec
+	 */
+	public void merge(QueryGraph<T> other) {
+
+		int[] idMap = new int[other.numberOfVertices];
+		for (int v = 0; v < idMap.length; v++) {
+			idMap[v] = addVertexByKey(other.vertexKeys[v]);
+			queryWeights.or(idMap[v], other.queryWeights, v);
 		}
-			
-		// Update source vertex weight
-		Integer[] sourceWeights = weightMap.get(source);
-		if (sourceWeights == null) {
-			sourceWeights = new Integer[numberOfQueries];
+
+		for (int i = 0; i < other.edges.size(); i++) {
+			edges.add(idMap[other.edges.getSource(i)], idMap[other.edges.getDest(i)], other.edges.getWeight(i),
+					!other.edges.isOverwritten(i));
+		}
+	}
+
+	/**
+	 * Add all vertices, edges and query weights of a frozen graph, e.g. one restored from a {@link GraphSnapshot}, as
+	 * if its traces were added to this graph. Vertices keep their order.
+	 *
+	 * @param graph
+	 *            Graph with the same number of queries, directedness and codec
+	 */
+	public void add(CSRGraph<T> graph) {
+
+		int[] xadj = graph.getXadj();
+		int[] adjncy = graph.getAdjncy();
+		int[] adjwgt = graph.getAdjwgt();
+
+		int[] idMap = new int[graph.getNumberOfVertices()];
+		for (int v = 0; v < idMap.length; v++) {
+			idMap[v] = addVertexByKey(graph.getVertexKey(v));
+			queryWeights.or(idMap[v], graph.getQueryWeights(), v);
 		}
-		
-		sourceWeights[queryId] = 1;
-		weightMap.put(source, sourceWeights);
-		
-		//Update dest vertex weight
-		Integer[] destWeights = weightMap.get(dest);
-		if (destWeights == null) {
-			destWeights = new Integer[numberOfQueries];
+
+		// Both directions of undirected edges are stored in the CSR graph
+		for (int v = 0; v < idMap.length; v++) {
+			for (int e = xadj[v]; e < xadj[v + 1]; e++) {
+				edges.add(idMap[v], idMap[adjncy[e]], adjwgt[e], true);
+			}
 		}
-		
-		destWeights[queryId] = 1;
-		weightMap.put(dest, destWeights);
 	}
-	
-	public Map<T, Integer> getEdgesFrom(T vertex) {
-		return traceGraph.get(vertex);
+
+	/**
+	 * Decay the weights of all trace edges by a factor, e.g. to age the traces of a restored graph before newer traces
+	 * are added. Edges touching one of the leading node vertices carry the affinity weight and keep it. Weights are
+	 * rounded, so every decay loses a fraction of a weight unit; an edge keeps at least weight 1.
+	 *
+	 * @param noNodeVertices
+	 *            Number of leading node vertices, 0 if the graph has none
+	 */
+	public void decay(double factor, int noNodeVertices) {
+		if (factor != 1) {
+			edges.scale(factor, noNodeVertices);
+		}
 	}
-	
+
 	public int getEdgeWeightFromTo(T source, T dest) {
-		Map<T, Integer> sourceEdges = traceGraph.get(source);
-		return sourceEdges.get(dest);
+		int edge = edges.indexOf(vertexIds.get(codec.encode(source)), vertexIds.get(codec.encode(dest)));
+		return edges.getWeight(edge);
 	}
-	
+
 	public int getNumberOfEdges() {
-		int numberOfEdges = 0;
-		
-		for (Map.Entry<T, Map<T, Integer>> vertex : traceGraph.entrySet()) {
-			numberOfEdges += vertex.getValue().size();
-		}
-		
 		if (isUndirectedGraph) {
-			return numberOfEdges/2;
+			return edges.size()/2;
 		} else {
-			return numberOfEdges;
+			return edges.size();
 		}
 	}
-	
+
 	public int getNumberOfVertices() {
-		return traceGraph.size();
-	}
-	
-	public Map<T, Integer> getVertexNumberMap() {
-		
-		Map<T, Integer> vertexNumberMap = new LinkedHashMap<>();
-		int j = 1;
-		
-		for (Map.Entry<T, Map<T, Integer>> vertex : traceGraph.entrySet()) {
-			vertexNumberMap.put(vertex.getKey(), j++);
-		}
-		
-		return vertexNumberMap;
+		return numberOfVertices;
 	}
-	
+
 	public String getProperties() {
 		return "isUnderectedGraph: " + isUndirectedGraph + ", numberOfQueries: " + numberOfQueries;
 	}
-	
+
 	public boolean isEmpty() {
-		return traceGraph.isEmpty();
+		return numberOfVertices == 0;
 	}
-	
+
 	public void clear() {
-		traceGraph.clear();
-		weightMap.clear();
+		vertexIds.clear();
+		vertexKeys = new long[INITIAL_CAPACITY];
+		numberOfVertices = 0;
+		edges.clear();
+		queryWeights = new QueryBitSet(numberOfQueries, INITIAL_CAPACITY);
+	}
+
+	/**
+	 * Freeze the graph into a compressed sparse row representation. The builder is cleared afterwards.
+	 *
+	 * @return CSR graph with the same vertex order and neighbour order as this graph
+	 */
+	public CSRGraph<T> freeze() {
+		int[][] csr = edges.toCSR(numberOfVertices);
+		edges.clear();
+
+		CSRGraph<T> graph = new CSRGraph<T>(codec, Arrays.copyOf(vertexKeys, numberOfVertices), csr[0], csr[1], csr[2],
+				queryWeights, isUndirectedGraph);
+		clear();
+
+		return graph;
+	}
+
+	/**
+	 * Freeze only the vertices of the graph, for graphs built with {@link #addVerticesByKey}. The builder is cleared
+	 * afterwards.
+	 *
+	 * @return Vertex table with the same vertex order as this graph and an unknown number of edges
+	 */
+	public VertexTable<T> freezeVertices() {
+		VertexTable<T> vertices = new VertexTable<T>(codec, Arrays.copyOf(vertexKeys, numberOfVertices), queryWeights,
+				-1);
+		clear();
+
+		return vertices;
 	}
 
 	@Override
@@ -156,15 +235,20 @@ public class QueryGraph<T> {
 		if (getClass() != obj.getClass())
 			return false;
 		QueryGraph<?> other = (QueryGraph<?>) obj;
-		if (traceGraph == null) {
-			if (other.traceGraph != null)
+		if (numberOfVertices != other.numberOfVertices)
+			return false;
+		for (int v = 0; v < numberOfVertices; v++) {
+			if (!codec.decode(vertexKeys[v]).equals(other.codec.decode(other.vertexKeys[v])))
 				return false;
-		} else if (!traceGraph.equals(other.traceGraph))
+		}
+		if (edges.size() != other.edges.size())
 			return false;
-		if (weightMap == null) {
-			if (other.weightMap != null)
+		for (int i = 0; i < edges.size(); i++) {
+			int otherEdge = other.edges.indexOf(edges.getSource(i), edges.getDest(i));
+			if (otherEdge < 0 || other.edges.getWeight(otherEdge) != edges.getWeight(i))
 				return false;
-		} else if (!weightMap.equals(other.weightMap))
+		}
+		if (numberOfQueries != other.numberOfQueries || !queryWeights.equalRows(other.queryWeights, numberOfVertices))
 			return false;
 		return true;
 	}
@@ -173,8 +257,14 @@ public class QueryGraph<T> {
 	public int hashCode() {
 		final int prime = 31;
 		int result = 1;
-		result = prime * result + ((traceGraph == null) ? 0 : traceGraph.hashCode());
-		result = prime * result + ((weightMap == null) ? 0 : weightMap.hashCode());
+		for (int v = 0; v < numberOfVertices; v++) {
+			result = prime * result + codec.decode(vertexKeys[v]).hashCode();
+		}
+		int edgeHash = 0;
+		for (int i = 0; i < edges.size(); i++) {
+			edgeHash += (edges.getSource(i) * prime + edges.getDest(i)) ^ edges.getWeight(i);
+		}
+		result = prime * result + edgeHash;
 		return result;
 	}
 
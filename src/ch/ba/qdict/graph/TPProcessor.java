@@ -24,12 +24,29 @@ public class TPProcessor {
 	 * @return Significant ID
 	 */
 	public static int getSigId(int[] ids) {
-		if (ids[0] != 0) {
-			return ids[0];
-		} else if (ids[2] != 0) {
-			return ids[2];
+		return TPProcessor.getSigId(ids[0], ids[1], ids[2]);
+	}
+
+	/**
+	 * Extract significant ID from TriplePattern IDs.
+	 * <p>
+	 * Hierarchy: Subject, Object, Predicate
+	 * 
+	 * @param subject
+	 *            Subject ID
+	 * @param predicate
+	 *            Predicate ID
+	 * @param object
+	 *            Object ID
+	 * @return Significant ID
+	 */
+	public static int getSigId(int subject, int predicate, int object) {
+		if (subject != 0) {
+			return subject;
+		} else if (object != 0) {
+			return object;
 		} else {
-			return ids[1];
+			return predicate;
 		}
 	}
 
@@ -56,6 +73,19 @@ public class TPProcessor {
 	 * @return Natural node number on which the TriplePattern would be placed
 	 */
 	public static int getNodeNumber(String tp, int noNodes) {
-		return TPProcessor.getSigId(tp) % noNodes;
+		return TPProcessor.getNodeNumber(TPProcessor.getSigId(tp), noNodes);
+	}
+
+	/**
+	 * Extract natural node number from the significant ID of a TriplePattern.
+	 * 
+	 * @param sigId
+	 *            Significant ID
+	 * @param noNodes
+	 *            Number of Nodes over which the graph will be distributed
+	 * @return Natural node number on which the TriplePattern would be placed
+	 */
+	public static int getNodeNumber(int sigId, int noNodes) {
+		return sigId % noNodes;
 	}
 }
@@ -0,0 +1,216 @@
+package ch.ba.qdict.graph;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Codec for the vertices of the lookup graph: TriplePatterns like (12,0,345) and node vertices like 3.
+ * <p>
+ * TriplePatterns are interned into dense non-negative keys by a striped, primitive open-addressing table, so they are
+ * hashed as three ints and never held as Strings. Node vertex n is encoded as -(n+1). Strings are only rebuilt by
+ * {@link #decode(long)}.
+ * <p>
+ * Interning locks a stripe; reading the IDs of a key does not lock and does not allocate, so parallel loops over the
+ * vertices of a graph don't contend on the codec.
+ */
+public class TriplePatternCodec extends VertexCodec<String> {
+
+	// Stripes reduce lock contention when partial graphs of a parallel ingestion intern concurrently
+	private static final int STRIPE_BITS = 6;
+	private static final int STRIPES = 1 << STRIPE_BITS;
+
+	private final Stripe[] stripes = new Stripe[STRIPES];
+
+	public TriplePatternCodec() {
+		for (int i = 0; i < STRIPES; i++) {
+			stripes[i] = new Stripe();
+		}
+	}
+
+	/**
+	 * Intern a TriplePattern.
+	 *
+	 * @return Key of the TriplePattern
+	 */
+	public long encode(int subject, int predicate, int object) {
+		int hash = hash(subject, predicate, object);
+		int stripe = hash & (STRIPES - 1);
+		int index = stripes[stripe].intern(subject, predicate, object, hash >>> STRIPE_BITS);
+		return ((long) index << STRIPE_BITS) | stripe;
+	}
+
+	/**
+	 * @return Key of node vertex node
+	 */
+	public long encodeNode(int node) {
+		return -(node + 1L);
+	}
+
+	@Override
+	public long encode(String vertex) {
+		if (vertex.indexOf('(') < 0) {
+			return encodeNode(Integer.parseInt(vertex));
+		}
+		int[] ids = TPProcessor.extractIds(vertex);
+		return encode(ids[0], ids[1], ids[2]);
+	}
+
+	@Override
+	public String decode(long key) {
+		if (isNode(key)) {
+			return Integer.toString(getNode(key));
+		}
+		return "(" + getSubjectId(key) + "," + getPredicateId(key) + "," + getObjectId(key) + ")";
+	}
+
+	/**
+	 * Keys are written as a node flag byte and subject, predicate, object; node vertices as flag and node number.
+	 */
+	@Override
+	public int getKeySize() {
+		return 13;
+	}
+
+	@Override
+	public void writeKey(long key, ByteBuffer out) {
+		if (isNode(key)) {
+			out.put((byte) 1);
+			out.putInt(getNode(key));
+			out.putInt(0);
+			out.putInt(0);
+		} else {
+			out.put((byte) 0);
+			out.putInt(getSubjectId(key));
+			out.putInt(getPredicateId(key));
+			out.putInt(getObjectId(key));
+		}
+	}
+
+	@Override
+	public long readKey(ByteBuffer in) {
+		boolean node = in.get() == 1;
+		int subject = in.getInt();
+		int predicate = in.getInt();
+		int object = in.getInt();
+		return node ? encodeNode(subject) : encode(subject, predicate, object);
+	}
+
+	public boolean isNode(long key) {
+		return key < 0;
+	}
+
+	public int getNode(long key) {
+		return (int) (-key - 1);
+	}
+
+	/**
+	 * @return Array of subject, predicate, object IDs of a TriplePattern key
+	 */
+	public int[] getIds(long key) {
+		return new int[] { getSubjectId(key), getPredicateId(key), getObjectId(key) };
+	}
+
+	public int getSubjectId(long key) {
+		return stripes[(int) (key & (STRIPES - 1))].getId((int) (key >>> STRIPE_BITS), 0);
+	}
+
+	public int getPredicateId(long key) {
+		return stripes[(int) (key & (STRIPES - 1))].getId((int) (key >>> STRIPE_BITS), 1);
+	}
+
+	public int getObjectId(long key) {
+		return stripes[(int) (key & (STRIPES - 1))].getId((int) (key >>> STRIPE_BITS), 2);
+	}
+
+	/**
+	 * @return Significant ID of a TriplePattern key
+	 */
+	public int getSigId(long key) {
+		return TPProcessor.getSigId(getSubjectId(key), getPredicateId(key), getObjectId(key));
+	}
+
+	/**
+	 * @return Number of interned TriplePatterns
+	 */
+	public int size() {
+		int size = 0;
+		for (Stripe stripe : stripes) {
+			size += stripe.size();
+		}
+		return size;
+	}
+
+	private static int hash(int subject, int predicate, int object) {
+		int h = subject * 0x9E3779B9;
+		h = (h ^ predicate) * 0x85EBCA6B;
+		h = (h ^ object) * 0xC2B2AE35;
+		return h ^ (h >>> 16);
+	}
+
+	private static class Stripe {
+
+		private static final int MIN_CAPACITY = 64;
+
+		// Subject, predicate, object of entry i at 3*i, 3*i+1, 3*i+2. Entries are written before their key is handed
+		// out and a grown array is published by the volatile write, so readers of a key see its entry without locking
+		private volatile int[] ids = new int[3 * MIN_CAPACITY];
+		private int size;
+
+		// Entry index + 1 for every slot, 0 marks an empty slot
+		private int[] slots = new int[2 * MIN_CAPACITY];
+
+		synchronized int intern(int subject, int predicate, int object, int hash) {
+			int[] ids = this.ids;
+			int mask = slots.length - 1;
+			int slot = hash & mask;
+			while (slots[slot] != 0) {
+				int entry = 3 * (slots[slot] - 1);
+				if (ids[entry] == subject && ids[entry + 1] == predicate && ids[entry + 2] == object) {
+					return slots[slot] - 1;
+				}
+				slot = (slot + 1) & mask;
+			}
+
+			int index = size;
+			if (3 * (index + 1) > ids.length) {
+				ids = Arrays.copyOf(ids, ids.length * 2);
+			}
+			ids[3 * index] = subject;
+			ids[3 * index + 1] = predicate;
+			ids[3 * index + 2] = object;
+			this.ids = ids;
+			size++;
+			slots[slot] = index + 1;
+
+			if (size > slots.length / 2) {
+				rehash();
+			}
+			return index;
+		}
+
+		/**
+		 * @param position
+		 *            0 for the subject, 1 for the predicate, 2 for the object
+		 */
+		int getId(int index, int position) {
+			return ids[3 * index + position];
+		}
+
+		synchronized int size() {
+			return size;
+		}
+
+		private void rehash() {
+			int[] ids = this.ids;
+			slots = new int[slots.length * 2];
+			int mask = slots.length - 1;
+			for (int index = 0; index < size; index++) {
+				int slot = (hash(ids[3 * index], ids[3 * index + 1], ids[3 * index + 2]) >>> STRIPE_BITS) & mask;
+				while (slots[slot] != 0) {
+					slot = (slot + 1) & mask;
+				}
+				slots[slot] = index + 1;
+			}
+		}
+	}
+}
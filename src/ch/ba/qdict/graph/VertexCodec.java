@@ -0,0 +1,98 @@
+package ch.ba.qdict.graph;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Maps vertices to primitive long keys and back, so graphs can be built from primitive keys without boxing.
+ * <p>
+ * Codecs may be shared between the partial graphs of a parallel ingestion and must therefore be thread-safe.
+ */
+public abstract class VertexCodec<T> {
+
+	/**
+	 * Codec for Integer vertices, e.g. significant IDs. The key is the int value itself.
+	 */
+	public static final VertexCodec<Integer> INTEGER = new VertexCodec<Integer>() {
+
+		@Override
+		public long encode(Integer vertex) {
+			return vertex.intValue();
+		}
+
+		@Override
+		public Integer decode(long key) {
+			return Integer.valueOf((int) key);
+		}
+
+		@Override
+		public int getKeySize() {
+			return 4;
+		}
+
+		@Override
+		public void writeKey(long key, ByteBuffer out) {
+			out.putInt((int) key);
+		}
+
+		@Override
+		public long readKey(ByteBuffer in) {
+			return in.getInt();
+		}
+	};
+
+	public abstract long encode(T vertex);
+
+	public abstract T decode(long key);
+
+	/**
+	 * @return Number of bytes {@link #writeKey(long, ByteBuffer)} writes for every key
+	 */
+	public int getKeySize() {
+		throw new UnsupportedOperationException("Keys of this codec can't be persisted");
+	}
+
+	/**
+	 * Write a key in a form another codec of the same kind can read back, e.g. in a later run.
+	 */
+	public void writeKey(long key, ByteBuffer out) {
+		throw new UnsupportedOperationException("Keys of this codec can't be persisted");
+	}
+
+	/**
+	 * Read a key written by {@link #writeKey(long, ByteBuffer)} and encode it with this codec.
+	 */
+	public long readKey(ByteBuffer in) {
+		throw new UnsupportedOperationException("Keys of this codec can't be persisted");
+	}
+
+	/**
+	 * @return Codec for arbitrary vertices that interns every vertex into a dense key
+	 */
+	public static <T> VertexCodec<T> interning() {
+		return new VertexCodec<T>() {
+
+			private final Map<T, Long> keys = new HashMap<T, Long>();
+			private final List<T> vertices = new ArrayList<T>();
+
+			@Override
+			public synchronized long encode(T vertex) {
+				Long key = keys.get(vertex);
+				if (key == null) {
+					key = Long.valueOf(vertices.size());
+					keys.put(vertex, key);
+					vertices.add(vertex);
+				}
+				return key;
+			}
+
+			@Override
+			public synchronized T decode(long key) {
+				return vertices.get((int) key);
+			}
+		};
+	}
+}
@@ -0,0 +1,101 @@
+package ch.ba.qdict.graph;
+
+/**
+ * Vertices of a trace graph without its edges: codec keys in vertex order and per-query vertex weights. This is all
+ * the lookup table and the dictionary need from a graph besides the partitions, so graphs whose edges are never held
+ * in memory (out-of-core mode) are handed on as a vertex table.
+ */
+public class VertexTable<T> {
+
+	private final VertexCodec<T> codec;
+	private final long[] vertexKeys;
+	private final QueryBitSet queryWeights;
+
+	private long numberOfEdges;
+
+	private volatile LongIntMap index;
+
+	/**
+	 * @param numberOfEdges
+	 *            Number of edges of the graph, -1 if not known yet
+	 */
+	VertexTable(VertexCodec<T> codec, long[] vertexKeys, QueryBitSet queryWeights, long numberOfEdges) {
+		this.codec = codec;
+		this.vertexKeys = vertexKeys;
+		this.queryWeights = queryWeights;
+		this.numberOfEdges = numberOfEdges;
+	}
+
+	public VertexCodec<T> getCodec() {
+		return codec;
+	}
+
+	public T getVertex(int vertex) {
+		return codec.decode(vertexKeys[vertex]);
+	}
+
+	/**
+	 * @return Codec key of the vertex, e.g. the significant ID for Integer vertices
+	 */
+	public long getVertexKey(int vertex) {
+		return vertexKeys[vertex];
+	}
+
+	long[] vertexKeys() {
+		return vertexKeys;
+	}
+
+	/**
+	 * @return Vertex id of the codec key, or -1 if the key is not a vertex. The index is built on first use.
+	 */
+	public int getVertexId(long key) {
+		LongIntMap vertexIds = index;
+		if (vertexIds == null) {
+			synchronized (this) {
+				vertexIds = index;
+				if (vertexIds == null) {
+					vertexIds = new LongIntMap(vertexKeys.length);
+					for (int v = 0; v < vertexKeys.length; v++) {
+						vertexIds.putIfAbsent(vertexKeys[v], v);
+					}
+					index = vertexIds;
+				}
+			}
+		}
+		return vertexIds.get(key);
+	}
+
+	public int getNumberOfVertices() {
+		return vertexKeys.length;
+	}
+
+	/**
+	 * @return Number of edges of the graph, -1 if not known yet
+	 */
+	public long getNumberOfEdges() {
+		return numberOfEdges;
+	}
+
+	public void setNumberOfEdges(long numberOfEdges) {
+		this.numberOfEdges = numberOfEdges;
+	}
+
+	public int getNumberOfQueries() {
+		return queryWeights.getNumberOfQueries();
+	}
+
+	/**
+	 * @return 1 if the vertex is touched by a trace of the query, 0 otherwise
+	 */
+	public int getQueryWeight(int vertex, int queryId) {
+		return queryWeights.get(vertex, queryId) ? 1 : 0;
+	}
+
+	public QueryBitSet getQueryWeights() {
+		return queryWeights;
+	}
+
+	public boolean isEmpty() {
+		return vertexKeys.length == 0;
+	}
+}
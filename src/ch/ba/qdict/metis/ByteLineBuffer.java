@@ -0,0 +1,87 @@
+package ch.ba.qdict.metis;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+
+/**
+ * Growable byte buffer that formats ASCII text, in particular ints, without creating Strings.
+ */
+class ByteLineBuffer {
+
+	private byte[] bytes;
+	private int size;
+
+	ByteLineBuffer(int initialCapacity) {
+		this.bytes = new byte[initialCapacity];
+	}
+
+	/**
+	 * Make room for at least n more bytes.
+	 */
+	void ensure(int n) {
+		if (size + n > bytes.length) {
+			bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + n));
+		}
+	}
+
+	byte[] array() {
+		return bytes;
+	}
+
+	int size() {
+		return size;
+	}
+
+	void setSize(int size) {
+		this.size = size;
+	}
+
+	void append(char c) {
+		ensure(1);
+		bytes[size++] = (byte) c;
+	}
+
+	void append(String ascii) {
+		ensure(ascii.length());
+		for (int i = 0; i < ascii.length(); i++) {
+			bytes[size++] = (byte) ascii.charAt(i);
+		}
+	}
+
+	void append(int value) {
+		ensure(11);
+		if (value < 0) {
+			if (value == Integer.MIN_VALUE) {
+				append(Integer.toString(value));
+				return;
+			}
+			bytes[size++] = '-';
+			value = -value;
+		}
+
+		int digits = 1;
+		for (int v = value; v >= 10; v /= 10) {
+			digits++;
+		}
+
+		int pos = size + digits;
+		do {
+			bytes[--pos] = (byte) ('0' + value % 10);
+			value /= 10;
+		} while (value != 0);
+		size += digits;
+	}
+
+	void writeTo(WritableByteChannel channel) throws IOException {
+		ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, size);
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+
+	void clear() {
+		size = 0;
+	}
+}
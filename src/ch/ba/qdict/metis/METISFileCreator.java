@@ -1,91 +1,52 @@
 package ch.ba.qdict.metis;
 
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.util.Map;
-import java.util.concurrent.TimeUnit;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
 
-import ch.ba.qdict.graph.QueryGraph;
+import ch.ba.qdict.graph.CSRGraph;
+import ch.ba.qdict.graph.EdgeRunMerger;
+import ch.ba.qdict.graph.VertexTable;
+import ch.ba.qdict.metrics.Phase;
+import ch.ba.qdict.metrics.RunMetrics;
 
 public class METISFileCreator {
 	
-	public static String createLookupMetisFile(QueryGraph<String> traceGraph, String metisFileName, int noNodes, int noQueries, String outPath) {
-		
+	/**
+	 * @param noNodeVertices
+	 *            Number of leading node vertices, 0 if the graph has none
+	 */
+	public static String createMetisFile(CSRGraph<?> traceGraph, int noNodeVertices, String metisFileName, String outPath, int writerThreads) {
+
 		System.out.println("Creating METIS Input File...");
 		
-		long metisCreateStartTime = System.nanoTime();
+		Phase phase = RunMetrics.startPhase("metis-file", metisFileName);
 
-		// Every vertex needs a number. ith vertex is represented by (i+1)th line in the input file. 1 based.
-		Map<String, Integer> vertexNumberMap = traceGraph.getVertexNumberMap();
-		
-		int v = traceGraph.getNumberOfVertices();
-		int m = traceGraph.getNumberOfEdges();
+		METISGraphWriter graphWriter = new METISGraphWriter(traceGraph, noNodeVertices);
 
 		File metisFile = new File(outPath + metisFileName + ".metis");
 
-		BufferedWriter metisWriter = null;
+		FileChannel metisChannel = null;
 		try {
 			if (metisFile.exists()) {
 				System.out.println("\tMETIS input file with name: " + metisFileName
 						+ " already exists. Adding timestamp to new filename.");
 				metisFile = new File(metisFile.getAbsolutePath() + "_" + System.currentTimeMillis() + ".metis");
 			}
-			metisFile.createNewFile();
-
-			metisWriter = new BufferedWriter(new FileWriter(metisFile));
-
-			// Format: #Vertices #Edges fmt ncon
-			// fmt: 011 = No vert. size, has vert. weights, has edge weights
-			// ncon: X = X vertex weights
-			metisWriter.write(v + " " + m + " 011 " + (1 + noQueries));
-			metisWriter.newLine();
-
-			int i = 0;
-			for (Map.Entry<String, Map<String, Integer>> vertex : traceGraph.getTraceGraph().entrySet()) {
-
-				Map<String, Integer> edges = vertex.getValue();
-
-				// Format for (i+1)th line:
-				// vertex_weight_1 vertex_weight_2 ... dest_vertex_number_1 edge_weight_1 dest_vertex_number_2 edge_weight_2 ...
-
-				if (i < noNodes) { // First noNodes entries are node vertices; Should be evenly partitioned over all partitions
-					metisWriter.write(1 + " ");
-					
-					for (int j = 0; j < noQueries; j++) {
-						metisWriter.write("0 ");
-					}
-				} else { // Index vertices should be partitioned multi-constrained
-					metisWriter.write("0 ");
-					
-					Integer[] vertWeights = traceGraph.getWeightMap().get(vertex.getKey());
-
-					for (Integer vWeight : vertWeights) {
-						if (vWeight == null) {
-							vWeight = new Integer(0);
-						}
-						metisWriter.write(vWeight.toString() + " ");
-					}
-				}
 
-				// Write all edges from vertex
-				for (Map.Entry<String, Integer> currEdge : edges.entrySet()) {
-					int destVertexNumber = vertexNumberMap.get(currEdge.getKey());
-					metisWriter.write(destVertexNumber + " " + currEdge.getValue() + " ");
-				}
+			metisChannel = FileChannel.open(metisFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+					StandardOpenOption.TRUNCATE_EXISTING);
 
-				if (++i < v) { // Be careful with new lines! Line = vertex!
-					metisWriter.newLine();
-				}
-			}
+			graphWriter.write(metisChannel, writerThreads);
 		} catch (IOException e) {
 			e.printStackTrace();
 			System.exit(0);
 		} finally {
 			try {
-				if (metisWriter != null) {
-					metisWriter.close();
+				if (metisChannel != null) {
+					metisChannel.close();
 				}
 			} catch (IOException ex) {
 				ex.printStackTrace();
@@ -93,81 +54,65 @@ public class METISFileCreator {
 			}
 		}
 
-		long metisCreateEndTime = System.nanoTime();
-		long metisCreateTime = metisCreateEndTime - metisCreateStartTime;
+		phase.addBytesWritten(metisFile.length());
+		phase.addLines(traceGraph.getNumberOfVertices() + 1);
+		phase.setGraphSize(traceGraph.getNumberOfVertices(), traceGraph.getNumberOfEdges());
+		long metisCreateTime = phase.end();
 
-		System.out.println("\tExecution time: " + TimeUnit.MILLISECONDS.convert(metisCreateTime, TimeUnit.NANOSECONDS)
-				+ " ms");
+		System.out.println("\tFile size: " + metisFile.length() + " bytes");
+		System.out.println("\tExecution time: " + metisCreateTime + " ms");
 
 		return metisFile.getAbsolutePath();
 	}
 
-	public static String createDictMetisFile(QueryGraph<Integer> traceGraph, String metisFileName, int noNodes, int noQueries, String outPath) {
+	/**
+	 * Out-of-core variant of {@link #createMetisFile(CSRGraph, int, String, String, int)}: the edges are merged from
+	 * run files and streamed into the METIS file. The number of edges of the vertex table is set afterwards.
+	 *
+	 * @param runs
+	 *            Edge run files in trace order
+	 * @param spillFolder
+	 *            Folder for intermediate runs of the merge
+	 */
+	public static String createMetisFile(VertexTable<?> vertices, int noNodeVertices, List<File> runs, File spillFolder,
+			String metisFileName, String outPath) {
 
-		System.out.println("Creating METIS Input File...");
-		
-		long metisCreateStartTime = System.nanoTime();
+		System.out.println("Creating METIS Input File (out-of-core)...");
 
-		// Every vertex needs a number. ith vertex is represented by (i+1)th line in the input file. 1 based.
-		Map<Integer, Integer> vertexNumberMap = traceGraph.getVertexNumberMap();
-		
-		int v = traceGraph.getNumberOfVertices();
-		int m = traceGraph.getNumberOfEdges();
+		Phase phase = RunMetrics.startPhase("metis-file", metisFileName);
 
 		File metisFile = new File(outPath + metisFileName + ".metis");
 
-		BufferedWriter metisWriter = null;
+		long runBytes = 0;
+		for (File run : runs) {
+			runBytes += run.length();
+		}
+
+		FileChannel metisChannel = null;
+		EdgeRunMerger edges = null;
 		try {
 			if (metisFile.exists()) {
 				System.out.println("\tMETIS input file with name: " + metisFileName
 						+ " already exists. Adding timestamp to new filename.");
 				metisFile = new File(metisFile.getAbsolutePath() + "_" + System.currentTimeMillis() + ".metis");
 			}
-			metisFile.createNewFile();
 
-			metisWriter = new BufferedWriter(new FileWriter(metisFile));
+			metisChannel = FileChannel.open(metisFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+					StandardOpenOption.TRUNCATE_EXISTING);
 
-			// Format: #Vertices #Edges fmt ncon
-			// fmt: 011 = No vert. size, has vert. weights, has edge weights
-			// ncon: X = X vertex weights
-			metisWriter.write(v + " " + m + " 011 " + noQueries);
-			metisWriter.newLine();
-
-			int i = 0;
-			for (Map.Entry<Integer, Map<Integer, Integer>> vertex : traceGraph.getTraceGraph().entrySet()) {
-
-				Map<Integer, Integer> edges = vertex.getValue();
-
-				// Format for (i+1)th line:
-				// vertex_weight_1 vertex_weight_2 ... dest_vertex_number_1 edge_weight_1 dest_vertex_number_2 edge_weight_2 ...
-
-				// Index vertices should be partitioned multi-constrained
-				Integer[] vertWeights = traceGraph.getWeightMap().get(vertex.getKey());
-
-				for (Integer vWeight : vertWeights) {
-					if (vWeight == null) {
-						vWeight = new Integer(0);
-					}
-					metisWriter.write(vWeight.toString() + " ");
-				}
-
-				// Write all edges from vertex
-				for (Map.Entry<Integer, Integer> currEdge : edges.entrySet()) {
-					int destVertexNumber = vertexNumberMap.get(currEdge.getKey());
-					metisWriter.write(destVertexNumber + " " + currEdge.getValue() + " ");
-				}
-
-				if (++i < v) { // Be careful with new lines! Line = vertex!
-					metisWriter.newLine();
-				}
-			}
+			System.out.println("\tMerging " + runs.size() + " edge runs");
+			edges = new EdgeRunMerger(runs, spillFolder);
+			vertices.setNumberOfEdges(METISGraphWriter.write(vertices, noNodeVertices, edges, metisChannel));
 		} catch (IOException e) {
 			e.printStackTrace();
 			System.exit(0);
 		} finally {
 			try {
-				if (metisWriter != null) {
-					metisWriter.close();
+				if (edges != null) {
+					edges.close();
+				}
+				if (metisChannel != null) {
+					metisChannel.close();
 				}
 			} catch (IOException ex) {
 				ex.printStackTrace();
@@ -175,11 +120,15 @@ public class METISFileCreator {
 			}
 		}
 
-		long metisCreateEndTime = System.nanoTime();
-		long metisCreateTime = metisCreateEndTime - metisCreateStartTime;
+		phase.addBytesRead(runBytes);
+		phase.addBytesWritten(metisFile.length());
+		phase.addLines(vertices.getNumberOfVertices() + 1);
+		phase.setGraphSize(vertices.getNumberOfVertices(), vertices.getNumberOfEdges());
+		long metisCreateTime = phase.end();
 
-		System.out.println("\tExecution time: " + TimeUnit.MILLISECONDS.convert(metisCreateTime, TimeUnit.NANOSECONDS)
-				+ " ms");
+		System.out.println("\t#Edges: " + vertices.getNumberOfEdges());
+		System.out.println("\tFile size: " + metisFile.length() + " bytes");
+		System.out.println("\tExecution time: " + metisCreateTime + " ms");
 
 		return metisFile.getAbsolutePath();
 	}
@@ -0,0 +1,213 @@
+package ch.ba.qdict.metis;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import ch.ba.qdict.graph.CSRGraph;
+import ch.ba.qdict.graph.ConstraintWeights;
+import ch.ba.qdict.graph.EdgeRunMerger;
+import ch.ba.qdict.graph.VertexTable;
+
+/**
+ * Writes a {@link CSRGraph} in the METIS graph file format.
+ * <p>
+ * Lines are formatted straight into byte buffers and written through a FileChannel. With more than one thread, blocks
+ * of vertices are formatted in parallel and written in vertex order; at most two blocks per thread are held in memory.
+ * Graphs whose edges are in run files are streamed with {@link #write(VertexTable, int, EdgeRunMerger, FileChannel)}.
+ */
+public class METISGraphWriter {
+
+	private static final int BLOCK_VERTICES = 1 << 14;
+	private static final int FLUSH_SIZE = 1 << 20;
+
+	// Header of streamed graphs; written first as a placeholder and overwritten once the edges are counted
+	private static final int HEADER_SIZE = 64;
+
+	private final CSRGraph<?> graph;
+	private final ConstraintWeights weights;
+
+	/**
+	 * @param graph
+	 *            Graph to write
+	 * @param noNodeVertices
+	 *            Number of leading node vertices. If greater than 0, an extra first constraint balances the node
+	 *            vertices over all partitions and the other vertices get 0 for it.
+	 */
+	public METISGraphWriter(CSRGraph<?> graph, int noNodeVertices) {
+		this.graph = graph;
+		this.weights = new ConstraintWeights(graph, noNodeVertices);
+	}
+
+	public int getNumberOfConstraints() {
+		return weights.getNumberOfConstraints();
+	}
+
+	public void write(FileChannel channel, int threads) throws IOException {
+
+		int v = graph.getNumberOfVertices();
+
+		// Format: #Vertices #Edges fmt ncon
+		// fmt: 011 = No vert. size, has vert. weights, has edge weights
+		// ncon: X = X vertex weights
+		ByteLineBuffer header = new ByteLineBuffer(64);
+		header.append(v);
+		header.append(' ');
+		header.append(graph.getNumberOfEdges());
+		header.append(" 011 ");
+		header.append(getNumberOfConstraints());
+		header.append('\n');
+		header.writeTo(channel);
+
+		if (threads <= 1) {
+			ByteLineBuffer out = new ByteLineBuffer(2 * FLUSH_SIZE);
+			for (int from = 0; from < v; from += BLOCK_VERTICES) {
+				formatVertices(from, Math.min(v, from + BLOCK_VERTICES), out);
+				if (out.size() >= FLUSH_SIZE) {
+					out.writeTo(channel);
+					out.clear();
+				}
+			}
+			out.writeTo(channel);
+			return;
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			Deque<Future<ByteLineBuffer>> pending = new ArrayDeque<Future<ByteLineBuffer>>();
+			int from = 0;
+			while (from < v || !pending.isEmpty()) {
+				while (from < v && pending.size() < 2 * threads) {
+					final int blockFrom = from;
+					final int blockTo = Math.min(v, from + BLOCK_VERTICES);
+					pending.add(executor.submit(new Callable<ByteLineBuffer>() {
+						@Override
+						public ByteLineBuffer call() {
+							ByteLineBuffer out = new ByteLineBuffer(FLUSH_SIZE);
+							formatVertices(blockFrom, blockTo, out);
+							return out;
+						}
+					}));
+					from = blockTo;
+				}
+				pending.poll().get().writeTo(channel);
+			}
+		} catch (InterruptedException e) {
+			throw new IOException(e);
+		} catch (ExecutionException e) {
+			throw new IOException(e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Format the lines of vertices [from, to).
+	 */
+	void formatVertices(int from, int to, ByteLineBuffer out) {
+
+		int v = graph.getNumberOfVertices();
+		int ncon = weights.getNumberOfConstraints();
+		int[] xadj = graph.getXadj();
+		int[] adjncy = graph.getAdjncy();
+		int[] adjwgt = graph.getAdjwgt();
+
+		for (int i = from; i < to; i++) {
+
+			// Format for (i+1)th line:
+			// vertex_weight_1 vertex_weight_2 ... dest_vertex_number_1 edge_weight_1 dest_vertex_number_2 edge_weight_2 ...
+
+			out.ensure(2 * ncon);
+			out.setSize(weights.writeColumns(i, out.array(), out.size()));
+
+			// Write all edges from vertex; vertex v gets number v+1
+			for (int e = xadj[i]; e < xadj[i + 1]; e++) {
+				out.append(adjncy[e] + 1);
+				out.append(' ');
+				out.append(adjwgt[e]);
+				out.append(' ');
+			}
+
+			if (i + 1 < v) { // Be careful with new lines! Line = vertex!
+				out.append('\n');
+			}
+		}
+	}
+
+	/**
+	 * Write a graph whose edges are merged from sorted run files. Neighbours are ordered by vertex id. The number of
+	 * edges is only known at the end, so the header is padded with spaces to a fixed width and rewritten last.
+	 *
+	 * @param edges
+	 *            Both directions of every edge, ordered by source and dest
+	 * @return Number of undirected edges
+	 */
+	public static long write(VertexTable<?> vertices, int noNodeVertices, EdgeRunMerger edges, FileChannel channel)
+			throws IOException {
+
+		int v = vertices.getNumberOfVertices();
+		ConstraintWeights weights = new ConstraintWeights(vertices, noNodeVertices);
+		int ncon = weights.getNumberOfConstraints();
+
+		ByteLineBuffer header = new ByteLineBuffer(HEADER_SIZE);
+		formatHeader(v, 0, ncon, header);
+		header.writeTo(channel);
+
+		long noAdjacencies = 0;
+		boolean hasEdge = edges.next();
+
+		ByteLineBuffer out = new ByteLineBuffer(2 * FLUSH_SIZE);
+		for (int i = 0; i < v; i++) {
+			out.ensure(2 * ncon);
+			out.setSize(weights.writeColumns(i, out.array(), out.size()));
+
+			while (hasEdge && edges.getSource() == i) {
+				out.append(edges.getDest() + 1);
+				out.append(' ');
+				out.append(edges.getWeight());
+				out.append(' ');
+				noAdjacencies++;
+				hasEdge = edges.next();
+			}
+
+			if (i + 1 < v) { // Be careful with new lines! Line = vertex!
+				out.append('\n');
+			}
+			if (out.size() >= FLUSH_SIZE) {
+				out.writeTo(channel);
+				out.clear();
+			}
+		}
+		out.writeTo(channel);
+
+		if (hasEdge) {
+			throw new IOException("Edge of vertex " + edges.getSource() + " not in graph of " + v + " vertices");
+		}
+
+		long noEdges = noAdjacencies / 2;
+		header.clear();
+		formatHeader(v, noEdges, ncon, header);
+		channel.position(0);
+		header.writeTo(channel);
+
+		return noEdges;
+	}
+
+	private static void formatHeader(int v, long noEdges, int ncon, ByteLineBuffer header) {
+		header.append(v);
+		header.append(' ');
+		header.append(Long.toString(noEdges));
+		header.append(" 011 ");
+		header.append(ncon);
+		while (header.size() < HEADER_SIZE - 1) {
+			header.append(' ');
+		}
+		header.append('\n');
+	}
+}
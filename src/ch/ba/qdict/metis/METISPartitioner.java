@@ -0,0 +1,86 @@
+package ch.ba.qdict.metis;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ProcessBuilder.Redirect;
+
+import ch.ba.qdict.graph.CSRGraph;
+import ch.ba.qdict.metrics.Phase;
+import ch.ba.qdict.metrics.RunMetrics;
+import ch.ba.qdict.partition.Partitioner;
+
+/**
+ * Partitions a graph with an external gpmetis process: writes the METIS input file, runs gpmetis on it and reads the
+ * partition file back. Both files are deleted afterwards.
+ */
+public class METISPartitioner implements Partitioner {
+
+	private final String metisBinaryPath;
+	private final String outPath;
+	private final int writerThreads;
+
+	public METISPartitioner(String metisBinaryPath, String outPath, int writerThreads) {
+		this.metisBinaryPath = metisBinaryPath;
+		this.outPath = outPath;
+		this.writerThreads = writerThreads;
+	}
+
+	@Override
+	public int[] partition(CSRGraph<?> graph, int noNodeVertices, int noParts, String graphName) {
+
+		System.out.println("Generating METIS Input File");
+		String metisFilePath = METISFileCreator.createMetisFile(graph, noNodeVertices, graphName, outPath, writerThreads);
+
+		return partitionMetisFile(metisFilePath, graph.getNumberOfVertices(), graph.getNumberOfEdges(), noParts);
+	}
+
+	/**
+	 * Run gpmetis on an existing METIS input file, e.g. one streamed from edge runs, and read the partition file back.
+	 * Both files are deleted afterwards.
+	 *
+	 * @return Partition of every vertex
+	 */
+	public int[] partitionMetisFile(String metisFilePath, int noVertices, long noEdges, int noParts) {
+
+		System.out.println("Running METIS");
+		System.out.println("\tMETIS Execution output: ");
+		runMetis(metisFilePath, Integer.toString(noParts), noVertices, noEdges);
+
+		File metisInpFile = new File(metisFilePath);
+		File metisOutFile = new File(metisFilePath + ".part." + Integer.toString(noParts));
+
+		int[] partitions = PartitionFileReader.readPartitions(metisOutFile.getPath(), noVertices, writerThreads);
+
+		metisInpFile.delete();
+		metisOutFile.delete();
+
+		return partitions;
+	}
+
+	private void runMetis(String metisFilePath, String noParts, int noVertices, long noEdges) {
+
+		ProcessBuilder metis = new ProcessBuilder(metisBinaryPath, metisFilePath, noParts);
+		metis.redirectOutput(Redirect.INHERIT);
+		metis.redirectError(Redirect.INHERIT);
+
+		try {
+			System.out.println("");
+			Phase phase = RunMetrics.startPhase("metis-run", new File(metisFilePath).getName());
+
+			Process metisP = metis.start();
+			metisP.waitFor();
+
+			phase.setGraphSize(noVertices, noEdges);
+			long metisTime = phase.end();
+
+			System.out.println("");
+			System.out.println("\tExecution time: " + metisTime + " ms");
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+			System.exit(0);
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.exit(0);
+		}
+	}
+}
@@ -0,0 +1,176 @@
+package ch.ba.qdict.metis;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+import ch.ba.qdict.metrics.Phase;
+import ch.ba.qdict.metrics.RunMetrics;
+import ch.ba.qdict.partition.BlockLoop;
+
+/**
+ * Reads a METIS partition output file (one partition number per line, line i for vertex i).
+ * <p>
+ * The file is memory mapped and parsed byte by byte into an int[] without creating Strings. With more than one thread
+ * the file is split into blocks at line breaks; lines are counted per block first, so every block knows the vertex of
+ * its first line and all blocks are parsed in parallel. A blank or non-numeric line is an error.
+ */
+public class PartitionFileReader {
+
+	private static final int MAP_WINDOW = 1 << 30;
+
+	// Blocks are not made smaller than this, splitting small files doesn't pay off
+	private static final int MIN_BLOCK_SIZE = 1 << 20;
+
+	/**
+	 * @param noVertices
+	 *            Number of vertices of the partitioned graph
+	 * @return Partition of every vertex; shorter than noVertices if the file has fewer lines
+	 */
+	public static int[] readPartitions(String partitionFilePath, int noVertices) {
+		return readPartitions(partitionFilePath, noVertices, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * @param noVertices
+	 *            Number of vertices of the partitioned graph
+	 * @param threads
+	 *            Threads parsing the file
+	 * @return Partition of every vertex; shorter than noVertices if the file has fewer lines
+	 */
+	public static int[] readPartitions(String partitionFilePath, final int noVertices, int threads) {
+
+		Phase phase = RunMetrics.startPhase("partition-read", new File(partitionFilePath).getName());
+
+		final int[] partitions = new int[noVertices];
+		int noLines = 0;
+
+		FileChannel channel = null;
+		ForkJoinPool pool = threads > 1 ? new ForkJoinPool(threads) : null;
+		try {
+			channel = FileChannel.open(new File(partitionFilePath).toPath(), StandardOpenOption.READ);
+			final long length = channel.size();
+			final MappedByteBuffer[] windows = map(channel, length);
+
+			// Blocks start right after a line break
+			int noBlocks = (int) Math.max(1, Math.min(4L * threads, length / MIN_BLOCK_SIZE));
+			final long[] blockStarts = new long[noBlocks + 1];
+			for (int b = 1; b < noBlocks; b++) {
+				long pos = Math.max(blockStarts[b - 1], length * b / noBlocks);
+				while (pos > 0 && pos < length && getByte(windows, pos - 1) != '\n') {
+					pos++;
+				}
+				blockStarts[b] = pos;
+			}
+			blockStarts[noBlocks] = length;
+
+			// The last line may lack a line break
+			final boolean unterminated = length > 0 && getByte(windows, length - 1) != '\n';
+
+			final int[] firstLines = new int[noBlocks + 1];
+			BlockLoop.run(pool, noBlocks, 1, new BlockLoop.Body() {
+				@Override
+				public void run(int fromBlock, int toBlock) {
+					for (int b = fromBlock; b < toBlock; b++) {
+						int lines = 0;
+						for (long pos = blockStarts[b]; pos < blockStarts[b + 1]; pos++) {
+							if (getByte(windows, pos) == '\n') {
+								lines++;
+							}
+						}
+						firstLines[b + 1] = lines;
+					}
+				}
+			});
+			firstLines[noBlocks] += unterminated ? 1 : 0;
+			for (int b = 0; b < noBlocks; b++) {
+				firstLines[b + 1] = (int) Math.min(Integer.MAX_VALUE, (long) firstLines[b] + firstLines[b + 1]);
+			}
+
+			// First malformed line of every block, -1 if there is none
+			final int[] malformedLines = new int[noBlocks];
+			BlockLoop.run(pool, noBlocks, 1, new BlockLoop.Body() {
+				@Override
+				public void run(int fromBlock, int toBlock) {
+					for (int b = fromBlock; b < toBlock; b++) {
+						malformedLines[b] = -1;
+						int line = firstLines[b];
+						int partitionNumber = 0;
+						boolean digits = false;
+						boolean nonDigits = false;
+						for (long pos = blockStarts[b]; pos < blockStarts[b + 1] && line < noVertices; pos++) {
+							byte c = getByte(windows, pos);
+							if (c == '\n') {
+								if ((!digits || nonDigits) && malformedLines[b] < 0) {
+									malformedLines[b] = line;
+								}
+								partitions[line++] = partitionNumber;
+								partitionNumber = 0;
+								digits = false;
+								nonDigits = false;
+							} else if (c >= '0' && c <= '9') {
+								partitionNumber = partitionNumber * 10 + (c - '0');
+								digits = true;
+							} else {
+								nonDigits = true;
+							}
+						}
+						if (line < noVertices && line < firstLines[b + 1]) { // Last line without line break
+							if ((!digits || nonDigits) && malformedLines[b] < 0) {
+								malformedLines[b] = line;
+							}
+							partitions[line] = partitionNumber;
+						}
+					}
+				}
+			});
+			noLines = Math.min(noVertices, firstLines[noBlocks]);
+
+			for (int b = 0; b < noBlocks; b++) {
+				if (malformedLines[b] >= 0) {
+					throw new IOException("Line " + (malformedLines[b] + 1) + " of " + partitionFilePath
+							+ " is not a partition number");
+				}
+			}
+
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.exit(0);
+		} finally {
+			if (pool != null) {
+				pool.shutdown();
+			}
+			try {
+				if (channel != null) {
+					channel.close();
+				}
+			} catch (IOException e) {
+				e.printStackTrace();
+				System.exit(0);
+			}
+		}
+
+		phase.addBytesRead(new File(partitionFilePath).length());
+		phase.addLines(noLines);
+		phase.end();
+
+		return noLines < noVertices ? Arrays.copyOf(partitions, noLines) : partitions;
+	}
+
+	private static byte getByte(MappedByteBuffer[] windows, long pos) {
+		return windows[(int) (pos / MAP_WINDOW)].get((int) (pos % MAP_WINDOW));
+	}
+
+	private static MappedByteBuffer[] map(FileChannel channel, long length) throws IOException {
+		MappedByteBuffer[] windows = new MappedByteBuffer[(int) ((length + MAP_WINDOW - 1) / MAP_WINDOW)];
+		for (int w = 0; w < windows.length; w++) {
+			long from = (long) w * MAP_WINDOW;
+			windows[w] = channel.map(FileChannel.MapMode.READ_ONLY, from, Math.min(MAP_WINDOW, length - from));
+		}
+		return windows;
+	}
+}
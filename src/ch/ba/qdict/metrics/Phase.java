@@ -0,0 +1,139 @@
+package ch.ba.qdict.metrics;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measurements of one phase of a run, e.g. reading the traces or writing a lookup table. Started with
+ * {@link RunMetrics#startPhase(String, String)}; counters may be updated from several threads until the phase ends.
+ */
+public class Phase {
+
+	private final String name;
+	private final String detail;
+	private final PhaseEvent event = new PhaseEvent();
+
+	private final long startTime;
+	private final long startCpuTime;
+
+	private long wallTime = -1;
+	private long cpuTime = -1;
+	private long bytesRead;
+	private long bytesWritten;
+	private long lines;
+	private long vertices = -1;
+	private long edges = -1;
+	private long peakHeapBound;
+
+	Phase(String name, String detail) {
+		this.name = name;
+		this.detail = detail;
+		this.event.begin();
+		this.startCpuTime = RunMetrics.getProcessCpuTime();
+		this.startTime = System.nanoTime();
+	}
+
+	public synchronized void addBytesRead(long bytes) {
+		bytesRead += bytes;
+	}
+
+	public synchronized void addBytesWritten(long bytes) {
+		bytesWritten += bytes;
+	}
+
+	public synchronized void addLines(long count) {
+		lines += count;
+	}
+
+	public synchronized void setGraphSize(long noVertices, long noEdges) {
+		vertices = noVertices;
+		edges = noEdges;
+	}
+
+	/**
+	 * End the phase, emit its JFR event and add it to the run report.
+	 *
+	 * @return Wall time in ms
+	 */
+	public long end() {
+		long endTime = System.nanoTime();
+		long endCpuTime = RunMetrics.getProcessCpuTime();
+
+		synchronized (this) {
+			wallTime = endTime - startTime;
+			cpuTime = (startCpuTime >= 0 && endCpuTime >= 0) ? endCpuTime - startCpuTime : -1;
+			peakHeapBound = RunMetrics.getPeakHeapBound();
+
+			event.end();
+			if (event.shouldCommit()) {
+				event.phase = name;
+				event.detail = detail;
+				event.cpuTime = cpuTime;
+				event.bytesRead = bytesRead;
+				event.bytesWritten = bytesWritten;
+				event.lines = lines;
+				event.linesPerSecond = getLinesPerSecond();
+				event.vertices = vertices;
+				event.edges = edges;
+				event.peakHeapBound = peakHeapBound;
+				event.commit();
+			}
+		}
+
+		RunMetrics.addPhase(this);
+		return getWallTimeMillis();
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public String getDetail() {
+		return detail;
+	}
+
+	public synchronized long getWallTimeMillis() {
+		return TimeUnit.MILLISECONDS.convert(wallTime, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * @return Process CPU time in ms, -1 if the JVM doesn't provide it
+	 */
+	public synchronized long getCpuTimeMillis() {
+		return cpuTime < 0 ? -1 : TimeUnit.MILLISECONDS.convert(cpuTime, TimeUnit.NANOSECONDS);
+	}
+
+	public synchronized long getBytesRead() {
+		return bytesRead;
+	}
+
+	public synchronized long getBytesWritten() {
+		return bytesWritten;
+	}
+
+	public synchronized long getLines() {
+		return lines;
+	}
+
+	public synchronized double getLinesPerSecond() {
+		return (wallTime > 0) ? lines * 1e9 / wallTime : 0;
+	}
+
+	/**
+	 * @return Number of vertices of the graph of the phase, -1 if it has no graph
+	 */
+	public synchronized long getVertices() {
+		return vertices;
+	}
+
+	public synchronized long getEdges() {
+		return edges;
+	}
+
+	/**
+	 * @return Upper bound of the peak heap usage of the run when the phase ended, see
+	 *         {@link RunMetrics#getPeakHeapBound()}
+	 */
+	public synchronized long getPeakHeapBound() {
+		return peakHeapBound;
+	}
+}
@@ -0,0 +1,58 @@
+package ch.ba.qdict.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * JFR event of a finished {@link Phase}; the event duration is the wall time of the phase. Only recorded while a
+ * flight recording is running, e.g. with -XX:StartFlightRecording.
+ */
+@Name("ch.ba.qdict.Phase")
+@Label("Query Trace Tool Phase")
+@Category("Query Trace Tool")
+@Description("Phase of a query trace tool run")
+@StackTrace(false)
+class PhaseEvent extends Event {
+
+	@Label("Phase")
+	String phase;
+
+	@Label("Detail")
+	String detail;
+
+	@Label("CPU Time")
+	@Description("Process CPU time during the phase, including concurrently running phases")
+	@Timespan(Timespan.NANOSECONDS)
+	long cpuTime;
+
+	@Label("Bytes Read")
+	@DataAmount
+	long bytesRead;
+
+	@Label("Bytes Written")
+	@DataAmount
+	long bytesWritten;
+
+	@Label("Lines")
+	long lines;
+
+	@Label("Lines per Second")
+	double linesPerSecond;
+
+	@Label("Vertices")
+	long vertices;
+
+	@Label("Edges")
+	long edges;
+
+	@Label("Peak Heap Bound")
+	@Description("Sum of the peak usages of the heap memory pools, an upper bound of the peak heap usage of the run")
+	@DataAmount
+	long peakHeapBound;
+}
@@ -0,0 +1,163 @@
+package ch.ba.qdict.metrics;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Phases of the current run and the JSON run report.
+ * <p>
+ * Report format: { "startTime", "wallTimeMs", "cpuTimeMs", "peakHeapBoundBytes", "parameters": {...}, "phases": [ {
+ * "phase", "detail", "wallTimeMs", "cpuTimeMs", "bytesRead", "bytesWritten", "lines", "linesPerSecond", "vertices",
+ * "edges", "peakHeapBoundBytes" } ] }, phases in the order they ended. CPU times are process CPU times, so phases
+ * running concurrently include each other's CPU time. Vertices and edges are -1 for phases without a graph. The peak
+ * heap is an upper bound, see {@link #getPeakHeapBound()}.
+ */
+public class RunMetrics {
+
+	private static final long startTime = System.nanoTime();
+	private static final long startMillis = System.currentTimeMillis();
+	private static final List<Phase> phases = new ArrayList<Phase>();
+
+	/**
+	 * @param name
+	 *            Phase, e.g. trace-read or metis-file
+	 * @param detail
+	 *            What the phase works on, e.g. a file name; may be null
+	 */
+	public static Phase startPhase(String name, String detail) {
+		return new Phase(name, detail);
+	}
+
+	static synchronized void addPhase(Phase phase) {
+		phases.add(phase);
+	}
+
+	public static synchronized List<Phase> getPhases() {
+		return new ArrayList<Phase>(phases);
+	}
+
+	/**
+	 * @return CPU time of the JVM process in ns, -1 if not available
+	 */
+	static long getProcessCpuTime() {
+		OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+		if (os instanceof com.sun.management.OperatingSystemMXBean) {
+			return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+		}
+		return -1;
+	}
+
+	/**
+	 * @return Sum of the peak usages of all heap memory pools. The pools peak at different times, so this is an upper
+	 *         bound of the peak heap usage, not the peak itself
+	 */
+	static long getPeakHeapBound() {
+		long peak = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP && pool.getPeakUsage() != null) {
+				peak += pool.getPeakUsage().getUsed();
+			}
+		}
+		return peak;
+	}
+
+	/**
+	 * Write the report of all phases ended so far.
+	 *
+	 * @param parameters
+	 *            Launch parameters of the run
+	 */
+	public static void writeReport(File reportFile, Map<?, ?> parameters) throws IOException {
+
+		long wallTime = System.nanoTime() - startTime;
+		long cpuTime = getProcessCpuTime();
+
+		BufferedWriter out = new BufferedWriter(new FileWriter(reportFile));
+		try {
+			out.write("{\n");
+			out.write("  \"startTime\": " + startMillis + ",\n");
+			out.write("  \"wallTimeMs\": " + TimeUnit.MILLISECONDS.convert(wallTime, TimeUnit.NANOSECONDS) + ",\n");
+			out.write("  \"cpuTimeMs\": " + (cpuTime < 0 ? -1 : TimeUnit.MILLISECONDS.convert(cpuTime, TimeUnit.NANOSECONDS))
+					+ ",\n");
+			out.write("  \"peakHeapBoundBytes\": " + getPeakHeapBound() + ",\n");
+
+			out.write("  \"parameters\": {");
+			Map<String, String> sortedParameters = new TreeMap<String, String>();
+			for (Map.Entry<?, ?> parameter : parameters.entrySet()) {
+				sortedParameters.put(String.valueOf(parameter.getKey()), String.valueOf(parameter.getValue()));
+			}
+			String separator = "\n";
+			for (Map.Entry<String, String> parameter : sortedParameters.entrySet()) {
+				out.write(separator + "    " + quote(parameter.getKey()) + ": " + quote(parameter.getValue()));
+				separator = ",\n";
+			}
+			out.write("\n  },\n");
+
+			out.write("  \"phases\": [");
+			separator = "\n";
+			for (Phase phase : getPhases()) {
+				out.write(separator);
+				out.write("    { \"phase\": " + quote(phase.getName()));
+				out.write(", \"detail\": " + (phase.getDetail() == null ? "null" : quote(phase.getDetail())));
+				out.write(", \"wallTimeMs\": " + phase.getWallTimeMillis());
+				out.write(", \"cpuTimeMs\": " + phase.getCpuTimeMillis());
+				out.write(", \"bytesRead\": " + phase.getBytesRead());
+				out.write(", \"bytesWritten\": " + phase.getBytesWritten());
+				out.write(", \"lines\": " + phase.getLines());
+				out.write(", \"linesPerSecond\": " + String.format(Locale.ROOT, "%.1f", phase.getLinesPerSecond()));
+				out.write(", \"vertices\": " + phase.getVertices());
+				out.write(", \"edges\": " + phase.getEdges());
+				out.write(", \"peakHeapBoundBytes\": " + phase.getPeakHeapBound() + " }");
+				separator = ",\n";
+			}
+			out.write("\n  ]\n");
+			out.write("}\n");
+		} finally {
+			out.close();
+		}
+	}
+
+	private static String quote(String value) {
+		StringBuilder quoted = new StringBuilder(value.length() + 2);
+		quoted.append('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+			case '"':
+				quoted.append("\\\"");
+				break;
+			case '\\':
+				quoted.append("\\\\");
+				break;
+			case '\n':
+				quoted.append("\\n");
+				break;
+			case '\r':
+				quoted.append("\\r");
+				break;
+			case '\t':
+				quoted.append("\\t");
+				break;
+			default:
+				if (c < 0x20) {
+					quoted.append(String.format("\\u%04x", (int) c));
+				} else {
+					quoted.append(c);
+				}
+			}
+		}
+		return quoted.append('"').toString();
+	}
+}
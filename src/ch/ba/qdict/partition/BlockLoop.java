@@ -0,0 +1,60 @@
+package ch.ba.qdict.partition;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Runs a loop over [0, n) in blocks of at least grain items on a fork-join pool, or inline without a pool.
+ */
+public final class BlockLoop {
+
+	public interface Body {
+		void run(int from, int to);
+	}
+
+	private BlockLoop() {
+	}
+
+	public static void run(ForkJoinPool pool, int n, int grain, Body body) {
+		if (pool == null || pool.getParallelism() <= 1 || n <= grain) {
+			body.run(0, n);
+			return;
+		}
+		pool.invoke(new BlockTask(body, 0, n, Math.max(1, grain)));
+	}
+
+	/**
+	 * @return Grain that splits n items into about four blocks per thread, but no blocks smaller than minGrain
+	 */
+	public static int grain(ForkJoinPool pool, int n, int minGrain) {
+		int parallelism = pool == null ? 1 : pool.getParallelism();
+		return Math.max(minGrain, n / (4 * parallelism) + 1);
+	}
+
+	private static class BlockTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final Body body;
+		private final int from;
+		private final int to;
+		private final int grain;
+
+		BlockTask(Body body, int from, int to, int grain) {
+			this.body = body;
+			this.from = from;
+			this.to = to;
+			this.grain = grain;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= grain) {
+				body.run(from, to);
+				return;
+			}
+			int mid = (from + to) >>> 1;
+			invokeAll(new BlockTask(body, from, mid, grain), new BlockTask(body, mid, to, grain));
+		}
+	}
+}
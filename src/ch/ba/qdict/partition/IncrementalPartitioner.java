@@ -0,0 +1,202 @@
+package ch.ba.qdict.partition;
+
+import java.io.File;
+import java.io.IOException;
+
+import ch.ba.qdict.file.TraceStateStore;
+import ch.ba.qdict.graph.CSRGraph;
+import ch.ba.qdict.graph.ConstraintWeights;
+
+/**
+ * Keeps the partitions of the previous generation as long as they are still good enough for the grown graph.
+ * <p>
+ * The previous partitions are projected onto the current graph; new vertices join the part they are most connected
+ * to. The drift is how much the edge cut ratio and the largest part load of the projected partitions grew compared to
+ * when the graph was last partitioned. Only if the drift exceeds the threshold, the graph is partitioned again.
+ */
+public class IncrementalPartitioner implements Partitioner {
+
+	private final Partitioner partitioner;
+	private final TraceStateStore store;
+	private final long previousGeneration;
+	private final long generation;
+	private final double threshold;
+
+	/**
+	 * @param partitioner
+	 *            Partitioner used when the graph must be partitioned again
+	 * @param previousGeneration
+	 *            Generation the graphs were continued from, -1 if they were built from scratch
+	 * @param generation
+	 *            Generation the partitions are saved for
+	 * @param threshold
+	 *            Largest drift that is tolerated, e.g. 0.05
+	 */
+	public IncrementalPartitioner(Partitioner partitioner, TraceStateStore store, long previousGeneration,
+			long generation, double threshold) {
+		this.partitioner = partitioner;
+		this.store = store;
+		this.previousGeneration = previousGeneration;
+		this.generation = generation;
+		this.threshold = threshold;
+	}
+
+	@Override
+	public int[] partition(CSRGraph<?> graph, int noNodeVertices, int noParts, String graphName) {
+
+		ConstraintWeights weights = new ConstraintWeights(graph, noNodeVertices);
+		PartitionState previous = loadPrevious(graphName, noParts, graph.getNumberOfVertices());
+
+		PartitionState state = null;
+		if (previous != null) {
+			int[] projected = project(graph, previous.partitions, noParts);
+			double cutRatio = cutRatio(graph, projected);
+			double maxLoad = maxLoad(weights, projected, noParts);
+			double drift = Math.max(cutRatio - previous.baselineCutRatio, maxLoad - previous.baselineMaxLoad);
+
+			System.out.println("Checking Partition Drift of " + graphName + "...");
+			System.out.println("\tNew vertices: " + (graph.getNumberOfVertices() - previous.partitions.length));
+			System.out.println("\tEdge cut ratio: " + cutRatio + " (partitioned: " + previous.baselineCutRatio + ")");
+			System.out.println("\tMax load: " + maxLoad + " (partitioned: " + previous.baselineMaxLoad + ")");
+			System.out.println("\tDrift: " + drift + ", threshold: " + threshold);
+
+			if (drift <= threshold) {
+				System.out.println("\tKeeping previous partitions.");
+				state = new PartitionState(noParts, projected, previous.baselineCutRatio, previous.baselineMaxLoad);
+			} else {
+				System.out.println("\tRepartitioning.");
+			}
+		}
+
+		if (state == null) {
+			int[] partitions = partitioner.partition(graph, noNodeVertices, noParts, graphName);
+			if (partitions.length < graph.getNumberOfVertices()) {
+				return partitions; // Incomplete partitions are not kept
+			}
+			state = new PartitionState(noParts, partitions, cutRatio(graph, partitions), maxLoad(weights, partitions, noParts));
+		}
+
+		try {
+			state.write(store.getPartitionFile(graphName, generation));
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.exit(0);
+		}
+
+		return state.partitions;
+	}
+
+	private PartitionState loadPrevious(String graphName, int noParts, int noVertices) {
+		if (previousGeneration < 0) {
+			return null;
+		}
+		File partitionFile = store.getPartitionFile(graphName, previousGeneration);
+		if (!partitionFile.exists()) {
+			return null;
+		}
+		try {
+			PartitionState previous = PartitionState.read(partitionFile);
+			if (previous.noParts != noParts || previous.partitions.length > noVertices) {
+				return null;
+			}
+			return previous;
+		} catch (IOException e) {
+			System.err.println("\tWARNING! Could not read previous partitions: " + e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Extend previous partitions to all vertices: vertices without a partition, in vertex order, join the part they are
+	 * most connected to, or the part with the fewest vertices if they have no partitioned neighbour.
+	 */
+	static int[] project(CSRGraph<?> graph, int[] previous, int noParts) {
+
+		int n = graph.getNumberOfVertices();
+		int[] xadj = graph.getXadj();
+		int[] adjncy = graph.getAdjncy();
+		int[] adjwgt = graph.getAdjwgt();
+
+		int[] partitions = new int[n];
+		int[] partSizes = new int[noParts];
+		for (int v = 0; v < previous.length; v++) {
+			partitions[v] = previous[v];
+			partSizes[previous[v]]++;
+		}
+
+		long[] connectivity = new long[noParts];
+		for (int v = previous.length; v < n; v++) {
+			for (int p = 0; p < noParts; p++) {
+				connectivity[p] = 0;
+			}
+			for (int e = xadj[v]; e < xadj[v + 1]; e++) {
+				int u = adjncy[e];
+				if (u < v) { // Vertices below v have a partition
+					connectivity[partitions[u]] += adjwgt[e];
+				}
+			}
+
+			int best = 0;
+			for (int p = 1; p < noParts; p++) {
+				if (connectivity[p] > connectivity[best]
+						|| (connectivity[p] == connectivity[best] && partSizes[p] < partSizes[best])) {
+					best = p;
+				}
+			}
+			partitions[v] = best;
+			partSizes[best]++;
+		}
+
+		return partitions;
+	}
+
+	/**
+	 * @return Weight of the edges between parts relative to the total edge weight
+	 */
+	static double cutRatio(CSRGraph<?> graph, int[] partitions) {
+
+		int[] xadj = graph.getXadj();
+		int[] adjncy = graph.getAdjncy();
+		int[] adjwgt = graph.getAdjwgt();
+
+		long cut = 0;
+		long total = 0;
+		for (int v = 0; v < graph.getNumberOfVertices(); v++) {
+			for (int e = xadj[v]; e < xadj[v + 1]; e++) {
+				total += adjwgt[e];
+				if (partitions[adjncy[e]] != partitions[v]) {
+					cut += adjwgt[e];
+				}
+			}
+		}
+		return total == 0 ? 0 : (double) cut / total;
+	}
+
+	/**
+	 * @return Largest part weight relative to the average part weight, over all constraints
+	 */
+	static double maxLoad(ConstraintWeights weights, int[] partitions, int noParts) {
+
+		int ncon = weights.getNumberOfConstraints();
+		long[] total = new long[ncon];
+		long[] partWeights = new long[noParts * ncon];
+		for (int v = 0; v < weights.getNumberOfVertices(); v++) {
+			for (int c = 0; c < ncon; c++) {
+				int w = weights.get(v, c);
+				total[c] += w;
+				partWeights[partitions[v] * ncon + c] += w;
+			}
+		}
+
+		double maxLoad = 0;
+		for (int c = 0; c < ncon; c++) {
+			if (total[c] == 0) {
+				continue;
+			}
+			for (int p = 0; p < noParts; p++) {
+				maxLoad = Math.max(maxLoad, partWeights[p * ncon + c] * (double) noParts / total[c]);
+			}
+		}
+		return maxLoad;
+	}
+}
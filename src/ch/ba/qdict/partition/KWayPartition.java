@@ -0,0 +1,524 @@
+package ch.ba.qdict.partition;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * A k-way partition of one {@link PartitionLevel} together with its per part, per constraint weights.
+ * <p>
+ * Refinement is a k-way Fiduccia-Mattheyses pass: boundary vertices are moved to the part with the highest gain in
+ * order of gain, also through negative gains, as long as every part stays within the capacity of every constraint; the
+ * pass is rolled back to the best edge cut seen. Gains of all vertices are computed in parallel at the start of a pass.
+ * Fixed vertices are placed in their part and never moved.
+ */
+final class KWayPartition {
+
+	private static final int MIN_GRAIN = 1 << 12;
+
+	// Stop a pass after this many moves without a better edge cut
+	private static final int MAX_MOVES_WITHOUT_GAIN = 128;
+
+	// Neighbors with a higher degree are not updated after every move; their gain is recomputed when they are picked
+	private static final int HUB_DEGREE = 1 << 12;
+
+	private final PartitionLevel graph;
+	private final int noParts;
+	private final int ncon;
+	private final long[] capacity;
+	private final double[] target;
+
+	final int[] part;
+	private final long[] partWeights;
+
+	/**
+	 * @param capacity
+	 *            Per constraint, the maximum weight of a part
+	 * @param target
+	 *            Per constraint, the average weight of a part
+	 */
+	KWayPartition(PartitionLevel graph, int noParts, long[] capacity, double[] target, int[] part) {
+		this.graph = graph;
+		this.noParts = noParts;
+		this.ncon = graph.ncon;
+		this.capacity = capacity;
+		this.target = target;
+		this.part = part;
+		this.partWeights = new long[noParts * ncon];
+
+		for (int v = 0; v < graph.n; v++) {
+			for (int c = 0; c < ncon; c++) {
+				partWeights[part[v] * ncon + c] += graph.vwgt[v * ncon + c];
+			}
+		}
+	}
+
+	/**
+	 * Greedy graph growing: fixed vertices are placed first, then strongly constrained vertices, then all others in
+	 * breadth-first order; each free vertex goes to the part it is most connected to among the parts it fits into.
+	 */
+	static KWayPartition grow(PartitionLevel graph, int noParts, long[] capacity, double[] target, Random random) {
+
+		int n = graph.n;
+		int ncon = graph.ncon;
+		int[] part = new int[n];
+		Arrays.fill(part, -1);
+		long[] partWeights = new long[noParts * ncon];
+
+		int[] order = new int[n];
+		int orderSize = 0;
+		boolean[] queued = new boolean[n];
+		for (int v = 0; v < n; v++) {
+			if (graph.fixed[v] >= 0) {
+				order[orderSize++] = v;
+				queued[v] = true;
+			}
+		}
+
+		// Vertices that take up at least half a part of some constraint go next, heaviest first
+		int[] heavyVertices = new int[n];
+		final long[] heavyKeys = new long[n];
+		int noHeavy = 0;
+		for (int v = 0; v < n; v++) {
+			if (queued[v]) {
+				continue;
+			}
+			double maxLoad = 0;
+			for (int c = 0; c < ncon; c++) {
+				if (target[c] > 0) {
+					maxLoad = Math.max(maxLoad, graph.vwgt[v * ncon + c] / target[c]);
+				}
+			}
+			if (maxLoad >= 0.5) {
+				// Sort key: load, then random
+				heavyVertices[noHeavy] = v;
+				heavyKeys[noHeavy] = ((long) Math.min(Integer.MAX_VALUE, maxLoad * 1024) << 32)
+						| (random.nextInt() & 0xFFFFFFFFL);
+				noHeavy++;
+			}
+		}
+		Integer[] sorted = new Integer[noHeavy];
+		for (int i = 0; i < noHeavy; i++) {
+			sorted[i] = i;
+		}
+		Arrays.sort(sorted, (a, b) -> Long.compare(heavyKeys[b], heavyKeys[a]));
+
+		for (Integer i : sorted) {
+			order[orderSize++] = heavyVertices[i];
+			queued[heavyVertices[i]] = true;
+		}
+
+		// Breadth-first order of the remaining vertices, from random start vertices
+		int[] starts = new int[n];
+		for (int v = 0; v < n; v++) {
+			starts[v] = v;
+		}
+		for (int i = n - 1; i > 0; i--) {
+			int j = random.nextInt(i + 1);
+			int tmp = starts[i];
+			starts[i] = starts[j];
+			starts[j] = tmp;
+		}
+		int head = orderSize;
+		for (int s = 0; s < n; s++) {
+			if (queued[starts[s]]) {
+				continue;
+			}
+			queued[starts[s]] = true;
+			order[orderSize++] = starts[s];
+			while (head < orderSize) {
+				int v = order[head++];
+				for (int e = graph.xadj[v]; e < graph.xadj[v + 1]; e++) {
+					int u = graph.adjncy[e];
+					if (!queued[u]) {
+						queued[u] = true;
+						order[orderSize++] = u;
+					}
+				}
+			}
+		}
+
+		long[] connectivity = new long[noParts];
+		for (int i = 0; i < n; i++) {
+			int v = order[i];
+			if (graph.fixed[v] >= 0) {
+				part[v] = graph.fixed[v];
+				for (int c = 0; c < ncon; c++) {
+					partWeights[part[v] * ncon + c] += graph.vwgt[v * ncon + c];
+				}
+				continue;
+			}
+			Arrays.fill(connectivity, 0);
+			for (int e = graph.xadj[v]; e < graph.xadj[v + 1]; e++) {
+				int p = part[graph.adjncy[e]];
+				if (p >= 0) {
+					connectivity[p] += graph.adjwgt[e];
+				}
+			}
+
+			int best = -1;
+			int leastOverloaded = 0;
+			double leastOverload = Double.MAX_VALUE;
+			for (int p = 0; p < noParts; p++) {
+				if (fits(graph, v, p, partWeights, capacity)) {
+					if (best == -1 || connectivity[p] > connectivity[best]
+							|| (connectivity[p] == connectivity[best] && load(partWeights, p, ncon, target) < load(partWeights, best, ncon, target))) {
+						best = p;
+					}
+				} else {
+					double overload = loadWith(graph, v, p, partWeights, target);
+					if (overload < leastOverload) {
+						leastOverload = overload;
+						leastOverloaded = p;
+					}
+				}
+			}
+			if (best == -1) {
+				best = leastOverloaded;
+			}
+
+			part[v] = best;
+			for (int c = 0; c < ncon; c++) {
+				partWeights[best * ncon + c] += graph.vwgt[v * ncon + c];
+			}
+		}
+
+		return new KWayPartition(graph, noParts, capacity, target, part);
+	}
+
+	boolean isBalanced() {
+		for (int p = 0; p < noParts; p++) {
+			if (isOverloaded(p)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	long edgeCut() {
+		return graph.edgeCut(part);
+	}
+
+	/**
+	 * Move vertices out of overloaded parts, cheapest edge cut increase first.
+	 */
+	void balance() {
+
+		int n = graph.n;
+		long[] connectivity = new long[noParts];
+		long[] candidates = new long[n];
+
+		for (int round = 0; round < 2 * noParts && !isBalanced(); round++) {
+			boolean moved = false;
+			for (int p = 0; p < noParts; p++) {
+				if (!isOverloaded(p)) {
+					continue;
+				}
+
+				// Candidates: vertices carrying weight of an overloaded constraint; sort key is the gain
+				int noCandidates = 0;
+				for (int v = 0; v < n; v++) {
+					if (part[v] != p || !carriesOverload(v, p)) {
+						continue;
+					}
+					int t = bestMove(v, connectivity, true);
+					if (t >= 0) {
+						long gain = connectivity[t] - connectivity[p];
+						candidates[noCandidates++] = key(clamp(gain), v);
+					}
+				}
+				Arrays.sort(candidates, 0, noCandidates);
+
+				for (int i = noCandidates - 1; i >= 0 && isOverloaded(p); i--) {
+					int v = (int) (0x7FFFFFFFL - (candidates[i] & 0xFFFFFFFFL));
+					if (!carriesOverload(v, p)) {
+						continue;
+					}
+					int t = bestMove(v, connectivity, true);
+					if (t >= 0) {
+						move(v, t);
+						moved = true;
+					}
+				}
+			}
+			if (!moved) {
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Run up to passes Fiduccia-Mattheyses passes; stops early when a pass does not improve the edge cut.
+	 */
+	void refine(ForkJoinPool pool, int passes) {
+
+		final int n = graph.n;
+		final int[] gain = new int[n];
+		final int[] moveTo = new int[n];
+		boolean[] locked = new boolean[n];
+		int[] movedVertices = new int[n];
+		int[] movedFrom = new int[n];
+		long[] connectivity = new long[noParts];
+		LongHeap heap = new LongHeap(Math.max(16, n / 4));
+
+		for (int pass = 0; pass < passes; pass++) {
+
+			BlockLoop.run(pool, n, BlockLoop.grain(pool, n, MIN_GRAIN), new BlockLoop.Body() {
+				@Override
+				public void run(int from, int to) {
+					long[] connectivity = new long[noParts];
+					for (int v = from; v < to; v++) {
+						moveTo[v] = bestMove(v, connectivity, false);
+						if (moveTo[v] >= 0) {
+							gain[v] = clamp(connectivity[moveTo[v]] - connectivity[part[v]]);
+						}
+					}
+				}
+			});
+
+			heap.clear();
+			for (int v = 0; v < n; v++) {
+				if (moveTo[v] >= 0) {
+					heap.push(key(gain[v], v));
+				}
+			}
+			Arrays.fill(locked, false);
+
+			int noMoves = 0;
+			int bestMoves = 0;
+			long cutDelta = 0;
+			long bestCutDelta = 0;
+
+			while (!heap.isEmpty()) {
+				long top = heap.pop();
+				int v = (int) (0x7FFFFFFFL - (top & 0xFFFFFFFFL));
+				if (locked[v] || moveTo[v] < 0 || (int) (top >> 32) != gain[v]) {
+					continue; // Stale entry
+				}
+
+				int t = bestMove(v, connectivity, false);
+				if (t < 0) {
+					moveTo[v] = -1;
+					continue;
+				}
+				int g = clamp(connectivity[t] - connectivity[part[v]]);
+				if (g != gain[v]) {
+					gain[v] = g;
+					moveTo[v] = t;
+					heap.push(key(g, v));
+					continue;
+				}
+
+				movedVertices[noMoves] = v;
+				movedFrom[noMoves] = part[v];
+				noMoves++;
+				move(v, t);
+				locked[v] = true;
+				cutDelta += g;
+
+				if (cutDelta > bestCutDelta) {
+					bestCutDelta = cutDelta;
+					bestMoves = noMoves;
+				} else if (noMoves - bestMoves > MAX_MOVES_WITHOUT_GAIN) {
+					break;
+				}
+
+				for (int e = graph.xadj[v]; e < graph.xadj[v + 1]; e++) {
+					int u = graph.adjncy[e];
+					if (locked[u] || graph.xadj[u + 1] - graph.xadj[u] > HUB_DEGREE) {
+						continue;
+					}
+					int ut = bestMove(u, connectivity, false);
+					if (ut < 0) {
+						moveTo[u] = -1;
+						continue;
+					}
+					int ug = clamp(connectivity[ut] - connectivity[part[u]]);
+					if (moveTo[u] < 0 || ug != gain[u]) {
+						heap.push(key(ug, u));
+					}
+					gain[u] = ug;
+					moveTo[u] = ut;
+				}
+			}
+
+			// Roll back to the best edge cut of this pass
+			for (int i = noMoves - 1; i >= bestMoves; i--) {
+				move(movedVertices[i], movedFrom[i]);
+			}
+
+			if (bestCutDelta <= 0) {
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Find the part a vertex should move to. Without force, only parts the vertex is connected to are considered.
+	 *
+	 * @param connectivity
+	 *            Scratch array of noParts entries; holds the connectivity of v to every part afterwards
+	 * @return Part with the highest gain the vertex fits into, or -1
+	 */
+	private int bestMove(int v, long[] connectivity, boolean force) {
+
+		Arrays.fill(connectivity, 0);
+		if (graph.fixed[v] >= 0) {
+			return -1;
+		}
+		for (int e = graph.xadj[v]; e < graph.xadj[v + 1]; e++) {
+			int u = graph.adjncy[e];
+			if (u != v) {
+				connectivity[part[u]] += graph.adjwgt[e];
+			}
+		}
+
+		int p = part[v];
+		int best = -1;
+		for (int t = 0; t < noParts; t++) {
+			if (t == p || (!force && connectivity[t] == 0) || !fits(graph, v, t, partWeights, capacity)) {
+				continue;
+			}
+			if (best == -1 || connectivity[t] > connectivity[best]
+					|| (connectivity[t] == connectivity[best] && load(partWeights, t, ncon, this.target) < load(partWeights, best, ncon, this.target))) {
+				best = t;
+			}
+		}
+		return best;
+	}
+
+	private void move(int v, int to) {
+		int from = part[v];
+		for (int c = 0; c < ncon; c++) {
+			int w = graph.vwgt[v * ncon + c];
+			partWeights[from * ncon + c] -= w;
+			partWeights[to * ncon + c] += w;
+		}
+		part[v] = to;
+	}
+
+	private boolean isOverloaded(int p) {
+		for (int c = 0; c < ncon; c++) {
+			if (partWeights[p * ncon + c] > capacity[c]) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private boolean carriesOverload(int v, int p) {
+		for (int c = 0; c < ncon; c++) {
+			if (graph.vwgt[v * ncon + c] > 0 && partWeights[p * ncon + c] > capacity[c]) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean fits(PartitionLevel graph, int v, int p, long[] partWeights, long[] capacity) {
+		int ncon = graph.ncon;
+		for (int c = 0; c < ncon; c++) {
+			int w = graph.vwgt[v * ncon + c];
+			if (w > 0 && partWeights[p * ncon + c] + w > capacity[c]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return Largest weight of the part relative to the average part weight, over all constraints
+	 */
+	private static double load(long[] partWeights, int p, int ncon, double[] target) {
+		double load = 0;
+		for (int c = 0; c < ncon; c++) {
+			if (target[c] > 0) {
+				load = Math.max(load, partWeights[p * ncon + c] / target[c]);
+			}
+		}
+		return load;
+	}
+
+	private static double loadWith(PartitionLevel graph, int v, int p, long[] partWeights, double[] target) {
+		int ncon = graph.ncon;
+		double load = 0;
+		for (int c = 0; c < ncon; c++) {
+			if (target[c] > 0) {
+				load = Math.max(load, (partWeights[p * ncon + c] + graph.vwgt[v * ncon + c]) / target[c]);
+			}
+		}
+		return load;
+	}
+
+	private static int clamp(long gain) {
+		return (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, gain));
+	}
+
+	/**
+	 * @return Heap key ordering by gain, then by smaller vertex id
+	 */
+	private static long key(int gain, int v) {
+		return ((long) gain << 32) | (0x7FFFFFFFL - v);
+	}
+
+	/**
+	 * Binary max-heap of longs.
+	 */
+	private static class LongHeap {
+
+		private long[] heap;
+		private int size;
+
+		LongHeap(int initialCapacity) {
+			heap = new long[initialCapacity];
+		}
+
+		boolean isEmpty() {
+			return size == 0;
+		}
+
+		void clear() {
+			size = 0;
+		}
+
+		void push(long value) {
+			if (size == heap.length) {
+				heap = Arrays.copyOf(heap, size * 2);
+			}
+			int i = size++;
+			while (i > 0) {
+				int parent = (i - 1) >>> 1;
+				if (heap[parent] >= value) {
+					break;
+				}
+				heap[i] = heap[parent];
+				i = parent;
+			}
+			heap[i] = value;
+		}
+
+		long pop() {
+			long top = heap[0];
+			long last = heap[--size];
+			int i = 0;
+			while (true) {
+				int child = 2 * i + 1;
+				if (child >= size) {
+					break;
+				}
+				if (child + 1 < size && heap[child + 1] > heap[child]) {
+					child++;
+				}
+				if (heap[child] <= last) {
+					break;
+				}
+				heap[i] = heap[child];
+				i = child;
+			}
+			if (size > 0) {
+				heap[i] = last;
+			}
+			return top;
+		}
+	}
+}
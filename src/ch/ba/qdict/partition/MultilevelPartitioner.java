@@ -0,0 +1,173 @@
+package ch.ba.qdict.partition;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import ch.ba.qdict.graph.CSRGraph;
+import ch.ba.qdict.graph.ConstraintWeights;
+import ch.ba.qdict.metrics.Phase;
+import ch.ba.qdict.metrics.RunMetrics;
+
+/**
+ * Multilevel k-way partitioner running inside the JVM, on the graph in memory.
+ * <p>
+ * Like METIS, the graph is coarsened by heavy-edge matching until it is small, the coarsest graph is partitioned by
+ * greedy graph growing (several trials, the best one wins) and the partition is projected back level by level with
+ * Fiduccia-Mattheyses refinement on every level. Every part must stay within imbalance times the average part weight
+ * for every constraint. Node vertex i is fixed to part i on every level, so every part gets exactly one node vertex
+ * even if the balance constraints can't be met.
+ * <p>
+ * Results only depend on the seed, not on the number of threads.
+ */
+public class MultilevelPartitioner implements Partitioner {
+
+	private static final int COARSEN_TO_PER_PART = 40;
+	private static final int MIN_COARSEN_TO = 200;
+	private static final int MAX_LEVELS = 64;
+	private static final int INITIAL_TRIALS = 8;
+	private static final int REFINE_PASSES = 8;
+
+	private final int threads;
+	private final double imbalance;
+	private final long seed;
+
+	/**
+	 * @param threads
+	 *            Number of threads for coarsening, initial partitioning and refinement
+	 * @param imbalance
+	 *            Allowed part weight relative to the average part weight, e.g. 1.03 like gpmetis
+	 */
+	public MultilevelPartitioner(int threads, double imbalance, long seed) {
+		this.threads = threads;
+		this.imbalance = imbalance;
+		this.seed = seed;
+	}
+
+	@Override
+	public int[] partition(CSRGraph<?> graph, int noNodeVertices, int noParts, String graphName) {
+
+		System.out.println("Partitioning Graph " + graphName + "...");
+
+		int n = graph.getNumberOfVertices();
+		if (noParts <= 1 || n == 0) {
+			return new int[n];
+		}
+
+		Phase phase = RunMetrics.startPhase("partition", graphName);
+
+		ConstraintWeights weights = new ConstraintWeights(graph, noNodeVertices);
+		int ncon = weights.getNumberOfConstraints();
+		int[] fixed = new int[n];
+		Arrays.fill(fixed, -1);
+		for (int v = 0; v < Math.min(noNodeVertices, Math.min(noParts, n)); v++) {
+			fixed[v] = v;
+		}
+		PartitionLevel finest = new PartitionLevel(n, ncon, graph.getXadj(), graph.getAdjncy(), graph.getAdjwgt(),
+				weights.toArray(), fixed);
+
+		// Capacity: imbalance times the average, but at least enough to fit all weight
+		long[] total = new long[ncon];
+		for (int v = 0; v < n; v++) {
+			for (int c = 0; c < ncon; c++) {
+				total[c] += finest.vwgt[v * ncon + c];
+			}
+		}
+		double[] target = new double[ncon];
+		long[] capacity = new long[ncon];
+		for (int c = 0; c < ncon; c++) {
+			target[c] = (double) total[c] / noParts;
+			capacity[c] = Math.max((total[c] + noParts - 1) / noParts, (long) (target[c] * imbalance));
+		}
+
+		ForkJoinPool pool = new ForkJoinPool(Math.max(1, threads));
+		try {
+			List<PartitionLevel> levels = coarsen(pool, finest, noParts, total);
+			PartitionLevel coarsest = levels.get(levels.size() - 1);
+
+			KWayPartition partition = initialPartition(pool, coarsest, noParts, capacity, target);
+
+			for (int l = levels.size() - 2; l >= 0; l--) {
+				PartitionLevel level = levels.get(l);
+				int[] part = new int[level.n];
+				for (int v = 0; v < level.n; v++) {
+					part[v] = partition.part[level.cmap[v]];
+				}
+				partition = new KWayPartition(level, noParts, capacity, target, part);
+				partition.balance();
+				partition.refine(pool, REFINE_PASSES);
+			}
+
+			phase.setGraphSize(n, graph.getNumberOfEdges());
+			long partitionTime = phase.end();
+
+			System.out.println("\tLevels: " + levels.size() + ", coarsest graph: " + coarsest.n + " vertices");
+			System.out.println("\tEdge cut: " + partition.edgeCut());
+			if (!partition.isBalanced()) {
+				System.err.println("\tWARNING! Partition does not meet the balance constraints.");
+			}
+			System.out.println("\tExecution time: " + partitionTime + " ms");
+
+			return partition.part;
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	private List<PartitionLevel> coarsen(ForkJoinPool pool, PartitionLevel finest, int noParts, long[] total) {
+
+		int coarsenTo = Math.max(MIN_COARSEN_TO, COARSEN_TO_PER_PART * noParts);
+
+		// Contracted vertices must not get too heavy to be placed, in particular two node vertices never merge
+		long[] maxVertexWeight = new long[total.length];
+		for (int c = 0; c < total.length; c++) {
+			maxVertexWeight[c] = Math.max(1, (long) (1.5 * total[c] / coarsenTo));
+		}
+
+		List<PartitionLevel> levels = new ArrayList<PartitionLevel>();
+		levels.add(finest);
+		PartitionLevel level = finest;
+		while (level.n > coarsenTo && levels.size() < MAX_LEVELS) {
+			PartitionLevel coarser = level.coarsen(pool, maxVertexWeight, seed + levels.size());
+			if (coarser.n > 0.95 * level.n) { // Matching does not shrink the graph anymore
+				level.cmap = null;
+				break;
+			}
+			levels.add(coarser);
+			level = coarser;
+		}
+		return levels;
+	}
+
+	private KWayPartition initialPartition(ForkJoinPool pool, final PartitionLevel coarsest, final int noParts,
+			final long[] capacity, final double[] target) {
+
+		// Trials run in parallel and refine sequentially
+		final KWayPartition[] trials = new KWayPartition[INITIAL_TRIALS];
+		BlockLoop.run(pool, INITIAL_TRIALS, 1, new BlockLoop.Body() {
+			@Override
+			public void run(int from, int to) {
+				for (int t = from; t < to; t++) {
+					KWayPartition trial = KWayPartition.grow(coarsest, noParts, capacity, target, new Random(seed + t));
+					trial.balance();
+					trial.refine(null, REFINE_PASSES);
+					trials[t] = trial;
+				}
+			}
+		});
+
+		KWayPartition best = null;
+		long bestCut = 0;
+		for (KWayPartition trial : trials) {
+			long cut = trial.edgeCut();
+			if (best == null || (trial.isBalanced() && !best.isBalanced())
+					|| (trial.isBalanced() == best.isBalanced() && cut < bestCut)) {
+				best = trial;
+				bestCut = cut;
+			}
+		}
+		return best;
+	}
+}
@@ -0,0 +1,269 @@
+package ch.ba.qdict.partition;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * One level of the multilevel hierarchy: an undirected graph in CSR form with multi-constraint vertex weights.
+ * <p>
+ * Coarser levels are built by heavy-edge matching and contracting every matched pair into one vertex. Matching runs in
+ * handshake rounds: every unmatched vertex picks its heaviest unmatched neighbor in parallel and mutual picks are
+ * matched. This keeps the matching deterministic regardless of the number of threads.
+ * <p>
+ * Fixed vertices must end up in a given part. Two vertices fixed to different parts are never contracted, and a
+ * contracted vertex is fixed to the part of its fixed member.
+ */
+final class PartitionLevel {
+
+	private static final int MATCHING_ROUNDS = 3;
+	private static final int MIN_GRAIN = 1 << 12;
+
+	final int n;
+	final int ncon;
+	final int[] xadj;
+	final int[] adjncy;
+	final int[] adjwgt;
+	final int[] vwgt;
+
+	// Part every vertex is fixed to, -1 if it is free
+	final int[] fixed;
+
+	// Vertex of the next coarser level every vertex of this level is contracted into
+	int[] cmap;
+
+	PartitionLevel(int n, int ncon, int[] xadj, int[] adjncy, int[] adjwgt, int[] vwgt, int[] fixed) {
+		this.n = n;
+		this.ncon = ncon;
+		this.xadj = xadj;
+		this.adjncy = adjncy;
+		this.adjwgt = adjwgt;
+		this.vwgt = vwgt;
+		this.fixed = fixed;
+	}
+
+	/**
+	 * @param maxVertexWeight
+	 *            Per constraint, the largest weight a contracted vertex may get
+	 * @param salt
+	 *            Tie breaker between equally heavy edges
+	 * @return Coarser level; cmap of this level is set
+	 */
+	PartitionLevel coarsen(ForkJoinPool pool, final long[] maxVertexWeight, long salt) {
+
+		final int[] match = new int[n];
+		final int[] preference = new int[n];
+		Arrays.fill(match, -1);
+
+		int grain = BlockLoop.grain(pool, n, MIN_GRAIN);
+		for (int round = 0; round < MATCHING_ROUNDS; round++) {
+			final long roundSalt = salt * 31 + round;
+			BlockLoop.run(pool, n, grain, new BlockLoop.Body() {
+				@Override
+				public void run(int from, int to) {
+					for (int v = from; v < to; v++) {
+						preference[v] = match[v] == -1 ? heaviestNeighbor(v, match, maxVertexWeight, roundSalt) : -1;
+					}
+				}
+			});
+			BlockLoop.run(pool, n, grain, new BlockLoop.Body() {
+				@Override
+				public void run(int from, int to) {
+					for (int v = from; v < to; v++) {
+						int u = preference[v];
+						// Only the smaller vertex of a mutual pick writes, so no two threads touch the same pair
+						if (u > v && preference[u] == v) {
+							match[v] = u;
+							match[u] = v;
+						}
+					}
+				}
+			});
+		}
+
+		// Vertices left over by the handshake rounds are matched greedily, the rest stay alone
+		for (int v = 0; v < n; v++) {
+			if (match[v] == -1) {
+				int u = heaviestNeighbor(v, match, maxVertexWeight, salt);
+				if (u != -1) {
+					match[v] = u;
+					match[u] = v;
+				} else {
+					match[v] = v;
+				}
+			}
+		}
+
+		return contract(pool, match);
+	}
+
+	private int heaviestNeighbor(int v, int[] match, long[] maxVertexWeight, long salt) {
+		int best = -1;
+		int bestWeight = 0;
+		long bestTie = 0;
+		for (int e = xadj[v]; e < xadj[v + 1]; e++) {
+			int u = adjncy[e];
+			if (u == v || match[u] != -1 || (fixed[v] >= 0 && fixed[u] >= 0 && fixed[v] != fixed[u])) {
+				continue;
+			}
+			int w = adjwgt[e];
+			if (best != -1 && w < bestWeight) {
+				continue;
+			}
+			long tie = mix(u ^ salt);
+			if (best != -1 && w == bestWeight && tie <= bestTie) {
+				continue;
+			}
+			if (!fits(v, u, maxVertexWeight)) {
+				continue;
+			}
+			best = u;
+			bestWeight = w;
+			bestTie = tie;
+		}
+		return best;
+	}
+
+	private boolean fits(int v, int u, long[] maxVertexWeight) {
+		for (int c = 0; c < ncon; c++) {
+			if ((long) vwgt[v * ncon + c] + vwgt[u * ncon + c] > maxVertexWeight[c]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private PartitionLevel contract(ForkJoinPool pool, final int[] match) {
+
+		cmap = new int[n];
+		int coarseVertices = 0;
+		for (int v = 0; v < n; v++) {
+			if (match[v] >= v) { // Smaller vertex of a pair, or unmatched
+				cmap[v] = coarseVertices;
+				cmap[match[v]] = coarseVertices;
+				coarseVertices++;
+			}
+		}
+		final int nc = coarseVertices;
+
+		final int[] representative = new int[nc];
+		final int[] cfixed = new int[nc];
+		for (int v = 0; v < n; v++) {
+			if (match[v] >= v) {
+				representative[cmap[v]] = v;
+				cfixed[cmap[v]] = Math.max(fixed[v], fixed[match[v]]);
+			}
+		}
+
+		final int[] cvwgt = new int[nc * ncon];
+		final int[] degree = new int[nc];
+		final int blockSize = BlockLoop.grain(pool, nc, MIN_GRAIN);
+		final int noBlocks = (nc + blockSize - 1) / blockSize;
+		final int[][] blockAdjncy = new int[noBlocks][];
+		final int[][] blockAdjwgt = new int[noBlocks][];
+
+		// Every worker merges the adjacency lists of its block of coarse vertices into block-local arrays
+		final ThreadLocal<int[]> markers = new ThreadLocal<int[]>() {
+			@Override
+			protected int[] initialValue() {
+				int[] marker = new int[nc];
+				Arrays.fill(marker, -1);
+				return marker;
+			}
+		};
+		BlockLoop.run(pool, noBlocks, 1, new BlockLoop.Body() {
+			@Override
+			public void run(int fromBlock, int toBlock) {
+				int[] marker = markers.get();
+				for (int b = fromBlock; b < toBlock; b++) {
+					int from = b * blockSize;
+					int to = Math.min(nc, from + blockSize);
+
+					int bound = 0;
+					for (int cv = from; cv < to; cv++) {
+						int v = representative[cv];
+						bound += xadj[v + 1] - xadj[v];
+						if (match[v] != v) {
+							bound += xadj[match[v] + 1] - xadj[match[v]];
+						}
+					}
+
+					int[] adj = new int[bound];
+					int[] wgt = new int[bound];
+					int size = 0;
+					for (int cv = from; cv < to; cv++) {
+						int start = size;
+						int v = representative[cv];
+						for (int member = v;; member = match[v]) {
+							for (int c = 0; c < ncon; c++) {
+								cvwgt[cv * ncon + c] += vwgt[member * ncon + c];
+							}
+							for (int e = xadj[member]; e < xadj[member + 1]; e++) {
+								int cu = cmap[adjncy[e]];
+								if (cu == cv) {
+									continue;
+								}
+								if (marker[cu] == -1) {
+									marker[cu] = size;
+									adj[size] = cu;
+									wgt[size] = adjwgt[e];
+									size++;
+								} else {
+									wgt[marker[cu]] += adjwgt[e];
+								}
+							}
+							if (member == match[v]) {
+								break;
+							}
+						}
+						for (int i = start; i < size; i++) {
+							marker[adj[i]] = -1;
+						}
+						degree[cv] = size - start;
+					}
+					blockAdjncy[b] = Arrays.copyOf(adj, size);
+					blockAdjwgt[b] = Arrays.copyOf(wgt, size);
+				}
+			}
+		});
+
+		final int[] cxadj = new int[nc + 1];
+		for (int cv = 0; cv < nc; cv++) {
+			cxadj[cv + 1] = cxadj[cv] + degree[cv];
+		}
+		final int[] cadjncy = new int[cxadj[nc]];
+		final int[] cadjwgt = new int[cxadj[nc]];
+		BlockLoop.run(pool, noBlocks, 1, new BlockLoop.Body() {
+			@Override
+			public void run(int fromBlock, int toBlock) {
+				for (int b = fromBlock; b < toBlock; b++) {
+					int offset = cxadj[b * blockSize];
+					System.arraycopy(blockAdjncy[b], 0, cadjncy, offset, blockAdjncy[b].length);
+					System.arraycopy(blockAdjwgt[b], 0, cadjwgt, offset, blockAdjwgt[b].length);
+				}
+			}
+		});
+
+		return new PartitionLevel(nc, ncon, cxadj, cadjncy, cadjwgt, cvwgt, cfixed);
+	}
+
+	/**
+	 * @return Sum of the weights of all edges between different parts
+	 */
+	long edgeCut(int[] part) {
+		long cut = 0;
+		for (int v = 0; v < n; v++) {
+			for (int e = xadj[v]; e < xadj[v + 1]; e++) {
+				if (part[adjncy[e]] != part[v]) {
+					cut += adjwgt[e];
+				}
+			}
+		}
+		return cut / 2;
+	}
+
+	static long mix(long z) {
+		z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+		z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+		return z ^ (z >>> 33);
+	}
+}
@@ -0,0 +1,69 @@
+package ch.ba.qdict.partition;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Partitions of a graph together with the quality they had when the graph was last partitioned from scratch.
+ */
+final class PartitionState {
+
+	private static final int MAGIC = 0x51545053; // QTPS
+	private static final int VERSION = 1;
+
+	final int noParts;
+	final int[] partitions;
+
+	// Edge cut relative to the total edge weight and largest part weight relative to the average, when partitioned
+	final double baselineCutRatio;
+	final double baselineMaxLoad;
+
+	PartitionState(int noParts, int[] partitions, double baselineCutRatio, double baselineMaxLoad) {
+		this.noParts = noParts;
+		this.partitions = partitions;
+		this.baselineCutRatio = baselineCutRatio;
+		this.baselineMaxLoad = baselineMaxLoad;
+	}
+
+	void write(File file) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(noParts);
+			out.writeDouble(baselineCutRatio);
+			out.writeDouble(baselineMaxLoad);
+			out.writeInt(partitions.length);
+			for (int partition : partitions) {
+				out.writeInt(partition);
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	static PartitionState read(File file) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+		try {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				throw new IOException("Unsupported partition state: " + file);
+			}
+			int noParts = in.readInt();
+			double baselineCutRatio = in.readDouble();
+			double baselineMaxLoad = in.readDouble();
+			int[] partitions = new int[in.readInt()];
+			for (int i = 0; i < partitions.length; i++) {
+				partitions[i] = in.readInt();
+			}
+			return new PartitionState(noParts, partitions, baselineCutRatio, baselineMaxLoad);
+		} finally {
+			in.close();
+		}
+	}
+}
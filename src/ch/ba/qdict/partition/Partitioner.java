@@ -0,0 +1,24 @@
+package ch.ba.qdict.partition;
+
+import ch.ba.qdict.graph.CSRGraph;
+
+/**
+ * Partitions a trace graph into noParts parts under the multi-constraint vertex weights of
+ * {@link ch.ba.qdict.graph.ConstraintWeights}.
+ */
+public interface Partitioner {
+
+	/**
+	 * @param graph
+	 *            Graph to partition
+	 * @param noNodeVertices
+	 *            Number of leading node vertices, 0 if the graph has none
+	 * @param noParts
+	 *            Number of partitions
+	 * @param graphName
+	 *            Name of the graph; used for intermediate files and output
+	 * @return Partition number (0 to noParts - 1) of every vertex, indexed by vertex id. May be shorter than the number
+	 *         of vertices if the partitioner did not return all vertices.
+	 */
+	int[] partition(CSRGraph<?> graph, int noNodeVertices, int noParts, String graphName);
+}
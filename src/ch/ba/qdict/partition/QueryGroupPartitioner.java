@@ -0,0 +1,108 @@
+package ch.ba.qdict.partition;
+
+import ch.ba.qdict.graph.CSRGraph;
+import ch.ba.qdict.graph.QueryClustering;
+import ch.ba.qdict.graph.VertexTable;
+import ch.ba.qdict.metrics.Phase;
+import ch.ba.qdict.metrics.RunMetrics;
+
+/**
+ * Partitions a graph with one constraint per group of queries with similar footprints instead of one per query, see
+ * {@link QueryClustering}. Fewer constraints make the partitioner faster, at the cost of the balance of the single
+ * queries, which is reported after partitioning.
+ */
+public class QueryGroupPartitioner implements Partitioner {
+
+	private final Partitioner partitioner;
+	private final int noGroups;
+	private final int threads;
+
+	/**
+	 * @param partitioner
+	 *            Partitioner the graph with grouped constraints is handed to
+	 * @param noGroups
+	 *            Number of constraint groups of the queries
+	 * @param threads
+	 *            Threads clustering the queries
+	 */
+	public QueryGroupPartitioner(Partitioner partitioner, int noGroups, int threads) {
+		this.partitioner = partitioner;
+		this.noGroups = noGroups;
+		this.threads = threads;
+	}
+
+	@Override
+	public int[] partition(CSRGraph<?> graph, int noNodeVertices, int noParts, String graphName) {
+
+		if (graph.getNumberOfQueries() <= noGroups) {
+			return partitioner.partition(graph, noNodeVertices, noParts, graphName);
+		}
+
+		QueryClustering clustering = cluster(graph.getVertexTable(), noNodeVertices, noGroups, threads, graphName);
+		int[] partitions = partitioner.partition(clustering.apply(graph), noNodeVertices, noParts, graphName);
+
+		checkBalance(clustering, graph.getVertexTable(), partitions, noParts, graphName);
+
+		return partitions;
+	}
+
+	/**
+	 * Partitions vertices whose edges are not held in memory, e.g. by streaming a METIS input file from edge runs.
+	 */
+	public interface VertexPartitioner {
+
+		/**
+		 * @param vertices
+		 *            Vertices with the constraints to balance; the number of edges is set while partitioning
+		 * @return Partition of every vertex
+		 */
+		int[] partition(VertexTable<?> vertices);
+	}
+
+	/**
+	 * Out-of-core variant: partition vertices with one constraint per group of queries if there are more than noGroups
+	 * queries, with one per query otherwise. The number of edges found while partitioning is set on the vertices.
+	 */
+	public static <T> int[] partition(VertexTable<T> vertices, int noNodeVertices, int noParts, int noGroups,
+			int threads, String graphName, VertexPartitioner partitioner) {
+
+		if (noGroups <= 0 || vertices.getNumberOfQueries() <= noGroups) {
+			return partitioner.partition(vertices);
+		}
+
+		QueryClustering clustering = cluster(vertices, noNodeVertices, noGroups, threads, graphName);
+		VertexTable<T> groupedVertices = clustering.apply(vertices);
+		int[] partitions = partitioner.partition(groupedVertices);
+		vertices.setNumberOfEdges(groupedVertices.getNumberOfEdges());
+
+		checkBalance(clustering, vertices, partitions, noParts, graphName);
+
+		return partitions;
+	}
+
+	/**
+	 * Cluster the queries of a graph into noGroups constraint groups and print how well the groups cover the
+	 * footprints of their queries.
+	 */
+	public static QueryClustering cluster(VertexTable<?> vertices, int noNodeVertices, int noGroups, int threads,
+			String graphName) {
+
+		System.out.println("Clustering Queries of " + graphName + "...");
+
+		Phase phase = RunMetrics.startPhase("query-clustering", graphName);
+		QueryClustering clustering = QueryClustering.cluster(vertices, noNodeVertices, noGroups, threads);
+		phase.setGraphSize(vertices.getNumberOfVertices(), vertices.getNumberOfEdges());
+		long clusterTime = phase.end();
+
+		clustering.printFidelity(vertices);
+		System.out.println("\tExecution time: " + clusterTime + " ms");
+
+		return clustering;
+	}
+
+	private static void checkBalance(QueryClustering clustering, VertexTable<?> vertices, int[] partitions,
+			int noParts, String graphName) {
+		System.out.println("Checking Query Balance of " + graphName + "...");
+		clustering.printBalance(vertices, partitions, noParts);
+	}
+}